@@ -25,12 +25,13 @@ import android.os.Parcelable;
 import androidx.fragment.app.FragmentActivity;
 import com.facebook.AccessToken;
 import com.facebook.AccessTokenSource;
+import com.facebook.internal.SdkExecutors;
 import java.util.Collection;
 import java.util.Date;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
 
 class DeviceAuthMethodHandler extends LoginMethodHandler {
-  private static ScheduledThreadPoolExecutor backgroundExecutor;
+  private static ScheduledExecutorService backgroundExecutor;
 
   DeviceAuthMethodHandler(LoginClient loginClient) {
     super(loginClient);
@@ -99,9 +100,9 @@ class DeviceAuthMethodHandler extends LoginMethodHandler {
     loginClient.completeAndValidate(outcome);
   }
 
-  public static synchronized ScheduledThreadPoolExecutor getBackgroundExecutor() {
+  public static synchronized ScheduledExecutorService getBackgroundExecutor() {
     if (backgroundExecutor == null) {
-      backgroundExecutor = new ScheduledThreadPoolExecutor(1);
+      backgroundExecutor = SdkExecutors.newSerialExecutor("DeviceAuthMethodHandler");
     }
 
     return backgroundExecutor;
@@ -44,12 +44,13 @@ import com.facebook.GraphResponse;
 import com.facebook.HttpMethod;
 import com.facebook.common.R;
 import com.facebook.devicerequests.internal.DeviceRequestsHelper;
+import com.facebook.internal.SdkExecutors;
 import com.facebook.internal.Validate;
 import com.facebook.share.model.ShareContent;
 import com.facebook.share.model.ShareLinkContent;
 import com.facebook.share.model.ShareOpenGraphContent;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -72,7 +73,7 @@ public class DeviceShareDialogFragment extends DialogFragment {
   private Dialog dialog;
   private volatile RequestState currentRequestState;
   private volatile ScheduledFuture codeExpiredFuture;
-  private static ScheduledThreadPoolExecutor backgroundExecutor;
+  private static ScheduledExecutorService backgroundExecutor;
   private ShareContent shareContent;
 
   @Nullable
@@ -226,9 +227,9 @@ public class DeviceShareDialogFragment extends DialogFragment {
     finishActivity(Activity.RESULT_OK, intent);
   }
 
-  private static synchronized ScheduledThreadPoolExecutor getBackgroundExecutor() {
+  private static synchronized ScheduledExecutorService getBackgroundExecutor() {
     if (backgroundExecutor == null) {
-      backgroundExecutor = new ScheduledThreadPoolExecutor(1);
+      backgroundExecutor = SdkExecutors.newSerialExecutor("DeviceShareDialogFragment");
     }
     return backgroundExecutor;
   }
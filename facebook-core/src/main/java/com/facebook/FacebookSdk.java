@@ -27,7 +27,6 @@ import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.Signature;
-import android.os.AsyncTask;
 import android.util.Base64;
 import android.util.Log;
 import androidx.annotation.Nullable;
@@ -44,6 +43,7 @@ import com.facebook.internal.FeatureManager;
 import com.facebook.internal.FetchedAppSettingsManager;
 import com.facebook.internal.LockOnGetVariable;
 import com.facebook.internal.NativeProtocol;
+import com.facebook.internal.SdkExecutors;
 import com.facebook.internal.ServerProtocol;
 import com.facebook.internal.Utility;
 import com.facebook.internal.Validate;
@@ -557,18 +557,18 @@ public final class FacebookSdk {
   /**
    * Returns the Executor used by the SDK for non-AsyncTask background work.
    *
-   * <p>By default this uses AsyncTask Executor via reflection if the API level is high enough.
-   * Otherwise this creates a new Executor with defaults similar to those used in AsyncTask.
+   * <p>By default this is the SDK's own IO pool, so SDK work does not compete with the app for
+   * AsyncTask threads.
    *
    * @return an Executor used by the SDK. This will never be null.
    */
   public static Executor getExecutor() {
     synchronized (LOCK) {
-      if (FacebookSdk.executor == null) {
-        FacebookSdk.executor = AsyncTask.THREAD_POOL_EXECUTOR;
+      if (FacebookSdk.executor != null) {
+        return FacebookSdk.executor;
       }
     }
-    return FacebookSdk.executor;
+    return SdkExecutors.getIoExecutor();
   }
 
   /**
@@ -35,6 +35,8 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -119,6 +121,7 @@ public class GraphRequest {
   private static final String GRAPH_PATH_FORMAT = "%s/%s";
 
   private static String defaultBatchApplicationId;
+  private static volatile GraphRequestTransport transport = new PooledGraphRequestTransport();
 
   // Group 1 in the pattern is the path without the version info
   private static Pattern versionPattern = Pattern.compile("^/?v\\d+\\.\\d+/(.*)");
@@ -861,6 +864,26 @@ public class GraphRequest {
     defaultBatchApplicationId = applicationId;
   }
 
+  /**
+   * Gets the transport that opens and releases the connections requests are sent over.
+   *
+   * @return the current transport
+   */
+  public static final GraphRequestTransport getTransport() {
+    return transport;
+  }
+
+  /**
+   * Sets the transport that opens and releases the connections requests are sent over. Defaults to
+   * a {@link PooledGraphRequestTransport}.
+   *
+   * @param transport the transport to use for subsequent requests
+   */
+  public static final void setTransport(GraphRequestTransport transport) {
+    Validate.notNull(transport, "transport");
+    GraphRequest.transport = transport;
+  }
+
   /**
    * Returns the callback which will be called when the request finishes.
    *
@@ -1046,7 +1069,9 @@ public class GraphRequest {
 
       serializeToUrlConnection(requests, connection);
     } catch (IOException | JSONException e) {
-      Utility.disconnectQuietly(connection);
+      if (connection != null) {
+        transport.releaseConnection(connection, false);
+      }
 
       throw new FacebookException("could not construct request body", e);
     }
@@ -1126,24 +1151,19 @@ public class GraphRequest {
   public static List<GraphResponse> executeBatchAndWait(GraphRequestBatch requests) {
     Validate.notEmptyAndContainsNoNulls(requests, "requests");
 
-    HttpURLConnection connection = null;
+    HttpURLConnection connection;
     try {
-      try {
-        connection = toHttpConnection(requests);
-      } catch (Exception ex) {
-        List<GraphResponse> responses =
-            GraphResponse.constructErrorResponses(
-                requests.getRequests(), null, new FacebookException(ex));
-        runCallbacks(requests, responses);
-        return responses;
-      }
-
-      List<GraphResponse> responses = executeConnectionAndWait(connection, requests);
-
+      connection = toHttpConnection(requests);
+    } catch (Exception ex) {
+      List<GraphResponse> responses =
+          GraphResponse.constructErrorResponses(
+              requests.getRequests(), null, new FacebookException(ex));
+      runCallbacks(requests, responses);
       return responses;
-    } finally {
-      Utility.disconnectQuietly(connection);
     }
+
+    // executeConnectionAndWait releases the connection back to the transport.
+    return executeConnectionAndWait(connection, requests);
   }
 
   /**
@@ -1235,9 +1255,18 @@ public class GraphRequest {
    */
   public static List<GraphResponse> executeConnectionAndWait(
       HttpURLConnection connection, GraphRequestBatch requests) {
-    List<GraphResponse> responses = GraphResponse.fromHttpConnection(connection, requests);
-
-    Utility.disconnectQuietly(connection);
+    EarlyCallbackDispatcher earlyCallbacks = null;
+    List<GraphResponse> responses = null;
+    boolean[] bodyFullyRead = new boolean[1];
+    try {
+      if (requests.isEarlyCallbacksEnabled()) {
+        earlyCallbacks = new EarlyCallbackDispatcher(requests);
+      }
+      responses =
+          GraphResponse.fromHttpConnection(connection, requests, earlyCallbacks, bodyFullyRead);
+    } finally {
+      transport.releaseConnection(connection, responses != null && bodyFullyRead[0]);
+    }
 
     int numRequests = requests.size();
     if (numRequests != responses.size()) {
@@ -1249,7 +1278,7 @@ public class GraphRequest {
               numRequests));
     }
 
-    runCallbacks(requests, responses);
+    runCallbacks(requests, responses, earlyCallbacks == null ? null : earlyCallbacks.delivered);
 
     // Try extending the current access token in case it's needed.
     AccessTokenManager.getInstance().extendAccessTokenIfNeeded();
@@ -1328,20 +1357,36 @@ public class GraphRequest {
   }
 
   static void runCallbacks(final GraphRequestBatch requests, List<GraphResponse> responses) {
+    runCallbacks(requests, responses, null);
+  }
+
+  /**
+   * Runs the request callbacks that have not been delivered yet, followed by the batch callbacks.
+   *
+   * @param delivered flags for requests whose callback already ran, or null if none did
+   */
+  static void runCallbacks(
+      final GraphRequestBatch requests,
+      List<GraphResponse> responses,
+      @Nullable boolean[] delivered) {
     int numRequests = requests.size();
 
     // Compile the list of callbacks to call and then run them either on this thread or via the
     // Handler we received
     final ArrayList<Pair<Callback, GraphResponse>> callbacks =
         new ArrayList<Pair<Callback, GraphResponse>>();
+    boolean hasRequestCallbacks = false;
     for (int i = 0; i < numRequests; ++i) {
       GraphRequest request = requests.get(i);
       if (request.callback != null) {
-        callbacks.add(new Pair<Callback, GraphResponse>(request.callback, responses.get(i)));
+        hasRequestCallbacks = true;
+        if (delivered == null || !delivered[i]) {
+          callbacks.add(new Pair<Callback, GraphResponse>(request.callback, responses.get(i)));
+        }
       }
     }
 
-    if (callbacks.size() > 0) {
+    if (hasRequestCallbacks) {
       Runnable runnable =
           new Runnable() {
             public void run() {
@@ -1367,13 +1412,46 @@ public class GraphRequest {
     }
   }
 
+  /** Runs each request callback as soon as the streaming parser produces its response. */
+  private static class EarlyCallbackDispatcher implements GraphResponseStreamParser.Listener {
+    private final GraphRequestBatch requests;
+    private final boolean[] delivered;
+
+    EarlyCallbackDispatcher(GraphRequestBatch requests) {
+      this.requests = requests;
+      this.delivered = new boolean[requests.size()];
+    }
+
+    @Override
+    public void onResponse(int index, final GraphResponse response) {
+      final Callback callback = requests.get(index).callback;
+      if (callback == null) {
+        return;
+      }
+      delivered[index] = true;
+      Runnable runnable =
+          new Runnable() {
+            public void run() {
+              callback.onCompleted(response);
+            }
+          };
+
+      Handler callbackHandler = requests.getCallbackHandler();
+      if (callbackHandler == null) {
+        runnable.run();
+      } else {
+        callbackHandler.post(runnable);
+      }
+    }
+  }
+
   private static String getDefaultPhotoPathIfNull(String graphPath) {
     return graphPath == null ? MY_PHOTOS : graphPath;
   }
 
   private static HttpURLConnection createConnection(URL url) throws IOException {
     HttpURLConnection connection;
-    connection = (HttpURLConnection) url.openConnection();
+    connection = transport.openConnection(url);
 
     connection.setRequestProperty(USER_AGENT_HEADER, getUserAgent());
     connection.setRequestProperty(ACCEPT_LANGUAGE_HEADER, Locale.getDefault().toString());
@@ -1670,6 +1748,7 @@ public class GraphRequest {
     connection.setDoOutput(true);
 
     OutputStream outputStream = null;
+    Map<Bitmap, EncodedBitmap> encodedBitmaps = null;
     try {
       outputStream = new BufferedOutputStream(connection.getOutputStream());
       if (shouldUseGzip) {
@@ -1677,9 +1756,13 @@ public class GraphRequest {
       }
 
       if (hasOnProgressCallbacks(requests)) {
+        // The sizing pass encodes each bitmap once, into a temporary file, and the write pass
+        // streams those bytes instead of encoding the bitmap again.
+        encodedBitmaps = new IdentityHashMap<Bitmap, EncodedBitmap>();
         ProgressNoopOutputStream countingStream = null;
         countingStream = new ProgressNoopOutputStream(requests.getCallbackHandler());
-        processRequest(requests, null, numRequests, url, countingStream, shouldUseGzip);
+        processRequest(
+            requests, null, numRequests, url, countingStream, shouldUseGzip, encodedBitmaps);
 
         int max = countingStream.getMaxProgress();
         Map<GraphRequest, RequestProgress> progressMap = countingStream.getProgressMap();
@@ -1687,11 +1770,18 @@ public class GraphRequest {
         outputStream = new ProgressOutputStream(outputStream, requests, progressMap, max);
       }
 
-      processRequest(requests, logger, numRequests, url, outputStream, shouldUseGzip);
+      processRequest(
+          requests, logger, numRequests, url, outputStream, shouldUseGzip, encodedBitmaps);
     } finally {
       if (outputStream != null) {
         outputStream.close();
       }
+      if (encodedBitmaps != null) {
+        // Only left over if the write pass did not finish.
+        for (EncodedBitmap encodedBitmap : encodedBitmaps.values()) {
+          encodedBitmap.delete();
+        }
+      }
     }
 
     logger.log();
@@ -1703,9 +1793,10 @@ public class GraphRequest {
       int numRequests,
       URL url,
       OutputStream outputStream,
-      boolean shouldUseGzip)
+      boolean shouldUseGzip,
+      @Nullable Map<Bitmap, EncodedBitmap> encodedBitmaps)
       throws IOException, JSONException {
-    Serializer serializer = new Serializer(outputStream, logger, shouldUseGzip);
+    Serializer serializer = new Serializer(outputStream, logger, shouldUseGzip, encodedBitmaps);
 
     if (numRequests == 1) {
       GraphRequest request = requests.get(0);
@@ -1920,6 +2011,7 @@ public class GraphRequest {
         || value instanceof byte[]
         || value instanceof Uri
         || value instanceof ParcelFileDescriptor
+        || value instanceof ParcelFileDescriptorRange
         || value instanceof ParcelableResourceWithMimeType;
   }
 
@@ -1943,6 +2035,58 @@ public class GraphRequest {
     throw new IllegalArgumentException("Unsupported parameter type.");
   }
 
+  /**
+   * A bitmap PNG-encoded into a temporary file under the cache dir during the sizing pass, so the
+   * write pass can stream the bytes without encoding it again or holding them in memory. The file
+   * is deleted once the last request that uses the bitmap has been written.
+   */
+  private static class EncodedBitmap {
+    private final File file;
+    private int pendingWrites;
+
+    private EncodedBitmap(File file) {
+      this.file = file;
+    }
+
+    // Returns null if the bitmap could not be spilled to disk.
+    @Nullable
+    static EncodedBitmap encode(Bitmap bitmap) {
+      File file = null;
+      OutputStream outputStream = null;
+      try {
+        file =
+            File.createTempFile(
+                "upload", ".png", FacebookSdk.getApplicationContext().getCacheDir());
+        outputStream = new BufferedOutputStream(new FileOutputStream(file));
+        // Note: quality parameter is ignored for PNG
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+        outputStream.close();
+        outputStream = null;
+        return new EncodedBitmap(file);
+      } catch (IOException e) {
+        Utility.logd(TAG, e);
+        if (file != null) {
+          file.delete();
+        }
+        return null;
+      } finally {
+        Utility.closeQuietly(outputStream);
+      }
+    }
+
+    void writeTo(OutputStream outputStream) throws IOException {
+      Utility.copyAndCloseInputStream(
+          new BufferedInputStream(new FileInputStream(file)), outputStream);
+      if (--pendingWrites == 0) {
+        delete();
+      }
+    }
+
+    void delete() {
+      file.delete();
+    }
+  }
+
   private interface KeyValueSerializer {
     void writeString(String key, String value) throws IOException;
   }
@@ -1950,13 +2094,19 @@ public class GraphRequest {
   private static class Serializer implements KeyValueSerializer {
     private final OutputStream outputStream;
     private final Logger logger;
+    private final @Nullable Map<Bitmap, EncodedBitmap> encodedBitmaps;
     private boolean firstWrite = true;
     private boolean useUrlEncode = false;
 
-    public Serializer(OutputStream outputStream, Logger logger, boolean useUrlEncode) {
+    public Serializer(
+        OutputStream outputStream,
+        Logger logger,
+        boolean useUrlEncode,
+        @Nullable Map<Bitmap, EncodedBitmap> encodedBitmaps) {
       this.outputStream = outputStream;
       this.logger = logger;
       this.useUrlEncode = useUrlEncode;
+      this.encodedBitmaps = encodedBitmaps;
     }
 
     public void writeObject(String key, Object value, GraphRequest request) throws IOException {
@@ -1974,6 +2124,8 @@ public class GraphRequest {
         writeContentUri(key, (Uri) value, null);
       } else if (value instanceof ParcelFileDescriptor) {
         writeFile(key, (ParcelFileDescriptor) value, null);
+      } else if (value instanceof ParcelFileDescriptorRange) {
+        writeFileRange(key, (ParcelFileDescriptorRange) value);
       } else if (value instanceof ParcelableResourceWithMimeType) {
         ParcelableResourceWithMimeType resourceWithMimeType =
             (ParcelableResourceWithMimeType) value;
@@ -2034,8 +2186,29 @@ public class GraphRequest {
 
     public void writeBitmap(String key, Bitmap bitmap) throws IOException {
       writeContentDisposition(key, key, "image/png");
-      // Note: quality parameter is ignored for PNG
-      bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+      EncodedBitmap encodedBitmap = encodedBitmaps != null ? encodedBitmaps.get(bitmap) : null;
+      if (outputStream instanceof ProgressNoopOutputStream) {
+        // Sizing pass: a bitmap repeated in the batch is only encoded the first time.
+        ProgressNoopOutputStream countingStream = (ProgressNoopOutputStream) outputStream;
+        if (encodedBitmap == null && encodedBitmaps != null) {
+          encodedBitmap = EncodedBitmap.encode(bitmap);
+          if (encodedBitmap != null) {
+            encodedBitmaps.put(bitmap, encodedBitmap);
+          }
+        }
+        if (encodedBitmap != null) {
+          encodedBitmap.pendingWrites++;
+          countingStream.addProgress(encodedBitmap.file.length());
+        } else {
+          // Nowhere to keep the encoded bytes; count them here and encode again when writing.
+          bitmap.compress(Bitmap.CompressFormat.PNG, 100, countingStream);
+        }
+      } else if (encodedBitmap != null) {
+        encodedBitmap.writeTo(outputStream);
+      } else {
+        // Note: quality parameter is ignored for PNG
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+      }
       writeLine("");
       writeRecordBoundary();
       if (logger != null) {
@@ -2102,6 +2275,28 @@ public class GraphRequest {
       }
     }
 
+    public void writeFileRange(String key, ParcelFileDescriptorRange range) throws IOException {
+      String mimeType = range.getMimeType();
+      if (mimeType == null) {
+        mimeType = "content/unknown";
+      }
+      writeContentDisposition(key, key, mimeType);
+
+      long totalBytes = 0;
+
+      if (outputStream instanceof ProgressNoopOutputStream) {
+        // If we are only counting bytes then skip reading the file
+        ((ProgressNoopOutputStream) outputStream).addProgress(range.getLength());
+      } else {
+        totalBytes = range.writeTo(outputStream);
+      }
+      writeLine("");
+      writeRecordBoundary();
+      if (logger != null) {
+        logger.appendKeyValue("    " + key, String.format(Locale.ROOT, "<Data: %d>", totalBytes));
+      }
+    }
+
     public void writeRecordBoundary() throws IOException {
       if (!useUrlEncode) {
         writeLine("--%s", MIME_BOUNDARY);
@@ -2259,4 +2454,116 @@ public class GraphRequest {
       resource = in.readParcelable(FacebookSdk.getApplicationContext().getClassLoader());
     }
   }
+
+  /**
+   * A byte range of a file, used as an attachment. The range is streamed into the request body
+   * through a small buffer when the request is sent, so it is never held in memory as a whole.
+   *
+   * <p>The descriptor must be seekable. Reads are positional and do not move the descriptor's
+   * offset, so several ranges of the same descriptor can be attached to different requests.
+   */
+  public static class ParcelFileDescriptorRange implements Parcelable {
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+    private final ParcelFileDescriptor descriptor;
+    private final long offset;
+    private final long length;
+    private final String mimeType;
+
+    /**
+     * The constructor.
+     *
+     * @param descriptor The file to read from. It is not closed by the request.
+     * @param offset The offset of the first byte to send.
+     * @param length The number of bytes to send.
+     * @param mimeType The mime type, or null.
+     */
+    public ParcelFileDescriptorRange(
+        ParcelFileDescriptor descriptor, long offset, long length, String mimeType) {
+      Validate.notNull(descriptor, "descriptor");
+      if (offset < 0 || length < 0) {
+        throw new IllegalArgumentException("offset and length must not be negative");
+      }
+      this.descriptor = descriptor;
+      this.offset = offset;
+      this.length = length;
+      this.mimeType = mimeType;
+    }
+
+    public ParcelFileDescriptor getDescriptor() {
+      return descriptor;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public String getMimeType() {
+      return mimeType;
+    }
+
+    long writeTo(OutputStream outputStream) throws IOException {
+      // Read through a duplicate so that closing the channel leaves the caller's descriptor open.
+      FileInputStream inputStream =
+          new ParcelFileDescriptor.AutoCloseInputStream(descriptor.dup());
+      try {
+        FileChannel channel = inputStream.getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_SIZE, length));
+        long position = offset;
+        long remaining = length;
+        while (remaining > 0) {
+          buffer.clear();
+          if (remaining < buffer.capacity()) {
+            buffer.limit((int) remaining);
+          }
+          int read = channel.read(buffer, position);
+          if (read < 0) {
+            throw new EOFException(
+                String.format(
+                    Locale.ROOT, "File ended %d bytes before the end of the range", remaining));
+          }
+          outputStream.write(buffer.array(), 0, read);
+          position += read;
+          remaining -= read;
+        }
+      } finally {
+        Utility.closeQuietly(inputStream);
+      }
+      return length;
+    }
+
+    public int describeContents() {
+      return CONTENTS_FILE_DESCRIPTOR;
+    }
+
+    public void writeToParcel(Parcel out, int flags) {
+      out.writeParcelable(descriptor, flags);
+      out.writeLong(offset);
+      out.writeLong(length);
+      out.writeString(mimeType);
+    }
+
+    @SuppressWarnings("unused")
+    public static final Parcelable.Creator<ParcelFileDescriptorRange> CREATOR =
+        new Parcelable.Creator<ParcelFileDescriptorRange>() {
+          public ParcelFileDescriptorRange createFromParcel(Parcel in) {
+            return new ParcelFileDescriptorRange(in);
+          }
+
+          public ParcelFileDescriptorRange[] newArray(int size) {
+            return new ParcelFileDescriptorRange[size];
+          }
+        };
+
+    private ParcelFileDescriptorRange(Parcel in) {
+      descriptor = in.readParcelable(ParcelFileDescriptor.class.getClassLoader());
+      offset = in.readLong();
+      length = in.readLong();
+      mimeType = in.readString();
+    }
+  }
 }
@@ -40,6 +40,7 @@ public class GraphRequestBatch extends AbstractList<GraphRequest> {
   private final String id = Integer.valueOf(idGenerator.incrementAndGet()).toString();
   private List<Callback> callbacks = new ArrayList<Callback>();
   private String batchApplicationId;
+  private boolean earlyCallbacksEnabled = false;
 
   /** Constructor. Creates an empty batch. */
   public GraphRequestBatch() {
@@ -74,6 +75,7 @@ public class GraphRequestBatch extends AbstractList<GraphRequest> {
     this.callbackHandler = requests.callbackHandler;
     this.timeoutInMilliseconds = requests.timeoutInMilliseconds;
     this.callbacks = new ArrayList<Callback>(requests.callbacks);
+    this.earlyCallbacksEnabled = requests.earlyCallbacksEnabled;
   }
 
   /**
@@ -97,6 +99,26 @@ public class GraphRequestBatch extends AbstractList<GraphRequest> {
     this.timeoutInMilliseconds = timeoutInMilliseconds;
   }
 
+  /**
+   * Gets whether request callbacks may run as soon as their response has been parsed.
+   *
+   * @return true if early callbacks are enabled; false (the default) otherwise
+   */
+  public boolean isEarlyCallbacksEnabled() {
+    return earlyCallbacksEnabled;
+  }
+
+  /**
+   * Sets whether the callback of each request may run as soon as its entry of the batch response
+   * has been parsed, instead of after the whole response has been read. Batch-level callbacks still
+   * run after every request callback.
+   *
+   * @param earlyCallbacksEnabled true to run request callbacks as their responses arrive
+   */
+  public void setEarlyCallbacksEnabled(boolean earlyCallbacksEnabled) {
+    this.earlyCallbacksEnabled = earlyCallbacksEnabled;
+  }
+
   /**
    * Adds a batch-level callback which will be called when the entire batch has finished executing.
    *
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Opens and releases the connections that {@link GraphRequest} serializes requests into. The
+ * default implementation is {@link PooledGraphRequestTransport}; a different transport can be
+ * installed with {@link GraphRequest#setTransport(GraphRequestTransport)}, for example to route
+ * requests to a local server in tests.
+ */
+public interface GraphRequestTransport {
+  /**
+   * Opens a connection to the given URL. The connection is not connected yet; GraphRequest sets
+   * its headers and writes the request body.
+   *
+   * @param url the URL to connect to
+   * @return a new connection
+   * @throws IOException if the connection could not be opened
+   */
+  HttpURLConnection openConnection(URL url) throws IOException;
+
+  /**
+   * Releases a connection previously returned by {@link #openConnection(URL)}. May be called more
+   * than once for the same connection.
+   *
+   * @param connection the connection to release
+   * @param reusable true if the response body was fully read and the underlying socket can be kept
+   *     alive for another request; false if the connection must be torn down
+   */
+  void releaseConnection(HttpURLConnection connection, boolean reusable);
+}
@@ -21,6 +21,7 @@
 package com.facebook;
 
 import android.util.Log;
+import androidx.annotation.Nullable;
 import com.facebook.internal.FacebookRequestErrorClassification;
 import com.facebook.internal.Logger;
 import com.facebook.internal.Utility;
@@ -234,9 +235,22 @@ public class GraphResponse {
         .toString();
   }
 
-  @SuppressWarnings("resource")
   static List<GraphResponse> fromHttpConnection(
       HttpURLConnection connection, GraphRequestBatch requests) {
+    return fromHttpConnection(connection, requests, null, null);
+  }
+
+  /**
+   * Reads the responses from the connection. If bodyFullyRead is given, its first element is set
+   * to true once the body has been read to its very end, which is what lets the socket be kept
+   * alive; it is left alone if reading failed part way.
+   */
+  @SuppressWarnings("resource")
+  static List<GraphResponse> fromHttpConnection(
+      HttpURLConnection connection,
+      GraphRequestBatch requests,
+      @Nullable GraphResponseStreamParser.Listener listener,
+      @Nullable boolean[] bodyFullyRead) {
     InputStream stream = null;
 
     try {
@@ -252,7 +266,12 @@ public class GraphResponse {
         stream = connection.getInputStream();
       }
 
-      return createResponsesFromStream(stream, connection, requests);
+      List<GraphResponse> responses =
+          createResponsesFromStream(stream, connection, requests, listener);
+      if (bodyFullyRead != null) {
+        bodyFullyRead[0] = skipToEnd(stream);
+      }
+      return responses;
     } catch (FacebookException facebookException) {
       Logger.log(
           LoggingBehavior.REQUESTS, RESPONSE_LOG_TAG, "Response <Error>: %s", facebookException);
@@ -269,9 +288,49 @@ public class GraphResponse {
     }
   }
 
+  /** Discards whatever the parser left unread, such as trailing whitespace. */
+  private static boolean skipToEnd(@Nullable InputStream stream) {
+    if (stream == null) {
+      return false;
+    }
+    byte[] buffer = new byte[512];
+    try {
+      while (stream.read(buffer) != -1) {
+        // Keep reading until the end of the body.
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
   static List<GraphResponse> createResponsesFromStream(
       InputStream stream, HttpURLConnection connection, GraphRequestBatch requests)
       throws FacebookException, JSONException, IOException {
+    return createResponsesFromStream(stream, connection, requests, null);
+  }
+
+  /**
+   * Parses the response body. Unless raw responses are being logged, the body is parsed while it
+   * streams in and the listener, if any, sees each batch entry as soon as it is parsed.
+   */
+  static List<GraphResponse> createResponsesFromStream(
+      InputStream stream,
+      HttpURLConnection connection,
+      GraphRequestBatch requests,
+      @Nullable GraphResponseStreamParser.Listener listener)
+      throws FacebookException, JSONException, IOException {
+    if (!FacebookSdk.isLoggingBehaviorEnabled(LoggingBehavior.INCLUDE_RAW_RESPONSES)) {
+      List<GraphResponse> responses =
+          GraphResponseStreamParser.parse(stream, connection, requests, listener);
+      Logger.log(
+          LoggingBehavior.REQUESTS,
+          RESPONSE_LOG_TAG,
+          "Response\n  Id: %s\n  Responses:\n%s\n",
+          requests.getId(),
+          responses);
+      return responses;
+    }
 
     String responseString = Utility.readStreamToString(stream);
     Logger.log(
@@ -302,7 +361,7 @@ public class GraphResponse {
     return responses;
   }
 
-  private static List<GraphResponse> createResponsesFromObject(
+  static List<GraphResponse> createResponsesFromObject(
       HttpURLConnection connection, List<GraphRequest> requests, Object object)
       throws FacebookException, JSONException {
     int numRequests = requests.size();
@@ -358,7 +417,7 @@ public class GraphResponse {
     return responses;
   }
 
-  private static GraphResponse createResponseFromObject(
+  static GraphResponse createResponseFromObject(
       GraphRequest request, HttpURLConnection connection, Object object, Object originalResult)
       throws JSONException {
     if (object instanceof JSONObject) {
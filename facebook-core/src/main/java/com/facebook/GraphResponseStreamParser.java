@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import androidx.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Pull-based parser that builds {@link GraphResponse}s straight from the HTTP body.
+ *
+ * <p>For batches, each entry of the top-level array is turned into a response as soon as it has
+ * been read, without first buffering the whole body into a String. A {@link Listener} can observe
+ * each response as it is produced.
+ */
+final class GraphResponseStreamParser {
+  private static final String BODY_KEY = "body";
+
+  interface Listener {
+    /** Called on the parsing thread as soon as the response for requests.get(index) is ready. */
+    void onResponse(int index, GraphResponse response);
+  }
+
+  private GraphResponseStreamParser() {}
+
+  static List<GraphResponse> parse(
+      InputStream stream,
+      HttpURLConnection connection,
+      GraphRequestBatch requests,
+      @Nullable Listener listener)
+      throws FacebookException, JSONException, IOException {
+    JsonReader reader =
+        new JsonReader(new InputStreamReader(new BufferedInputStream(stream), "UTF-8"));
+    // Graph can answer with bare literals such as "true".
+    reader.setLenient(true);
+
+    int numRequests = requests.size();
+    if (numRequests == 1 || reader.peek() != JsonToken.BEGIN_ARRAY) {
+      // Nothing to stream: a single result, or an error object for the whole batch.
+      Object resultObject = readValue(reader);
+      return GraphResponse.createResponsesFromObject(connection, requests, resultObject);
+    }
+
+    List<GraphResponse> responses = new ArrayList<>(numRequests);
+    // Errors keep a reference to the whole batch result; it fills up as the entries are read and
+    // is complete by the time parse() returns.
+    JSONArray batchResult = new JSONArray();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      int index = responses.size();
+      if (index >= numRequests) {
+        throw new FacebookException("Unexpected number of results");
+      }
+      GraphRequest request = requests.get(index);
+      GraphResponse response;
+      try {
+        Object entry = readValue(reader);
+        batchResult.put(entry);
+        response =
+            GraphResponse.createResponseFromObject(
+                request, connection, withParsedBody(entry), batchResult);
+      } catch (JSONException e) {
+        response = new GraphResponse(request, connection, new FacebookRequestError(connection, e));
+      } catch (FacebookException e) {
+        response = new GraphResponse(request, connection, new FacebookRequestError(connection, e));
+      }
+      responses.add(response);
+      if (listener != null) {
+        listener.onResponse(index, response);
+      }
+    }
+    reader.endArray();
+
+    if (responses.size() != numRequests) {
+      throw new FacebookException("Unexpected number of results");
+    }
+    return responses;
+  }
+
+  /**
+   * Each batch entry carries its body as a JSON string. Parses that string once, with the same
+   * reader code as the rest of the response, and returns a copy of the entry holding the parsed
+   * body; the response and error builders only parse bodies that are still strings. The batch
+   * result that errors refer to keeps the entry exactly as the server sent it.
+   */
+  private static Object withParsedBody(Object entry) throws JSONException {
+    if (!(entry instanceof JSONObject)) {
+      return entry;
+    }
+    JSONObject entryObject = (JSONObject) entry;
+    Object body = entryObject.opt(BODY_KEY);
+    if (!(body instanceof String)) {
+      return entry;
+    }
+
+    Object parsedBody;
+    try {
+      JsonReader bodyReader = new JsonReader(new StringReader((String) body));
+      bodyReader.setLenient(true);
+      parsedBody = readValue(bodyReader);
+    } catch (IOException | JSONException e) {
+      // Leave anything the reader rejects to the string-based parsing downstream.
+      return entry;
+    }
+
+    JSONObject parsedEntry = new JSONObject();
+    for (Iterator<String> keys = entryObject.keys(); keys.hasNext(); ) {
+      String key = keys.next();
+      parsedEntry.put(key, entryObject.get(key));
+    }
+    parsedEntry.put(BODY_KEY, parsedBody);
+    return parsedEntry;
+  }
+
+  /** Reads the next value into the same object model that JSONTokener.nextValue() produces. */
+  static Object readValue(JsonReader reader) throws IOException, JSONException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        JSONObject object = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          object.put(name, readValue(reader));
+        }
+        reader.endObject();
+        return object;
+      case BEGIN_ARRAY:
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+          array.put(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+      case BOOLEAN:
+        return reader.nextBoolean();
+      case NULL:
+        reader.nextNull();
+        return JSONObject.NULL;
+      case NUMBER:
+        return parseNumber(reader.nextString());
+      case STRING:
+        return reader.nextString();
+      default:
+        throw new JSONException("Unexpected token " + reader.peek());
+    }
+  }
+
+  private static Object parseNumber(String literal) {
+    if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+      try {
+        long longValue = Long.parseLong(literal);
+        if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+          return (int) longValue;
+        }
+        return longValue;
+      } catch (NumberFormatException e) {
+        // Too large for a long; fall through to double.
+      }
+    }
+    return Double.valueOf(literal);
+  }
+}
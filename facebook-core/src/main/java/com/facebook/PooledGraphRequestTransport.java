@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default {@link GraphRequestTransport}. It relies on the HTTP/1.1 keep-alive pool of {@link
+ * HttpURLConnection}: a connection whose response was fully read is released by closing its
+ * streams instead of calling {@link HttpURLConnection#disconnect()}, which would close the socket.
+ *
+ * <p>At most {@link #MAX_IDLE_CONNECTIONS_PER_HOST} connections per host are handed back to the
+ * pool. The transport cannot see the platform pool, so it estimates the idle connections of a host
+ * as those handed back minus those opened since; a connection released past that limit is
+ * disconnected. The platform pool applies its own overall bound, {@code http.maxConnections}.
+ *
+ * <p>Opening a connection never waits. A caller may serialize a connection with {@link
+ * GraphRequest#toHttpConnection(GraphRequest...)} and never execute it, so nothing here depends on
+ * the connection being released.
+ */
+public class PooledGraphRequestTransport implements GraphRequestTransport {
+  static final int MAX_IDLE_CONNECTIONS_PER_HOST = 4;
+
+  private static final String CONNECTION_HEADER = "Connection";
+
+  private final Map<String, Integer> idleConnectionsPerHost = new HashMap<>();
+  // Held weakly, so a released connection is forgotten once it is collected.
+  private final Set<HttpURLConnection> released =
+      Collections.newSetFromMap(new WeakHashMap<HttpURLConnection, Boolean>());
+
+  private final AtomicLong connectionsOpened = new AtomicLong();
+  private final AtomicLong connectionsReturnedToPool = new AtomicLong();
+  private final AtomicLong connectionsDisconnected = new AtomicLong();
+  private final AtomicLong connectionsOverLimit = new AtomicLong();
+
+  @Override
+  public HttpURLConnection openConnection(URL url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setRequestProperty(CONNECTION_HEADER, "keep-alive");
+    connectionsOpened.incrementAndGet();
+    synchronized (idleConnectionsPerHost) {
+      // This connection will most likely take one of the host's idle sockets.
+      Integer idle = idleConnectionsPerHost.get(url.getHost());
+      if (idle != null) {
+        if (idle > 1) {
+          idleConnectionsPerHost.put(url.getHost(), idle - 1);
+        } else {
+          idleConnectionsPerHost.remove(url.getHost());
+        }
+      }
+    }
+    return connection;
+  }
+
+  @Override
+  public void releaseConnection(HttpURLConnection connection, boolean reusable) {
+    if (connection == null) {
+      return;
+    }
+    synchronized (released) {
+      if (!released.add(connection)) {
+        return;
+      }
+    }
+
+    // Only a connection whose response has been read gets here with reusable set, so asking for
+    // the response header does not send anything.
+    boolean keepAlive =
+        reusable && !"close".equalsIgnoreCase(connection.getHeaderField(CONNECTION_HEADER));
+    if (keepAlive) {
+      String host = connection.getURL().getHost();
+      synchronized (idleConnectionsPerHost) {
+        Integer idle = idleConnectionsPerHost.get(host);
+        int count = idle == null ? 0 : idle;
+        if (count >= MAX_IDLE_CONNECTIONS_PER_HOST) {
+          keepAlive = false;
+          connectionsOverLimit.incrementAndGet();
+        } else {
+          idleConnectionsPerHost.put(host, count + 1);
+        }
+      }
+    }
+
+    if (keepAlive) {
+      // The response stream has already been drained to its end and closed by GraphResponse;
+      // leaving the connection undisconnected hands its socket back to the platform pool.
+      connectionsReturnedToPool.incrementAndGet();
+    } else {
+      connection.disconnect();
+      connectionsDisconnected.incrementAndGet();
+    }
+  }
+
+  /** Returns the number of connections opened through this transport. */
+  public long getConnectionsOpened() {
+    return connectionsOpened.get();
+  }
+
+  /**
+   * Returns the number of connections whose socket was handed back to the platform keep-alive
+   * pool. Whether a later request actually reuses one is up to the platform.
+   */
+  public long getConnectionsReturnedToPool() {
+    return connectionsReturnedToPool.get();
+  }
+
+  /** Returns the number of connections that were torn down on release. */
+  public long getConnectionsDisconnected() {
+    return connectionsDisconnected.get();
+  }
+
+  /**
+   * Returns the number of reusable connections that were torn down because their host already
+   * had {@link #MAX_IDLE_CONNECTIONS_PER_HOST} idle connections. They are also counted by {@link
+   * #getConnectionsDisconnected()}.
+   */
+  public long getConnectionsOverLimit() {
+    return connectionsOverLimit.get();
+  }
+}
@@ -56,6 +56,8 @@ public class AppEvent implements Serializable {
   private static final HashSet<String> validatedIdentifiers = new HashSet<String>();
 
   private final JSONObject jsonObject;
+  // Serialized once and reused for the checksum, the journal and the custom_events payload.
+  private final String jsonString;
   private final boolean isImplicit;
   private final boolean inBackground;
   private final String name;
@@ -76,8 +78,9 @@ public class AppEvent implements Serializable {
 
     jsonObject =
         getJSONObjectForAppEvent(contextName, eventName, valueToSum, parameters, currentSessionId);
+    jsonString = jsonObject.toString();
 
-    checksum = calculateChecksum();
+    checksum = calculateChecksum(jsonString);
   }
 
   public String getName() {
@@ -87,6 +90,7 @@ public class AppEvent implements Serializable {
   private AppEvent(String jsonString, boolean isImplicit, boolean inBackground, String checksum)
       throws JSONException {
     jsonObject = new JSONObject(jsonString);
+    this.jsonString = jsonString;
     this.isImplicit = isImplicit;
     this.name = jsonObject.optString(Constants.EVENT_NAME_EVENT_KEY);
     this.checksum = checksum;
@@ -97,17 +101,54 @@ public class AppEvent implements Serializable {
     return isImplicit;
   }
 
+  boolean getIsInBackground() {
+    return inBackground;
+  }
+
+  @Nullable
+  String getChecksum() {
+    return checksum;
+  }
+
+  static AppEvent createFromPersistedJson(
+      String jsonString, boolean isImplicit, boolean inBackground, @Nullable String checksum)
+      throws JSONException {
+    return new AppEvent(jsonString, isImplicit, inBackground, checksum);
+  }
+
+  /**
+   * Returns a copy of this event's JSON. The event's own JSON object must not change after
+   * construction because its serialized form and checksum are computed once, so callers get a
+   * fresh object they are free to modify.
+   */
   public JSONObject getJSONObject() {
-    return jsonObject;
+    try {
+      return new JSONObject(jsonString);
+    } catch (JSONException e) {
+      // jsonString was produced by, or successfully parsed into, jsonObject.
+      throw new FacebookException(e);
+    }
+  }
+
+  /**
+   * Returns the JSON form of this event as it was created or read back from disk. The JSON object
+   * is not expected to change after construction, so this is never re-serialized.
+   */
+  String getJSONString() {
+    return jsonString;
   }
 
+  /**
+   * Hashes the event's JSON and compares it with the stored checksum. This is expensive, so it is
+   * only done for events read back from disk; events that never left memory are trusted.
+   */
   public boolean isChecksumValid() {
     if (this.checksum == null) {
       // for old events we don't have a checksum
       return true;
     }
 
-    return calculateChecksum().equals(checksum);
+    return calculateChecksum(jsonString).equals(checksum);
   }
 
   // throw exception if not valid.
@@ -265,22 +306,22 @@ public class AppEvent implements Serializable {
   }
 
   private Object writeReplace() {
-    return new SerializationProxyV2(jsonObject.toString(), isImplicit, inBackground, checksum);
+    return new SerializationProxyV2(jsonString, isImplicit, inBackground, checksum);
   }
 
   @Override
   public String toString() {
     return String.format(
         "\"%s\", implicit: %b, json: %s",
-        jsonObject.optString("_eventName"), isImplicit, jsonObject.toString());
+        jsonObject.optString("_eventName"), isImplicit, jsonString);
   }
 
-  private String calculateChecksum() {
+  private String calculateChecksum(String serializedJson) {
     // JSONObject.toString() doesn't guarantee order of the keys on KitKat
     // (API Level 19) and below as JSONObject used HashMap internally,
     // starting Android API Level 20+, JSONObject changed to use LinkedHashMap
     if (Build.VERSION.SDK_INT > Build.VERSION_CODES.KITKAT) {
-      return md5Checksum(jsonObject.toString());
+      return md5Checksum(serializedJson);
     }
     ArrayList<String> keys = new ArrayList<>();
     for (Iterator<String> iterator = jsonObject.keys(); iterator.hasNext(); ) {
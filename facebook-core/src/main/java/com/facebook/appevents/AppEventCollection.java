@@ -72,6 +72,15 @@ class AppEventCollection {
     return count;
   }
 
+  public synchronized long getPayloadLength() {
+    long length = 0;
+    for (SessionEventsState sessionEventsState : stateMap.values()) {
+      length += sessionEventsState.getAccumulatedPayloadLength();
+    }
+
+    return length;
+  }
+
   private synchronized SessionEventsState getSessionEventsState(
       AccessTokenAppIdPair accessTokenAppId) {
     SessionEventsState eventsState = stateMap.get(accessTokenAppId);
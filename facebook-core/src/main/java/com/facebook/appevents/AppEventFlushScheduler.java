@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import java.util.Random;
+
+/**
+ * Decides when {@link AppEventQueue} should flush automatically.
+ *
+ * <p>A single timer covers every automatic trigger: it is armed when the first event of a batch
+ * arrives, so no event waits longer than {@link #MAX_EVENT_AGE_MILLIS}, and the count and size
+ * thresholds flush earlier than that. After a flush fails for lack of connectivity, automatic
+ * flushes back off exponentially with jitter, and they stop entirely while the device then reports
+ * no network. Explicit flushes are never deferred.
+ *
+ * <p>Not thread safe; only call from the AppEventQueue singleThreadExecutor.
+ */
+class AppEventFlushScheduler {
+  static final long NO_FLUSH_SCHEDULED = -1;
+
+  static final int NUM_EVENTS_TO_FLUSH_AFTER = 100;
+  static final long PAYLOAD_LENGTH_TO_FLUSH_AFTER = 64 * 1024;
+  static final long MAX_EVENT_AGE_MILLIS = 15 * 1000;
+  static final long MIN_BACKOFF_MILLIS = 15 * 1000;
+  static final long MAX_BACKOFF_MILLIS = 15 * 60 * 1000;
+
+  private final Random random;
+  private boolean isConnected = true;
+  private int consecutiveFailures;
+  private long backoffUntil;
+  private long oldestPendingEventTime = -1;
+  private boolean hasPersistedEvents;
+  private int numDeferredFlushes;
+
+  AppEventFlushScheduler() {
+    this(new Random());
+  }
+
+  AppEventFlushScheduler(Random random) {
+    this.random = random;
+  }
+
+  /**
+   * Returns 0 if the events should be flushed now, the delay in milliseconds until the next
+   * automatic flush otherwise, or {@link #NO_FLUSH_SCHEDULED} while the device is offline.
+   */
+  long onEventsAdded(int eventCount, long payloadLength, long now) {
+    if (oldestPendingEventTime < 0) {
+      oldestPendingEventTime = now;
+    }
+    boolean isOverThreshold = isOverThreshold(eventCount, payloadLength);
+
+    long deferral = getDeferral(now);
+    if (deferral != 0) {
+      if (isOverThreshold) {
+        numDeferredFlushes++;
+      }
+      return deferral;
+    }
+    if (isOverThreshold) {
+      return 0;
+    }
+    // Leave the age deadline to the timer, so a late drain is still reported as a timer flush.
+    return Math.max(1, oldestPendingEventTime + MAX_EVENT_AGE_MILLIS - now);
+  }
+
+  /** Returns true if this many pending events should not wait for the timer. */
+  static boolean isOverThreshold(int eventCount, long payloadLength) {
+    return eventCount > NUM_EVENTS_TO_FLUSH_AFTER || payloadLength > PAYLOAD_LENGTH_TO_FLUSH_AFTER;
+  }
+
+  /** Called when the flush timer fires. Returns 0 to flush now, as for onEventsAdded. */
+  long onTimer(long now) {
+    long deferral = getDeferral(now);
+    if (deferral != 0) {
+      numDeferredFlushes++;
+    }
+    return deferral;
+  }
+
+  /** Called before any flush, automatic or explicit, since it covers every pending event. */
+  void onFlushStarted() {
+    oldestPendingEventTime = -1;
+    hasPersistedEvents = false;
+  }
+
+  /**
+   * Called when deferred events were moved to disk. None are left in memory, so the next event
+   * arms the timer afresh; the persisted ones are picked up by the next flush.
+   */
+  void onEventsPersisted() {
+    oldestPendingEventTime = -1;
+    hasPersistedEvents = true;
+  }
+
+  /**
+   * Records the outcome of a flush and the decisions that led to it in flushStatistics. Returns
+   * the delay before the next retry, or {@link #NO_FLUSH_SCHEDULED} if none is needed.
+   */
+  long onFlushCompleted(FlushStatistics flushStatistics, long now) {
+    flushStatistics.numDeferredFlushes = numDeferredFlushes;
+    numDeferredFlushes = 0;
+
+    long retryDelay = NO_FLUSH_SCHEDULED;
+    if (flushStatistics.result == FlushResult.NO_CONNECTIVITY) {
+      // The events were persisted, so they have to be retried even if no new ones arrive.
+      consecutiveFailures++;
+      retryDelay = getBackoffMillis(consecutiveFailures);
+      backoffUntil = now + retryDelay;
+    } else {
+      // Server errors are not retried, so they do not back off either.
+      consecutiveFailures = 0;
+      backoffUntil = 0;
+    }
+    flushStatistics.consecutiveFailures = consecutiveFailures;
+    flushStatistics.retryDelayMillis = retryDelay;
+    return retryDelay;
+  }
+
+  /** Returns true if connectivity came back and there is something worth flushing right away. */
+  boolean onConnectivityChanged(boolean connected) {
+    boolean wasConnected = isConnected;
+    isConnected = connected;
+    if (!connected || wasConnected) {
+      return false;
+    }
+    backoffUntil = 0;
+    return consecutiveFailures > 0 || oldestPendingEventTime >= 0 || hasPersistedEvents;
+  }
+
+  private long getDeferral(long now) {
+    if (!isConnected) {
+      return NO_FLUSH_SCHEDULED;
+    }
+    return backoffUntil > now ? backoffUntil - now : 0;
+  }
+
+  // Exponential backoff with "equal jitter": somewhere between half and all of the nominal delay,
+  // so that devices that lost the network together do not retry in lockstep.
+  private long getBackoffMillis(int failures) {
+    long nominal = MIN_BACKOFF_MILLIS << Math.min(failures - 1, 16);
+    nominal = Math.min(nominal, MAX_BACKOFF_MILLIS);
+    long half = nominal / 2;
+    return half + (long) (random.nextDouble() * half);
+  }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import android.util.Log;
+import com.facebook.internal.Utility;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.json.JSONException;
+
+/**
+ * Append-only journal of persisted app events.
+ *
+ * <p>The journal is a sequence of segment files, numbered in the order they were created. Each
+ * segment starts with a magic number and a format version, followed by records of the form
+ * [length][crc32][payload]. Appending N events writes N records to the active segment; the active
+ * segment rolls over to a new file once it reaches {@link #MAX_SEGMENT_SIZE_BYTES}. Once all
+ * {@link #MAX_SEGMENTS} segments are in use, the oldest one is deleted before a new one is started.
+ * Reading stops at a torn tail and skips records whose checksum does not match; a torn tail left
+ * by a crash is cut off before the next process appends to that segment.
+ */
+class AppEventJournal {
+  private static final String TAG = AppEventJournal.class.getName();
+
+  static final int MAGIC = 0x46424A31; // "FBJ1"
+  static final int FORMAT_VERSION = 1;
+  static final int MAX_SEGMENT_SIZE_BYTES = 256 * 1024;
+  static final int MAX_RECORD_SIZE_BYTES = 1024 * 1024;
+  static final int MAX_SEGMENTS = 64;
+
+  private static final int FLAG_IMPLICIT = 1;
+  private static final int FLAG_IN_BACKGROUND = 1 << 1;
+  private static final int FLAG_HAS_ACCESS_TOKEN = 1 << 2;
+  private static final int FLAG_HAS_APP_ID = 1 << 3;
+  private static final int FLAG_HAS_CHECKSUM = 1 << 4;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File directory;
+  private final String segmentPrefix;
+  private final int maxSegmentSizeBytes;
+  private final int maxSegments;
+  // Segment numbers only grow, so dropping the oldest segment never renames the others.
+  private int firstSegment;
+  private int activeSegment = -1;
+
+  AppEventJournal(File directory, String segmentPrefix) {
+    this(directory, segmentPrefix, MAX_SEGMENT_SIZE_BYTES, MAX_SEGMENTS);
+  }
+
+  AppEventJournal(
+      File directory, String segmentPrefix, int maxSegmentSizeBytes, int maxSegments) {
+    this.directory = directory;
+    this.segmentPrefix = segmentPrefix;
+    this.maxSegmentSizeBytes = maxSegmentSizeBytes;
+    this.maxSegments = maxSegments;
+  }
+
+  /**
+   * Appends the given events to the active segment, rotating it if it grew too large. When the
+   * last segment fills up, the oldest segment is dropped to keep the journal bounded.
+   */
+  void append(AccessTokenAppIdPair accessTokenAppIdPair, List<AppEvent> appEvents)
+      throws IOException {
+    if (appEvents == null || appEvents.isEmpty()) {
+      return;
+    }
+
+    if (activeSegment < 0) {
+      openJournal();
+    }
+    File segment = getSegmentFile(activeSegment);
+    boolean isNewSegment = !segment.exists() || segment.length() == 0;
+    if (isNewSegment && activeSegment - firstSegment >= maxSegments) {
+      dropOldestSegment();
+    }
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment, true)));
+      if (isNewSegment) {
+        writeSegmentHeader(out);
+      }
+      for (AppEvent appEvent : appEvents) {
+        writeRecord(out, accessTokenAppIdPair, appEvent);
+      }
+      out.flush();
+    } finally {
+      Utility.closeQuietly(out);
+    }
+
+    if (segment.length() >= maxSegmentSizeBytes) {
+      activeSegment++;
+    }
+  }
+
+  private void dropOldestSegment() {
+    Log.w(TAG, "Event journal is full, dropping the oldest segment");
+    File oldest = getSegmentFile(firstSegment);
+    if (oldest.exists() && !oldest.delete()) {
+      Log.w(TAG, "Failed to delete event journal segment " + oldest.getName());
+    }
+    firstSegment++;
+  }
+
+  /** Reads every intact record from all segments, oldest first, into persistedEvents. */
+  void readAll(PersistedEvents persistedEvents) {
+    for (int index : listSegments()) {
+      File segment = getSegmentFile(index);
+      InputStream in = null;
+      try {
+        in = new BufferedInputStream(new FileInputStream(segment));
+        readSegment(in, persistedEvents);
+      } catch (IOException e) {
+        Log.w(TAG, "Got unexpected exception while reading event journal: ", e);
+      } finally {
+        Utility.closeQuietly(in);
+      }
+    }
+  }
+
+  /**
+   * Drops every segment. Consumed segments are deleted wholesale rather than rewritten, so
+   * compaction never copies surviving records.
+   */
+  void clear() {
+    for (int index : listSegments()) {
+      File segment = getSegmentFile(index);
+      if (!segment.delete()) {
+        Log.w(TAG, "Failed to delete event journal segment " + segment.getName());
+      }
+    }
+    // Look the segments up again on the next append, in case a delete failed.
+    activeSegment = -1;
+  }
+
+  // Resumes the newest existing segment. A crash can leave a torn record at its end; appending
+  // right after it would make the reader misparse every later record, so it is cut off first.
+  private void openJournal() {
+    List<Integer> segments = listSegments();
+    if (segments.isEmpty()) {
+      firstSegment = 0;
+      activeSegment = 0;
+      return;
+    }
+    firstSegment = segments.get(0);
+    activeSegment = segments.get(segments.size() - 1);
+
+    File newest = getSegmentFile(activeSegment);
+    long intactLength = getIntactLength(newest);
+    if (intactLength < 0) {
+      // Not a segment this version can append to; leave it for the reader.
+      activeSegment++;
+    } else if (intactLength < newest.length()) {
+      Log.w(TAG, "Cutting off a torn record at the end of " + newest.getName());
+      RandomAccessFile file = null;
+      try {
+        file = new RandomAccessFile(newest, "rw");
+        file.setLength(intactLength);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to truncate event journal segment, starting a new one: ", e);
+        activeSegment++;
+      } finally {
+        Utility.closeQuietly(file);
+      }
+    }
+  }
+
+  // Returns the length of the segment up to the end of its last complete record, or -1 if the
+  // segment is not in a format this version writes.
+  private static long getIntactLength(File segment) {
+    long fileLength = segment.length();
+    DataInputStream in = null;
+    long length = 0;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        return -1;
+      }
+      length = 8;
+      while (true) {
+        int recordLength = in.readInt();
+        if (recordLength <= 0 || recordLength > MAX_RECORD_SIZE_BYTES) {
+          return length;
+        }
+        // FileInputStream can skip past the end of the file, so check against its length.
+        if (length + 8 + recordLength > fileLength) {
+          return length;
+        }
+        in.readInt();
+        in.skipBytes(recordLength);
+        length += 8 + recordLength;
+      }
+    } catch (EOFException e) {
+      return length;
+    } catch (IOException e) {
+      Log.w(TAG, "Got unexpected exception while checking event journal segment: ", e);
+      return -1;
+    } finally {
+      Utility.closeQuietly(in);
+    }
+  }
+
+  // Returns the numbers of the existing segments in ascending order.
+  private List<Integer> listSegments() {
+    List<Integer> segments = new ArrayList<>();
+    String[] names = directory.list();
+    if (names == null) {
+      return segments;
+    }
+    String namePrefix = segmentPrefix + ".";
+    for (String name : names) {
+      if (!name.startsWith(namePrefix)) {
+        continue;
+      }
+      try {
+        segments.add(Integer.parseInt(name.substring(namePrefix.length())));
+      } catch (NumberFormatException e) {
+        // Not one of ours.
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private File getSegmentFile(int index) {
+    return new File(directory, segmentPrefix + "." + index);
+  }
+
+  static void writeSegmentHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+  }
+
+  static void writeRecord(
+      DataOutputStream out, AccessTokenAppIdPair accessTokenAppIdPair, AppEvent appEvent)
+      throws IOException {
+    String accessToken = accessTokenAppIdPair.getAccessTokenString();
+    String appId = accessTokenAppIdPair.getApplicationId();
+    String checksum = appEvent.getChecksum();
+
+    int flags = 0;
+    flags |= appEvent.getIsImplicit() ? FLAG_IMPLICIT : 0;
+    flags |= appEvent.getIsInBackground() ? FLAG_IN_BACKGROUND : 0;
+    flags |= accessToken != null ? FLAG_HAS_ACCESS_TOKEN : 0;
+    flags |= appId != null ? FLAG_HAS_APP_ID : 0;
+    flags |= checksum != null ? FLAG_HAS_CHECKSUM : 0;
+
+    ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    DataOutputStream payload = new DataOutputStream(payloadBytes);
+    payload.writeByte(flags);
+    if (accessToken != null) {
+      writeString(payload, accessToken);
+    }
+    if (appId != null) {
+      writeString(payload, appId);
+    }
+    writeString(payload, appEvent.getJSONString());
+    if (checksum != null) {
+      writeString(payload, checksum);
+    }
+    payload.flush();
+
+    byte[] bytes = payloadBytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    out.writeInt(bytes.length);
+    out.writeInt((int) crc.getValue());
+    out.write(bytes);
+  }
+
+  /**
+   * Reads records from a single segment. Returns the number of records that were recovered.
+   * Records with a bad checksum are skipped; a truncated or implausible record ends the segment.
+   */
+  static int readSegment(InputStream stream, PersistedEvents persistedEvents) throws IOException {
+    DataInputStream in = new DataInputStream(stream);
+    try {
+      if (in.readInt() != MAGIC) {
+        Log.w(TAG, "Skipping event journal segment with unknown magic");
+        return 0;
+      }
+      int version = in.readInt();
+      if (version != FORMAT_VERSION) {
+        Log.w(TAG, "Skipping event journal segment with unsupported version " + version);
+        return 0;
+      }
+    } catch (EOFException e) {
+      return 0;
+    }
+
+    int recovered = 0;
+    while (true) {
+      int length;
+      int expectedCrc;
+      byte[] bytes;
+      try {
+        length = in.readInt();
+        if (length <= 0 || length > MAX_RECORD_SIZE_BYTES) {
+          Log.w(TAG, "Truncating event journal at implausible record length " + length);
+          return recovered;
+        }
+        expectedCrc = in.readInt();
+        bytes = new byte[length];
+        in.readFully(bytes);
+      } catch (EOFException e) {
+        // End of segment, or a torn write at its tail.
+        return recovered;
+      }
+
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, length);
+      if ((int) crc.getValue() != expectedCrc) {
+        Log.w(TAG, "Skipping event journal record with mismatched crc");
+        continue;
+      }
+
+      try {
+        readPayload(bytes, persistedEvents);
+        recovered++;
+      } catch (IOException | JSONException e) {
+        Log.w(TAG, "Skipping undecodable event journal record: ", e);
+      }
+    }
+  }
+
+  private static void readPayload(byte[] bytes, PersistedEvents persistedEvents)
+      throws IOException, JSONException {
+    DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+    int flags = payload.readUnsignedByte();
+    String accessToken = (flags & FLAG_HAS_ACCESS_TOKEN) != 0 ? readString(payload) : null;
+    String appId = (flags & FLAG_HAS_APP_ID) != 0 ? readString(payload) : null;
+    String jsonString = readString(payload);
+    String checksum = (flags & FLAG_HAS_CHECKSUM) != 0 ? readString(payload) : null;
+
+    AppEvent appEvent =
+        AppEvent.createFromPersistedJson(
+            jsonString,
+            (flags & FLAG_IMPLICIT) != 0,
+            (flags & FLAG_IN_BACKGROUND) != 0,
+            checksum);
+    List<AppEvent> events = new ArrayList<>();
+    events.add(appEvent);
+    persistedEvents.addEvents(new AccessTokenAppIdPair(accessToken, appId), events);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_RECORD_SIZE_BYTES) {
+      throw new IOException("Invalid string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
@@ -20,44 +20,78 @@
 
 package com.facebook.appevents;
 
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.facebook.FacebookRequestError;
 import com.facebook.FacebookSdk;
 import com.facebook.GraphRequest;
+import com.facebook.GraphRequestBatch;
 import com.facebook.GraphResponse;
 import com.facebook.LoggingBehavior;
 import com.facebook.internal.FetchedAppSettings;
 import com.facebook.internal.FetchedAppSettingsManager;
 import com.facebook.internal.Logger;
+import com.facebook.internal.SdkExecutors;
+import com.facebook.internal.Validate;
 import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
 import com.facebook.internal.qualityvalidation.Excuse;
 import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 @ExcusesForDesignViolations(@Excuse(type = "MISSING_UNIT_TEST", reason = "Legacy"))
 @AutoHandleExceptions
 class AppEventQueue {
   private static final String TAG = AppEventQueue.class.getName();
 
-  private static final int NUM_LOG_EVENTS_TO_TRY_TO_FLUSH_AFTER = 100;
-  private static final int FLUSH_PERIOD_IN_SECONDS = 15;
-
   private static volatile AppEventCollection appEventCollection = new AppEventCollection();
   private static final ScheduledExecutorService singleThreadExecutor =
-      Executors.newSingleThreadScheduledExecutor();
+      SdkExecutors.newBlockingSerialExecutor("AppEventQueue");
   private static ScheduledFuture scheduledFuture;
+  private static final AppEventFlushScheduler flushScheduler = new AppEventFlushScheduler();
+  // A BroadcastReceiver or a ConnectivityManager.NetworkCallback, registered only while a flush
+  // is waiting for the network. Only touch from the singleThreadExecutor.
+  private static Object connectivityListener;
+
+  // Producers publish into this ring without locking; the singleThreadExecutor drains it in
+  // batches. Events still go through SessionEventsState.addEvent, so the
+  // MAX_ACCUMULATED_LOG_EVENTS drop accounting is unchanged.
+  private static final int INGESTION_BUFFER_CAPACITY = 1024;
+  private static final AppEventRingBuffer ingestionBuffer =
+      new AppEventRingBuffer(INGESTION_BUFFER_CAPACITY);
+  private static final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+  // Only call for the singleThreadExecutor
+  private static final Runnable drainRunnable =
+      new Runnable() {
+        @Override
+        public void run() {
+          // Clear the flag before draining so a producer that publishes after this point
+          // schedules another drain.
+          drainScheduled.set(false);
+          if (drainIngestionBuffer() > 0) {
+            onEventsAdded();
+          }
+        }
+      };
 
   // Only call for the singleThreadExecutor
   private static final Runnable flushRunnable =
@@ -67,7 +101,12 @@ class AppEventQueue {
           scheduledFuture = null;
 
           if (AppEventsLogger.getFlushBehavior() != AppEventsLogger.FlushBehavior.EXPLICIT_ONLY) {
-            flushAndWait(FlushReason.TIMER);
+            long delayMillis = flushScheduler.onTimer(System.currentTimeMillis());
+            if (delayMillis == 0) {
+              flushAndWait(FlushReason.TIMER);
+            } else {
+              scheduleFlush(delayMillis);
+            }
           }
         }
       };
@@ -77,7 +116,14 @@ class AppEventQueue {
         new Runnable() {
           @Override
           public void run() {
-            AppEventStore.persistEvents(appEventCollection);
+            // Persist the ingestion ring too, in steps that stay under the per-session cap.
+            int drained;
+            do {
+              drained =
+                  ingestionBuffer.drainTo(
+                      appEventCollection, AppEventFlushScheduler.NUM_EVENTS_TO_FLUSH_AFTER);
+              AppEventStore.persistEvents(appEventCollection);
+            } while (drained > 0);
             appEventCollection = new AppEventCollection();
           }
         });
@@ -94,24 +140,179 @@ class AppEventQueue {
   }
 
   public static void add(final AccessTokenAppIdPair accessTokenAppId, final AppEvent appEvent) {
+    if (ingestionBuffer.offer(accessTokenAppId, appEvent)) {
+      scheduleDrain();
+      return;
+    }
+
+    // The ingestion ring is full; fall back to handing the event over directly so it is not lost.
     singleThreadExecutor.execute(
         new Runnable() {
           @Override
           public void run() {
+            // Empty the ring first, in threshold-sized steps, so this event does not overtake the
+            // events that were already waiting in it. The ring held at most its capacity when
+            // this event was turned away. Only an event whose producer has not finished
+            // publishing it yet can still be overtaken, and that producer was racing this one.
+            int drained = 0;
+            while (drained < INGESTION_BUFFER_CAPACITY) {
+              int count = drainIngestionBuffer();
+              if (count == 0) {
+                break;
+              }
+              drained += count;
+              onEventsAdded();
+            }
             appEventCollection.addEvent(accessTokenAppId, appEvent);
+            onEventsAdded();
+          }
+        });
+  }
 
-            if (AppEventsLogger.getFlushBehavior() != AppEventsLogger.FlushBehavior.EXPLICIT_ONLY
-                && appEventCollection.getEventCount() > NUM_LOG_EVENTS_TO_TRY_TO_FLUSH_AFTER) {
-              flushAndWait(FlushReason.EVENT_THRESHOLD);
-            } else if (scheduledFuture == null) {
-              scheduledFuture =
-                  singleThreadExecutor.schedule(
-                      flushRunnable, FLUSH_PERIOD_IN_SECONDS, TimeUnit.SECONDS);
+  // Only call from the singleThreadExecutor
+  private static void onEventsAdded() {
+    int eventCount = appEventCollection.getEventCount();
+    long payloadLength = appEventCollection.getPayloadLength();
+    long delayMillis =
+        flushScheduler.onEventsAdded(eventCount, payloadLength, System.currentTimeMillis());
+    if (delayMillis == 0
+        && AppEventsLogger.getFlushBehavior() != AppEventsLogger.FlushBehavior.EXPLICIT_ONLY) {
+      flushAndWait(FlushReason.EVENT_THRESHOLD);
+      return;
+    }
+    if (delayMillis != 0 && AppEventFlushScheduler.isOverThreshold(eventCount, payloadLength)) {
+      // The flush is deferred while offline or backing off. Move the events to disk so they are
+      // not dropped at the per-session cap in SessionEventsState; the next flush reads them back.
+      AppEventStore.persistEvents(appEventCollection);
+      flushScheduler.onEventsPersisted();
+    }
+    scheduleFlush(delayMillis);
+  }
+
+  // Only call from the singleThreadExecutor. The timer, count and retry triggers share one
+  // pending flush; an earlier deadline replaces a later one instead of adding a second flush.
+  private static void scheduleFlush(long delayMillis) {
+    if (delayMillis == AppEventFlushScheduler.NO_FLUSH_SCHEDULED) {
+      // Offline; the connectivity listener will flush once the network is back.
+      return;
+    }
+    if (scheduledFuture != null) {
+      if (scheduledFuture.getDelay(TimeUnit.MILLISECONDS) <= delayMillis) {
+        return;
+      }
+      scheduledFuture.cancel(false);
+    }
+    scheduledFuture =
+        singleThreadExecutor.schedule(flushRunnable, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // Only call from the singleThreadExecutor. The default network callback needs
+  // ACCESS_NETWORK_STATE, so apps without it, and older API levels, get the broadcast instead.
+  private static void startConnectivityListenerIfNeeded() {
+    Context context = FacebookSdk.getApplicationContext();
+    if (connectivityListener != null || context == null) {
+      return;
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+        && Validate.hasPermission(context, Manifest.permission.ACCESS_NETWORK_STATE)) {
+      DefaultNetworkCallback callback = new DefaultNetworkCallback();
+      try {
+        getConnectivityManager(context).registerDefaultNetworkCallback(callback);
+        connectivityListener = callback;
+        return;
+      } catch (SecurityException e) {
+        // Some devices refuse the callback despite the permission; fall back to the broadcast.
+      }
+    }
+    BroadcastReceiver receiver = new ConnectivityReceiver();
+    context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    connectivityListener = receiver;
+  }
+
+  // Only call from the singleThreadExecutor
+  private static void stopConnectivityListener() {
+    Context context = FacebookSdk.getApplicationContext();
+    if (connectivityListener == null || context == null) {
+      return;
+    }
+    if (connectivityListener instanceof BroadcastReceiver) {
+      context.unregisterReceiver((BroadcastReceiver) connectivityListener);
+    } else {
+      getConnectivityManager(context)
+          .unregisterNetworkCallback((ConnectivityManager.NetworkCallback) connectivityListener);
+    }
+    connectivityListener = null;
+    // Nothing reports the network going away from here on, so stop deferring for it.
+    flushScheduler.onConnectivityChanged(true);
+  }
+
+  private static ConnectivityManager getConnectivityManager(Context context) {
+    return (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+  }
+
+  private static void onConnectivityChanged(final boolean isConnected) {
+    singleThreadExecutor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (connectivityListener == null) {
+              // Delivered after the listener was stopped.
+              return;
+            }
+            if (flushScheduler.onConnectivityChanged(isConnected)
+                && AppEventsLogger.getFlushBehavior()
+                    != AppEventsLogger.FlushBehavior.EXPLICIT_ONLY) {
+              flushAndWait(FlushReason.CONNECTIVITY_RESTORED);
             }
           }
         });
   }
 
+  @TargetApi(Build.VERSION_CODES.N)
+  private static class DefaultNetworkCallback extends ConnectivityManager.NetworkCallback {
+    @Override
+    public void onAvailable(Network network) {
+      onConnectivityChanged(true);
+    }
+
+    @Override
+    public void onLost(Network network) {
+      // A new default network, if any, is reported through onAvailable.
+      onConnectivityChanged(false);
+    }
+  }
+
+  // CONNECTIVITY_ACTION is deprecated from API 28, but it is only used where the default network
+  // callback is not available. EXTRA_NO_CONNECTIVITY is read instead of querying
+  // ConnectivityManager, which would require ACCESS_NETWORK_STATE.
+  private static class ConnectivityReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      onConnectivityChanged(
+          !intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false));
+    }
+  }
+
+  // Only call from the singleThreadExecutor. Drains no further than the flush threshold, so a
+  // burst is checked against the threshold as often as events added one at a time; whatever is
+  // left is picked up by another drain after onEventsAdded has had a chance to flush.
+  private static int drainIngestionBuffer() {
+    int threshold = AppEventFlushScheduler.NUM_EVENTS_TO_FLUSH_AFTER;
+    int room = Math.max(1, threshold + 1 - appEventCollection.getEventCount());
+    int drained = ingestionBuffer.drainTo(appEventCollection, room);
+    if (drained == room) {
+      scheduleDrain();
+    }
+    return drained;
+  }
+
+  private static void scheduleDrain() {
+    // Only the first producer since the last drain pays for a task submission.
+    if (drainScheduled.compareAndSet(false, true)) {
+      singleThreadExecutor.execute(drainRunnable);
+    }
+  }
+
   public static Set<AccessTokenAppIdPair> getKeySet() {
     // This is safe to call outside of the singleThreadExecutor since
     // the appEventCollection is volatile and the modifying methods within the
@@ -120,6 +321,16 @@ class AppEventQueue {
   }
 
   static void flushAndWait(FlushReason reason) {
+    // Pick up events that producers published since the last drain.
+    drainIngestionBuffer();
+
+    // This flush covers every pending trigger, so drop the timer; a failure re-arms it.
+    if (scheduledFuture != null) {
+      scheduledFuture.cancel(false);
+      scheduledFuture = null;
+    }
+    flushScheduler.onFlushStarted();
+
     // Read and send any persisted events
     PersistedEvents result = AppEventStore.readAndClearStore();
     // Add any of the persisted app events to our list of events to send
@@ -135,6 +346,21 @@ class AppEventQueue {
     }
 
     if (flushResults != null) {
+      long retryDelayMillis =
+          flushScheduler.onFlushCompleted(flushResults, System.currentTimeMillis());
+      if (retryDelayMillis != AppEventFlushScheduler.NO_FLUSH_SCHEDULED) {
+        Logger.log(
+            LoggingBehavior.APP_EVENTS,
+            TAG,
+            "Retrying flush in %d ms after %d consecutive failures.",
+            retryDelayMillis,
+            flushResults.consecutiveFailures);
+        scheduleFlush(retryDelayMillis);
+        startConnectivityListenerIfNeeded();
+      } else {
+        stopConnectivityListener();
+      }
+
       final Intent intent = new Intent(AppEventsLogger.ACTION_APP_EVENTS_FLUSHED);
       intent.putExtra(AppEventsLogger.APP_EVENTS_EXTRA_NUM_EVENTS_FLUSHED, flushResults.numEvents);
       intent.putExtra(AppEventsLogger.APP_EVENTS_EXTRA_FLUSH_RESULT, flushResults.result);
@@ -146,6 +372,7 @@ class AppEventQueue {
   private static FlushStatistics sendEventsToServer(
       FlushReason reason, AppEventCollection appEventCollection) {
     FlushStatistics flushResults = new FlushStatistics();
+    flushResults.reason = reason;
 
     Context context = FacebookSdk.getApplicationContext();
     boolean limitEventUsage = FacebookSdk.getLimitEventAndDataUsage(context);
@@ -171,10 +398,17 @@ class AppEventQueue {
           flushResults.numEvents,
           reason.toString());
 
-      for (GraphRequest request : requestsToExecute) {
-        // Execute the request synchronously. Callbacks will take care of handling errors
-        // and updating our final overall result.
-        request.executeAndWait();
+      // Send every session in as few round trips as possible, up to MAXIMUM_BATCH_SIZE requests
+      // per batch. Execute synchronously; each request's callback handles its own response and
+      // updates our final overall result.
+      int requestCount = requestsToExecute.size();
+      for (int start = 0; start < requestCount; start += GraphRequest.MAXIMUM_BATCH_SIZE) {
+        int end = Math.min(start + GraphRequest.MAXIMUM_BATCH_SIZE, requestCount);
+        if (end - start == 1) {
+          requestsToExecute.get(start).executeAndWait();
+        } else {
+          new GraphRequestBatch(requestsToExecute.subList(start, end)).executeAndWait();
+        }
       }
       return flushResults;
     }
@@ -271,19 +505,33 @@ class AppEventQueue {
     if (FacebookSdk.isLoggingBehaviorEnabled(LoggingBehavior.APP_EVENTS)) {
       String eventsJsonString = (String) request.getTag();
       String prettyPrintedEvents;
+      String params;
 
+      if (eventsJsonString == null) {
+        // The tag is only set if logging was already enabled when the request was built.
+        prettyPrintedEvents = "<Events were not kept for debug logging>";
+      } else {
+        try {
+          JSONArray jsonArray = new JSONArray(eventsJsonString);
+          prettyPrintedEvents = jsonArray.toString(2);
+        } catch (JSONException exc) {
+          prettyPrintedEvents = "<Can't encode events for debug logging>";
+        }
+      }
       try {
-        JSONArray jsonArray = new JSONArray(eventsJsonString);
-        prettyPrintedEvents = jsonArray.toString(2);
+        // The events are logged on their own below.
+        JSONObject paramsJson = new JSONObject(request.getGraphObject().toString());
+        paramsJson.remove(SessionEventsState.CUSTOM_EVENTS_KEY);
+        params = paramsJson.toString();
       } catch (JSONException exc) {
-        prettyPrintedEvents = "<Can't encode events for debug logging>";
+        params = "<Can't encode params for debug logging>";
       }
 
       Logger.log(
           LoggingBehavior.APP_EVENTS,
           TAG,
           "Flush completed\nParams: %s\n  Result: %s\n  Events JSON: %s",
-          request.getGraphObject().toString(),
+          params,
           resultDescription,
           prettyPrintedEvents);
     }
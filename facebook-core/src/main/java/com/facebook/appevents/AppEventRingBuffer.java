@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi-producer, single-consumer ring of pending app events.
+ *
+ * <p>Producers claim a slot with a CAS on the tail and publish the event without taking a lock.
+ * Only the AppEventQueue thread may call {@link #drainTo(AppEventCollection, int)}.
+ */
+class AppEventRingBuffer {
+  private final int mask;
+  private final AtomicReferenceArray<AccessTokenAppIdPair> accessTokenAppIds;
+  private final AtomicReferenceArray<AppEvent> events;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  AppEventRingBuffer(int capacity) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("capacity must be a power of two");
+    }
+    mask = capacity - 1;
+    accessTokenAppIds = new AtomicReferenceArray<>(capacity);
+    events = new AtomicReferenceArray<>(capacity);
+  }
+
+  /** Returns false without blocking if the ring is full. */
+  boolean offer(AccessTokenAppIdPair accessTokenAppId, AppEvent appEvent) {
+    long claimed;
+    do {
+      claimed = tail.get();
+      if (claimed - head.get() > mask) {
+        return false;
+      }
+    } while (!tail.compareAndSet(claimed, claimed + 1));
+
+    int index = (int) claimed & mask;
+    // The event slot is the publication flag, so it has to be written last.
+    accessTokenAppIds.lazySet(index, accessTokenAppId);
+    events.lazySet(index, appEvent);
+    return true;
+  }
+
+  /**
+   * Moves up to maxEvents published events into the collection, in the order the slots were
+   * claimed, and returns how many were moved. Stops early at a slot whose producer has not
+   * finished publishing; that producer will schedule another drain.
+   */
+  int drainTo(AppEventCollection appEventCollection, int maxEvents) {
+    int drained = 0;
+    long current = head.get();
+    while (drained < maxEvents && current < tail.get()) {
+      int index = (int) current & mask;
+      AppEvent appEvent = events.get(index);
+      if (appEvent == null) {
+        break;
+      }
+      AccessTokenAppIdPair accessTokenAppId = accessTokenAppIds.get(index);
+      accessTokenAppIds.lazySet(index, null);
+      events.lazySet(index, null);
+      current++;
+      head.lazySet(current);
+
+      appEventCollection.addEvent(accessTokenAppId, appEvent);
+      drained++;
+    }
+    return drained;
+  }
+}
@@ -29,101 +29,125 @@ import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
 import com.facebook.internal.qualityvalidation.Excuse;
 import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.util.Iterator;
+import java.util.List;
 
 @ExcusesForDesignViolations(@Excuse(type = "MISSING_UNIT_TEST", reason = "Legacy"))
 @AutoHandleExceptions
 class AppEventStore {
   private static final String TAG = AppEventStore.class.getName();
+  // Legacy store written with Java serialization; only read once for migration.
   private static final String PERSISTED_EVENTS_FILENAME = "AppEventsLogger.persistedevents";
+  private static final String EVENT_JOURNAL_PREFIX = "AppEventsLogger.eventjournal";
+
+  private static AppEventJournal journal;
 
   public static synchronized void persistEvents(
       final AccessTokenAppIdPair accessTokenAppIdPair, final SessionEventsState appEvents) {
     AppEventUtility.assertIsNotMainThread();
-    PersistedEvents persistedEvents = readAndClearStore();
-
-    if (persistedEvents.containsKey(accessTokenAppIdPair)) {
-      persistedEvents.get(accessTokenAppIdPair).addAll(appEvents.getEventsToPersist());
-    } else {
-      persistedEvents.addEvents(accessTokenAppIdPair, appEvents.getEventsToPersist());
-    }
-
-    saveEventsToDisk(persistedEvents);
+    appendToJournal(accessTokenAppIdPair, appEvents.getEventsToPersist());
   }
 
   public static synchronized void persistEvents(final AppEventCollection eventsToPersist) {
     AppEventUtility.assertIsNotMainThread();
-    PersistedEvents persistedEvents = readAndClearStore();
     for (AccessTokenAppIdPair accessTokenAppIdPair : eventsToPersist.keySet()) {
       SessionEventsState sessionEventsState = eventsToPersist.get(accessTokenAppIdPair);
-      persistedEvents.addEvents(accessTokenAppIdPair, sessionEventsState.getEventsToPersist());
+      appendToJournal(accessTokenAppIdPair, sessionEventsState.getEventsToPersist());
     }
-
-    saveEventsToDisk(persistedEvents);
   }
 
   // Only call from singleThreadExecutor
   public static synchronized PersistedEvents readAndClearStore() {
     AppEventUtility.assertIsNotMainThread();
 
-    MovedClassObjectInputStream ois = null;
-    PersistedEvents persistedEvents = null;
-    Context context = FacebookSdk.getApplicationContext();
-    try {
-      InputStream is = context.openFileInput(PERSISTED_EVENTS_FILENAME);
-      ois = new MovedClassObjectInputStream(new BufferedInputStream(is));
+    PersistedEvents persistedEvents = new PersistedEvents();
+    readLegacyStore(persistedEvents);
 
-      persistedEvents = (PersistedEvents) ois.readObject();
-    } catch (FileNotFoundException e) {
-      // Expected if we never persisted any events.
-    } catch (Exception e) {
-      Log.w(TAG, "Got unexpected exception while reading events: ", e);
+    AppEventJournal eventJournal = getJournal();
+    try {
+      eventJournal.readAll(persistedEvents);
     } finally {
-      Utility.closeQuietly(ois);
+      // Note: We delete the journal before we send the events; this means we'd
+      // prefer to lose some events in the case of exception rather than
+      // potentially log them twice.
+      eventJournal.clear();
+    }
 
-      try {
-        // Note: We delete the store before we store the events; this means we'd
-        // prefer to lose some events in the case of exception rather than
-        // potentially log them twice.
-        // Always delete this file after the above try catch to recover from read
-        // errors.
-        context.getFileStreamPath(PERSISTED_EVENTS_FILENAME).delete();
-      } catch (Exception ex) {
-        Log.w(TAG, "Got unexpected exception when removing events file: ", ex);
+    dropEventsWithInvalidChecksum(persistedEvents);
+    return persistedEvents;
+  }
+
+  // Events are only verified here, once, when they come back from disk. Events that stayed in
+  // memory are trusted and are not re-hashed on every flush attempt.
+  private static void dropEventsWithInvalidChecksum(PersistedEvents persistedEvents) {
+    for (AccessTokenAppIdPair accessTokenAppIdPair : persistedEvents.keySet()) {
+      Iterator<AppEvent> iterator = persistedEvents.get(accessTokenAppIdPair).iterator();
+      while (iterator.hasNext()) {
+        AppEvent event = iterator.next();
+        if (!event.isChecksumValid()) {
+          Utility.logd("Event with invalid checksum: %s", event.toString());
+          iterator.remove();
+        }
       }
     }
+  }
 
-    if (persistedEvents == null) {
-      persistedEvents = new PersistedEvents();
+  private static void appendToJournal(
+      AccessTokenAppIdPair accessTokenAppIdPair, List<AppEvent> appEvents) {
+    try {
+      getJournal().append(accessTokenAppIdPair, appEvents);
+    } catch (Exception e) {
+      Log.w(TAG, "Got unexpected exception while persisting events: ", e);
     }
+  }
 
-    return persistedEvents;
+  private static AppEventJournal getJournal() {
+    if (journal == null) {
+      Context context = FacebookSdk.getApplicationContext();
+      journal = new AppEventJournal(context.getFilesDir(), EVENT_JOURNAL_PREFIX);
+    }
+    return journal;
   }
 
-  // Only call from singleThreadExecutor
-  private static void saveEventsToDisk(PersistedEvents eventsToPersist) {
-    ObjectOutputStream oos = null;
+  // Reads events written by older SDK versions through Java serialization and deletes the file.
+  private static void readLegacyStore(PersistedEvents persistedEvents) {
     Context context = FacebookSdk.getApplicationContext();
+    File legacyFile = context.getFileStreamPath(PERSISTED_EVENTS_FILENAME);
+    if (!legacyFile.exists()) {
+      return;
+    }
+
+    MovedClassObjectInputStream ois = null;
     try {
-      oos =
-          new ObjectOutputStream(
-              new BufferedOutputStream(context.openFileOutput(PERSISTED_EVENTS_FILENAME, 0)));
-      oos.writeObject(eventsToPersist);
+      InputStream is = context.openFileInput(PERSISTED_EVENTS_FILENAME);
+      ois = new MovedClassObjectInputStream(new BufferedInputStream(is));
+
+      PersistedEvents legacyEvents = (PersistedEvents) ois.readObject();
+      if (legacyEvents != null) {
+        for (AccessTokenAppIdPair accessTokenAppIdPair : legacyEvents.keySet()) {
+          persistedEvents.addEvents(
+              accessTokenAppIdPair, legacyEvents.get(accessTokenAppIdPair));
+        }
+      }
+    } catch (FileNotFoundException e) {
+      // Expected if the file was removed concurrently.
     } catch (Exception e) {
-      Log.w(TAG, "Got unexpected exception while persisting events: ", e);
+      Log.w(TAG, "Got unexpected exception while reading events: ", e);
+    } finally {
+      Utility.closeQuietly(ois);
+
       try {
-        context.getFileStreamPath(PERSISTED_EVENTS_FILENAME).delete();
-      } catch (Exception innerException) {
-        // ignore
+        // Always delete this file after the above try catch to recover from read errors.
+        legacyFile.delete();
+      } catch (Exception ex) {
+        Log.w(TAG, "Got unexpected exception when removing events file: ", ex);
       }
-    } finally {
-      Utility.closeQuietly(oos);
     }
   }
 
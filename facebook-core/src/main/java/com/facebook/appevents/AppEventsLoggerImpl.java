@@ -43,6 +43,7 @@ import com.facebook.internal.FetchedAppGateKeepersManager;
 import com.facebook.internal.FetchedAppSettingsManager;
 import com.facebook.internal.InstallReferrerUtil;
 import com.facebook.internal.Logger;
+import com.facebook.internal.SdkExecutors;
 import com.facebook.internal.Utility;
 import com.facebook.internal.Validate;
 import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
@@ -52,7 +53,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -78,7 +79,7 @@ class AppEventsLoggerImpl {
   private final String contextName;
   private final AccessTokenAppIdPair accessTokenAppId;
 
-  private static ScheduledThreadPoolExecutor backgroundExecutor;
+  private static ScheduledExecutorService backgroundExecutor;
   private static FlushBehavior flushBehavior = FlushBehavior.AUTO;
   private static final Object staticLock = new Object();
   private static String anonymousAppDeviceGUID;
@@ -514,7 +515,7 @@ class AppEventsLoggerImpl {
       // Having single runner thread enforces ordered execution of tasks,
       // which matters in some cases e.g. making sure user id is set before
       // trying to update user properties for a given id
-      backgroundExecutor = new ScheduledThreadPoolExecutor(1);
+      backgroundExecutor = SdkExecutors.newBlockingSerialExecutor("AppEventsLogger");
     }
 
     final Runnable attributionRecheckRunnable =
@@ -27,4 +27,5 @@ enum FlushReason {
   PERSISTED_EVENTS,
   EVENT_THRESHOLD,
   EAGER_FLUSHING_EVENT,
+  CONNECTIVITY_RESTORED,
 }
@@ -23,4 +23,9 @@ package com.facebook.appevents;
 class FlushStatistics {
   public int numEvents = 0;
   public FlushResult result = FlushResult.SUCCESS;
+  public FlushReason reason;
+  // Scheduler decisions, filled in by AppEventFlushScheduler once the flush completes.
+  public int numDeferredFlushes = 0;
+  public int consecutiveFailures = 0;
+  public long retryDelayMillis = AppEventFlushScheduler.NO_FLUSH_SCHEDULED;
 }
@@ -21,18 +21,17 @@
 package com.facebook.appevents;
 
 import android.content.Context;
-import android.os.Bundle;
+import com.facebook.FacebookSdk;
 import com.facebook.GraphRequest;
+import com.facebook.LoggingBehavior;
 import com.facebook.appevents.eventdeactivation.EventDeactivationManager;
 import com.facebook.appevents.internal.AppEventsLoggerUtility;
 import com.facebook.internal.AttributionIdentifiers;
-import com.facebook.internal.Utility;
 import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
 import com.facebook.internal.qualityvalidation.Excuse;
 import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
 import java.util.ArrayList;
 import java.util.List;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -41,11 +40,15 @@ import org.json.JSONObject;
 class SessionEventsState {
   private List<AppEvent> accumulatedEvents = new ArrayList<AppEvent>();
   private List<AppEvent> inFlightEvents = new ArrayList<AppEvent>();
+  // Total JSON length of accumulatedEvents, kept up to date so the flush threshold check does not
+  // walk every event.
+  private long accumulatedPayloadLength;
   private int numSkippedEventsDueToFullBuffer;
   private AttributionIdentifiers attributionIdentifiers;
   private String anonymousAppDeviceGUID;
 
   private final int MAX_ACCUMULATED_LOG_EVENTS = 1000;
+  static final String CUSTOM_EVENTS_KEY = "custom_events";
 
   public SessionEventsState(AttributionIdentifiers identifiers, String anonymousGUID) {
     this.attributionIdentifiers = identifiers;
@@ -59,6 +62,7 @@ class SessionEventsState {
       numSkippedEventsDueToFullBuffer++;
     } else {
       accumulatedEvents.add(event);
+      accumulatedPayloadLength += event.getJSONString().length();
     }
   }
 
@@ -66,9 +70,14 @@ class SessionEventsState {
     return accumulatedEvents.size();
   }
 
+  public synchronized long getAccumulatedPayloadLength() {
+    return accumulatedPayloadLength;
+  }
+
   public synchronized void clearInFlightAndStats(boolean moveToAccumulated) {
     if (moveToAccumulated) {
       accumulatedEvents.addAll(inFlightEvents);
+      accumulatedPayloadLength += getPayloadLength(inFlightEvents);
     }
     inFlightEvents.clear();
     numSkippedEventsDueToFullBuffer = 0;
@@ -81,7 +90,8 @@ class SessionEventsState {
       boolean limitEventUsage) {
 
     int numSkipped;
-    JSONArray jsonArray;
+    int numEvents = 0;
+    String events;
     synchronized (this) {
       numSkipped = numSkippedEventsDueToFullBuffer;
 
@@ -91,25 +101,39 @@ class SessionEventsState {
       // move all accumulated events to inFlight.
       inFlightEvents.addAll(accumulatedEvents);
       accumulatedEvents.clear();
+      accumulatedPayloadLength = 0;
 
-      jsonArray = new JSONArray();
+      // Checksums were verified when the events were read back from disk, so the cached JSON
+      // can be used as is. The first pass sizes the builder exactly, for the brackets, the events
+      // and a comma between each pair of events, so it never grows.
+      int payloadLength = 1;
       for (AppEvent event : inFlightEvents) {
-        if (event.isChecksumValid()) {
-          if (includeImplicitEvents || !event.getIsImplicit()) {
-            jsonArray.put(event.getJSONObject());
-          }
-        } else {
-          Utility.logd("Event with invalid checksum: %s", event.toString());
+        if (includeImplicitEvents || !event.getIsImplicit()) {
+          payloadLength += event.getJSONString().length() + 1;
+          numEvents++;
         }
       }
 
-      if (jsonArray.length() == 0) {
+      if (numEvents == 0) {
         return 0;
       }
+
+      StringBuilder payload = new StringBuilder(payloadLength);
+      payload.append('[');
+      for (AppEvent event : inFlightEvents) {
+        if (includeImplicitEvents || !event.getIsImplicit()) {
+          if (payload.length() > 1) {
+            payload.append(',');
+          }
+          payload.append(event.getJSONString());
+        }
+      }
+      payload.append(']');
+      events = payload.toString();
     }
 
-    populateRequest(request, applicationContext, numSkipped, jsonArray, limitEventUsage);
-    return jsonArray.length();
+    populateRequest(request, applicationContext, numSkipped, events, limitEventUsage);
+    return numEvents;
   }
 
   public synchronized List<AppEvent> getEventsToPersist() {
@@ -118,6 +142,7 @@ class SessionEventsState {
     // lost if the process terminates while the flush is in progress.
     List<AppEvent> result = accumulatedEvents;
     accumulatedEvents = new ArrayList<AppEvent>();
+    accumulatedPayloadLength = 0;
     return result;
   }
 
@@ -126,13 +151,22 @@ class SessionEventsState {
     // persisted them. But they will count against the buffer size when further events are
     // accumulated.
     accumulatedEvents.addAll(events);
+    accumulatedPayloadLength += getPayloadLength(events);
+  }
+
+  private static long getPayloadLength(List<AppEvent> events) {
+    long length = 0;
+    for (AppEvent event : events) {
+      length += event.getJSONString().length();
+    }
+    return length;
   }
 
   private void populateRequest(
       GraphRequest request,
       Context applicationContext,
       int numSkipped,
-      JSONArray events,
+      String events,
       boolean limitEventUsage) {
     JSONObject publishParams = null;
     try {
@@ -151,18 +185,19 @@ class SessionEventsState {
       // Swallow
       publishParams = new JSONObject();
     }
-    request.setGraphObject(publishParams);
-
-    Bundle requestParameters = request.getParameters();
-    if (requestParameters == null) {
-      requestParameters = new Bundle();
+    try {
+      // The events go in the graph object rather than the parameters. When the request is part
+      // of a batch, the graph object is sent in the entry's body, while parameters would be
+      // appended to its relative_url.
+      publishParams.put(CUSTOM_EVENTS_KEY, events);
+    } catch (JSONException e) {
+      // Swallow
     }
+    request.setGraphObject(publishParams);
 
-    String jsonString = events.toString();
-    if (jsonString != null) {
-      requestParameters.putString("custom_events", jsonString);
-      request.setTag(jsonString);
+    if (FacebookSdk.isLoggingBehaviorEnabled(LoggingBehavior.APP_EVENTS)) {
+      // Only kept for the flush log in AppEventQueue.
+      request.setTag(events);
     }
-    request.setParameters(requestParameters);
   }
 }
@@ -20,14 +20,18 @@
 
 package com.facebook.appevents.integrity;
 
+import androidx.annotation.Nullable;
 import com.facebook.FacebookSdk;
 import com.facebook.appevents.ml.ModelManager;
 import com.facebook.internal.FetchedAppGateKeepersManager;
 import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.json.JSONObject;
 
 @AutoHandleExceptions
@@ -41,6 +45,13 @@ public final class IntegrityManager {
   private static boolean enabled = false;
   private static boolean isSampleEnabled = false;
 
+  private static final int DENSE_FEATURE_SIZE = 30;
+  private static final float[] EMPTY_DENSE_FEATURES = new float[DENSE_FEATURE_SIZE];
+
+  private static final int MAX_CACHED_VERDICTS = 512;
+  private static final IntegrityVerdictCache verdictCache =
+      new IntegrityVerdictCache(MAX_CACHED_VERDICTS);
+
   public static void enable() {
     enabled = true;
     isSampleEnabled =
@@ -54,12 +65,18 @@ public final class IntegrityManager {
     }
     try {
       List<String> keys = new ArrayList<>(parameters.keySet());
+      List<String> texts = new ArrayList<>(keys.size() * 2);
+      for (String key : keys) {
+        texts.add(key);
+        texts.add(parameters.get(key));
+      }
+      Map<String, String> verdicts = getIntegrityPredictionResults(texts);
 
       JSONObject restrictiveParamJson = new JSONObject();
       for (String key : keys) {
         String value = parameters.get(key);
 
-        if (shouldFilter(key) || shouldFilter(value)) {
+        if (shouldFilter(verdicts.get(key)) || shouldFilter(verdicts.get(value))) {
           parameters.remove(key);
           restrictiveParamJson.put(key, isSampleEnabled ? value : "");
         }
@@ -72,19 +89,69 @@ public final class IntegrityManager {
     }
   }
 
-  private static boolean shouldFilter(String input) {
-    String predictResult = getIntegrityPredictionResult(input);
-    return !INTEGRITY_TYPE_NONE.equals(predictResult);
+  private static boolean shouldFilter(@Nullable String predictResult) {
+    return predictResult != null && !INTEGRITY_TYPE_NONE.equals(predictResult);
+  }
+
+  public static long getVerdictCacheHitCount() {
+    return verdictCache.getHitCount();
+  }
+
+  public static long getVerdictCacheMissCount() {
+    return verdictCache.getMissCount();
+  }
+
+  /**
+   * Returns the integrity verdict for each of the given texts. Cached verdicts are reused, and
+   * every remaining text is scored in a single forward pass of the model.
+   */
+  static Map<String, String> getIntegrityPredictionResults(List<String> texts) {
+    Map<String, String> verdicts = new HashMap<>();
+    int modelVersion = ModelManager.getModelVersion(ModelManager.Task.MTML_INTEGRITY_DETECT);
+
+    Set<String> uncached = new LinkedHashSet<>();
+    for (String text : texts) {
+      if (text == null || verdicts.containsKey(text) || uncached.contains(text)) {
+        continue;
+      }
+      String cached = modelVersion < 0 ? null : verdictCache.get(modelVersion, text);
+      if (cached != null) {
+        verdicts.put(text, cached);
+      } else {
+        uncached.add(text);
+      }
+    }
+    if (uncached.isEmpty()) {
+      return verdicts;
+    }
+
+    String[] batch = uncached.toArray(new String[0]);
+    String[] results = predictIntegrityBatch(batch);
+    for (int i = 0; i < batch.length; i++) {
+      if (results == null) {
+        // No model is available; nothing is filtered, and nothing is cached so the texts are
+        // scored once a model shows up.
+        verdicts.put(batch[i], INTEGRITY_TYPE_NONE);
+        continue;
+      }
+      verdicts.put(batch[i], results[i]);
+      if (modelVersion >= 0) {
+        verdictCache.put(modelVersion, batch[i], results[i]);
+      }
+    }
+    return verdicts;
   }
 
-  private static String getIntegrityPredictionResult(String textFeature) {
-    float[] dense = new float[30];
-    Arrays.fill(dense, 0);
+  @Nullable
+  static String[] predictIntegrityBatch(String[] textFeatures) {
+    // Every example shares the same all-zero dense features.
+    float[][] denses = new float[textFeatures.length][];
+    Arrays.fill(denses, EMPTY_DENSE_FEATURES);
     String[] res =
-        ModelManager.predict(
-            ModelManager.Task.MTML_INTEGRITY_DETECT,
-            new float[][] {dense},
-            new String[] {textFeature});
-    return res == null ? INTEGRITY_TYPE_NONE : res[0];
+        ModelManager.predict(ModelManager.Task.MTML_INTEGRITY_DETECT, denses, textFeatures);
+    if (res == null || res.length != textFeatures.length) {
+      return null;
+    }
+    return res;
   }
 }
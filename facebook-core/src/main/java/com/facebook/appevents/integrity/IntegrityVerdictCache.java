@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents.integrity;
+
+import androidx.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of integrity verdicts keyed by the input text. All entries belong to a single
+ * model version; switching to a different version drops every cached verdict.
+ */
+final class IntegrityVerdictCache {
+  private final int maxEntries;
+  private final LinkedHashMap<String, String> verdicts;
+  private int modelVersion = -1;
+  private long hitCount;
+  private long missCount;
+
+  IntegrityVerdictCache(final int maxEntries) {
+    this.maxEntries = maxEntries;
+    this.verdicts =
+        new LinkedHashMap<String, String>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > IntegrityVerdictCache.this.maxEntries;
+          }
+        };
+  }
+
+  @Nullable
+  synchronized String get(int version, String text) {
+    if (version != modelVersion) {
+      resetForVersion(version);
+    }
+    String verdict = verdicts.get(text);
+    if (verdict == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return verdict;
+  }
+
+  synchronized void put(int version, String text, String verdict) {
+    if (version != modelVersion) {
+      resetForVersion(version);
+    }
+    verdicts.put(text, verdict);
+  }
+
+  synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  synchronized long getMissCount() {
+    return missCount;
+  }
+
+  synchronized int size() {
+    return verdicts.size();
+  }
+
+  private void resetForVersion(int version) {
+    verdicts.clear();
+    modelVersion = version;
+  }
+}
@@ -37,12 +37,12 @@ import com.facebook.internal.FeatureManager;
 import com.facebook.internal.FetchedAppSettings;
 import com.facebook.internal.FetchedAppSettingsManager;
 import com.facebook.internal.Logger;
+import com.facebook.internal.SdkExecutors;
 import com.facebook.internal.Utility;
 import com.facebook.internal.qualityvalidation.Excuse;
 import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
 import java.lang.ref.WeakReference;
 import java.util.UUID;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -58,7 +58,7 @@ public class ActivityLifecycleTracker {
           + "activateApp from your Application's onCreate method";
   private static final long INTERRUPTION_THRESHOLD_MILLISECONDS = 1000;
   private static final ScheduledExecutorService singleThreadExecutor =
-      Executors.newSingleThreadScheduledExecutor();
+      SdkExecutors.newSerialExecutor("ActivityLifecycleTracker");
   private static volatile ScheduledFuture currentFuture;
   private static final Object currentFutureLock = new Object();
   private static AtomicInteger foregroundActivityCount = new AtomicInteger(0);
@@ -20,7 +20,11 @@
 
 package com.facebook.appevents.internal;
 
+import android.content.ComponentCallbacks;
 import android.content.Context;
+import android.content.res.Configuration;
+import androidx.annotation.Nullable;
+import com.facebook.FacebookSdk;
 import com.facebook.LoggingBehavior;
 import com.facebook.appevents.AppEventsLogger;
 import com.facebook.internal.AttributionIdentifiers;
@@ -55,6 +59,17 @@ public class AppEventsLoggerUtility {
         }
       };
 
+  // The device part of the envelope (package info, locale, display metrics and data processing
+  // options) is expensive to build, so it is cached. The cache is dropped when the configuration
+  // changes, when the stored data processing options change, and after the same period as
+  // Utility's extended device info refresh. The user id and attribution fields are cheap and are
+  // rebuilt on every call, so they always reflect the current values.
+  private static final long DEVICE_ENVELOPE_MAX_AGE_MILLIS = 30 * 60 * 1000;
+
+  private static final Object deviceEnvelopeLock = new Object();
+  private static @Nullable DeviceEnvelope deviceEnvelope;
+  private static boolean isConfigurationListenerRegistered;
+
   public static JSONObject getJSONObjectForGraphAPICall(
       GraphAPIActivityType activityType,
       AttributionIdentifiers attributionIdentifiers,
@@ -73,11 +88,45 @@ public class AppEventsLoggerUtility {
     Utility.setAppEventAttributionParameters(
         publishParams, attributionIdentifiers, anonymousAppDeviceGUID, limitEventUsage);
 
+    JSONObject envelope = getDeviceEnvelope(context);
+    for (Iterator<String> it = envelope.keys(); it.hasNext(); ) {
+      String key = it.next();
+      publishParams.put(key, envelope.get(key));
+    }
+
+    return publishParams;
+  }
+
+  /** Drops the cached device part of the publish envelope. */
+  private static void invalidateDeviceEnvelope() {
+    synchronized (deviceEnvelopeLock) {
+      deviceEnvelope = null;
+    }
+  }
+
+  private static JSONObject getDeviceEnvelope(Context context) throws JSONException {
+    String packageName = context.getPackageName();
+    String dataProcessingOptions =
+        context
+            .getSharedPreferences(
+                FacebookSdk.DATA_PROCESSING_OPTIONS_PREFERENCES, Context.MODE_PRIVATE)
+            .getString(FacebookSdk.DATA_PROCESSION_OPTIONS, null);
+    long now = System.currentTimeMillis();
+    synchronized (deviceEnvelopeLock) {
+      if (deviceEnvelope != null
+          && deviceEnvelope.isValid(packageName, dataProcessingOptions, now)) {
+        return deviceEnvelope.params;
+      }
+    }
+
+    registerConfigurationListenerIfNeeded(context);
+    JSONObject params = new JSONObject();
+
     // The code to get all the Extended info is safe but just in case we can wrap the
     // whole call in its own try/catch block since some of the things it does might
     // cause unexpected exceptions on rooted/funky devices:
     try {
-      Utility.setAppEventExtendedDeviceInfoParameters(publishParams, context);
+      Utility.setAppEventExtendedDeviceInfoParameters(params, context);
     } catch (Exception e) {
       // Swallow but log
       Logger.log(
@@ -87,16 +136,72 @@ public class AppEventsLoggerUtility {
           e.toString());
     }
 
-    JSONObject dataProcessingOptions = Utility.getDataProcessingOptions();
     if (dataProcessingOptions != null) {
-      for (Iterator<String> it = dataProcessingOptions.keys(); it.hasNext(); ) {
-        String key = it.next();
-        publishParams.put(key, dataProcessingOptions.get(key));
+      try {
+        JSONObject options = new JSONObject(dataProcessingOptions);
+        for (Iterator<String> it = options.keys(); it.hasNext(); ) {
+          String key = it.next();
+          params.put(key, options.get(key));
+        }
+      } catch (JSONException e) {
+        // Ignore malformed options, as Utility.getDataProcessingOptions does.
       }
     }
 
-    publishParams.put("application_package_name", context.getPackageName());
+    params.put("application_package_name", packageName);
 
-    return publishParams;
+    synchronized (deviceEnvelopeLock) {
+      deviceEnvelope = new DeviceEnvelope(packageName, dataProcessingOptions, now, params);
+    }
+    return params;
+  }
+
+  private static void registerConfigurationListenerIfNeeded(Context context) {
+    Context applicationContext = context.getApplicationContext();
+    if (applicationContext == null) {
+      return;
+    }
+    synchronized (deviceEnvelopeLock) {
+      if (isConfigurationListenerRegistered) {
+        return;
+      }
+      isConfigurationListenerRegistered = true;
+    }
+    // Locale, orientation and display changes all arrive as configuration changes.
+    applicationContext.registerComponentCallbacks(
+        new ComponentCallbacks() {
+          @Override
+          public void onConfigurationChanged(Configuration newConfig) {
+            invalidateDeviceEnvelope();
+          }
+
+          @Override
+          public void onLowMemory() {}
+        });
+  }
+
+  private static class DeviceEnvelope {
+    private final String packageName;
+    private final @Nullable String dataProcessingOptions;
+    private final long createdAt;
+    // Never modified after construction; callers copy its entries.
+    private final JSONObject params;
+
+    DeviceEnvelope(
+        String packageName,
+        @Nullable String dataProcessingOptions,
+        long createdAt,
+        JSONObject params) {
+      this.packageName = packageName;
+      this.dataProcessingOptions = dataProcessingOptions;
+      this.createdAt = createdAt;
+      this.params = params;
+    }
+
+    boolean isValid(String packageName, @Nullable String dataProcessingOptions, long now) {
+      return this.packageName.equals(packageName)
+          && Utility.areObjectsEqual(this.dataProcessingOptions, dataProcessingOptions)
+          && now - createdAt < DEVICE_ENVELOPE_MAX_AGE_MILLIS;
+    }
   }
 }
@@ -20,13 +20,17 @@
 
 package com.facebook.appevents.ml;
 
+import androidx.annotation.Nullable;
 import com.facebook.internal.qualityvalidation.Excuse;
 import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
+import java.nio.FloatBuffer;
 
 @ExcusesForDesignViolations(@Excuse(type = "MISSING_UNIT_TEST", reason = "Legacy"))
 public class MTensor {
 
-  private float[] data;
+  // Null until a tensor backed by a mapped model file is first read.
+  private volatile float[] data;
+  @Nullable private FloatBuffer source;
   private int[] shape;
   private int capacity;
 
@@ -36,23 +40,91 @@ public class MTensor {
     this.data = new float[this.capacity];
   }
 
+  /**
+   * Wraps an existing buffer, which may be larger than the tensor. Used by {@link TensorArena} so
+   * that the same buffer can back batches of different sizes.
+   */
+  MTensor(float[] data, int[] shape) {
+    this.shape = shape;
+    this.capacity = getCapacity(shape);
+    if (this.capacity > data.length) {
+      throw new IllegalArgumentException("Buffer is too small for shape");
+    }
+    this.data = data;
+  }
+
+  /**
+   * Creates a tensor backed by a view of a memory-mapped model file. The floats are only copied
+   * onto the heap the first time {@link #getData()} is called.
+   */
+  MTensor(FloatBuffer source, int[] shape) {
+    this.shape = shape;
+    this.capacity = getCapacity(shape);
+    if (this.capacity > source.remaining()) {
+      throw new IllegalArgumentException("Buffer is too small for shape");
+    }
+    this.source = source;
+  }
+
   public float[] getData() {
+    float[] data = this.data;
+    return data != null ? data : materialize();
+  }
+
+  private synchronized float[] materialize() {
+    if (this.data == null) {
+      float[] materialized = new float[this.capacity];
+      source.duplicate().get(materialized);
+      source = null;
+      this.data = materialized;
+    }
     return this.data;
   }
 
+  /**
+   * Returns a read-only view of the elements. Unlike {@link #getData()}, this does not copy a
+   * tensor backed by a mapped model file onto the heap.
+   */
+  synchronized FloatBuffer asReadOnlyBuffer() {
+    if (this.data == null) {
+      return source.asReadOnlyBuffer();
+    }
+    return FloatBuffer.wrap(this.data, 0, this.capacity).asReadOnlyBuffer();
+  }
+
   public int getShape(int i) {
     return this.shape[i];
   }
 
   public void reshape(int[] shape) {
-    this.shape = shape;
     int new_capacity = getCapacity(shape);
+    if (new_capacity == this.capacity) {
+      // Same number of elements (e.g. flatten): only the view changes, the data is shared.
+      this.shape = shape;
+      return;
+    }
+    this.shape = shape;
     float[] new_data = new float[new_capacity];
-    System.arraycopy(this.data, 0, new_data, 0, Math.min(this.capacity, new_capacity));
+    System.arraycopy(getData(), 0, new_data, 0, Math.min(this.capacity, new_capacity));
     this.data = new_data;
     this.capacity = new_capacity;
   }
 
+  /** Returns the number of elements in the tensor, which may be less than getData().length. */
+  int getCapacity() {
+    return this.capacity;
+  }
+
+  /** Changes the shape in place; the backing buffer must already be large enough. */
+  void setShape(int[] shape) {
+    int new_capacity = getCapacity(shape);
+    if (new_capacity > getData().length) {
+      throw new IllegalArgumentException("Buffer is too small for shape");
+    }
+    this.shape = shape;
+    this.capacity = new_capacity;
+  }
+
   public int getShapeSize() {
     return shape.length;
   }
@@ -24,18 +24,23 @@ import static com.facebook.appevents.ml.ModelManager.Task.*;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
+import com.facebook.internal.Utility;
 import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
 import com.facebook.internal.qualityvalidation.Excuse;
 import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.json.JSONArray;
@@ -52,19 +57,37 @@ public final class Model {
   private MTensor fc1_weight, fc2_weight;
   private MTensor fc1_bias, fc2_bias;
   private final Map<String, MTensor> final_weights = new HashMap<>();
+  private final Map<String, Integer> task_slots = new HashMap<>();
+  private final ThreadLocal<TensorArena> arenas;
 
   private static final int SEQ_LEN = 128;
 
+  // Arena slots for the intermediate tensors of predictOnMTML. Task heads follow SLOT_FC2.
+  private static final int SLOT_EMBED = 0;
+  private static final int SLOT_CONV0 = 1;
+  private static final int SLOT_CONV1 = 2;
+  private static final int SLOT_CONV1_POOL = 3;
+  private static final int SLOT_CONV2 = 4;
+  private static final int SLOT_CONV0_MAX = 5;
+  private static final int SLOT_CONV1_MAX = 6;
+  private static final int SLOT_CONV2_MAX = 7;
+  private static final int SLOT_CONCAT = 8;
+  private static final int SLOT_FC1 = 9;
+  private static final int SLOT_FC2 = 10;
+
   private Model(Map<String, MTensor> weights) {
     embedding = weights.get("embed.weight");
-    convs_0_weight = Operator.transpose3D(weights.get("convs.0.weight"));
-    convs_1_weight = Operator.transpose3D(weights.get("convs.1.weight"));
-    convs_2_weight = Operator.transpose3D(weights.get("convs.2.weight"));
+    // Weights are stored in the layouts expected by the packed kernels in Operator: conv weights
+    // as {output_size, kernel_size, input_size} and dense weights as {output_size, input_size},
+    // which is how dense weights are already serialized.
+    convs_0_weight = packConvWeight(weights.get("convs.0.weight"));
+    convs_1_weight = packConvWeight(weights.get("convs.1.weight"));
+    convs_2_weight = packConvWeight(weights.get("convs.2.weight"));
     convs_0_bias = weights.get("convs.0.bias");
     convs_1_bias = weights.get("convs.1.bias");
     convs_2_bias = weights.get("convs.2.bias");
-    fc1_weight = Operator.transpose2D(weights.get("fc1.weight"));
-    fc2_weight = Operator.transpose2D(weights.get("fc2.weight"));
+    fc1_weight = weights.get("fc1.weight");
+    fc2_weight = weights.get("fc2.weight");
     fc1_bias = weights.get("fc1.bias");
     fc2_bias = weights.get("fc2.bias");
 
@@ -81,54 +104,133 @@ public final class Model {
       MTensor weight = weights.get(weightKey);
       MTensor bias = weights.get(biasKey);
       if (weight != null) {
-        weight = Operator.transpose2D(weight);
         final_weights.put(weightKey, weight);
       }
       if (bias != null) {
         final_weights.put(biasKey, bias);
       }
     }
+
+    final int[][] plan = planTensorShapes();
+    arenas =
+        new ThreadLocal<TensorArena>() {
+          @Override
+          protected TensorArena initialValue() {
+            return new TensorArena(plan);
+          }
+        };
+  }
+
+  /**
+   * Serialized conv weights are {output_size, input_size, kernel_size}. This produces the same
+   * packed tensor as Operator.packConv1DWeight(Operator.transpose3D(weight)), but reads the
+   * serialized weights straight from the mapped file, so the packed copy is the only one on the
+   * heap.
+   */
+  private static MTensor packConvWeight(MTensor weight) {
+    int output_size = weight.getShape(0);
+    int input_size = weight.getShape(1);
+    int kernel_size = weight.getShape(2);
+    FloatBuffer source = weight.asReadOnlyBuffer();
+    MTensor packed = new MTensor(new int[] {output_size, kernel_size, input_size});
+    float[] p_data = packed.getData();
+
+    int index = 0;
+    for (int o = 0; o < output_size; o++) {
+      for (int i = 0; i < input_size; i++) {
+        for (int k = 0; k < kernel_size; k++) {
+          p_data[(o * kernel_size + k) * input_size + i] = source.get(index++);
+        }
+      }
+    }
+    return packed;
+  }
+
+  /** Computes the per-example shape of every intermediate tensor of predictOnMTML. */
+  private int[][] planTensorShapes() {
+    int conv0_len = SEQ_LEN - convs_0_weight.getShape(1) + 1;
+    int conv1_len = conv0_len - convs_1_weight.getShape(1) + 1;
+    int conv1_pool_len = conv1_len - 2 + 1;
+    int conv2_len = conv1_pool_len - convs_2_weight.getShape(1) + 1;
+    int conv0_size = convs_0_weight.getShape(0);
+    int conv1_size = convs_1_weight.getShape(0);
+    int conv2_size = convs_2_weight.getShape(0);
+
+    List<int[]> plan = new ArrayList<>();
+    plan.add(new int[] {SEQ_LEN, embedding.getShape(1)});
+    plan.add(new int[] {conv0_len, conv0_size});
+    plan.add(new int[] {conv1_len, conv1_size});
+    plan.add(new int[] {conv1_pool_len, conv1_size});
+    plan.add(new int[] {conv2_len, conv2_size});
+    plan.add(new int[] {1, conv0_size});
+    plan.add(new int[] {1, conv1_size});
+    plan.add(new int[] {1, conv2_size});
+    plan.add(new int[] {fc1_weight.getShape(1)});
+    plan.add(new int[] {fc1_weight.getShape(0)});
+    plan.add(new int[] {fc2_weight.getShape(0)});
+    for (Map.Entry<String, MTensor> entry : final_weights.entrySet()) {
+      String key = entry.getKey();
+      if (key.endsWith(".weight")) {
+        task_slots.put(key.substring(0, key.length() - ".weight".length()), plan.size());
+        plan.add(new int[] {entry.getValue().getShape(0)});
+      }
+    }
+    return plan.toArray(new int[plan.size()][]);
   }
 
+  /**
+   * Runs the MTML network on the given texts. Intermediate tensors come from a per-thread arena,
+   * so the returned tensor is only valid until the next prediction on the same thread.
+   */
   @Nullable
   public MTensor predictOnMTML(MTensor dense, String[] texts, String task) {
-    MTensor embed_x = Operator.embedding(texts, SEQ_LEN, embedding);
+    MTensor fc3_weight = final_weights.get(task + ".weight");
+    MTensor fc3_bias = final_weights.get(task + ".bias");
+    Integer task_slot = task_slots.get(task);
+    if (fc3_weight == null || fc3_bias == null || task_slot == null) {
+      return null;
+    }
+
+    int n_examples = texts.length;
+    TensorArena arena = arenas.get();
 
-    MTensor c0 = Operator.conv1D(embed_x, convs_0_weight);
-    Operator.addmv(c0, convs_0_bias);
-    Operator.relu(c0);
+    MTensor embed_x = arena.acquire(SLOT_EMBED, n_examples);
+    Operator.embedding(texts, SEQ_LEN, embedding, embed_x);
 
-    MTensor c1 = Operator.conv1D(c0, convs_1_weight);
-    Operator.addmv(c1, convs_1_bias);
-    Operator.relu(c1);
-    c1 = Operator.maxPool1D(c1, 2);
+    MTensor c0 = arena.acquire(SLOT_CONV0, n_examples);
+    Operator.conv1DBiasReluPacked(embed_x, convs_0_weight, convs_0_bias, c0);
 
-    MTensor c2 = Operator.conv1D(c1, convs_2_weight);
-    Operator.addmv(c2, convs_2_bias);
-    Operator.relu(c2);
+    MTensor c1 = arena.acquire(SLOT_CONV1, n_examples);
+    Operator.conv1DBiasReluPacked(c0, convs_1_weight, convs_1_bias, c1);
+    MTensor c1_pooled = arena.acquire(SLOT_CONV1_POOL, n_examples);
+    Operator.maxPool1D(c1, 2, c1_pooled);
 
-    c0 = Operator.maxPool1D(c0, c0.getShape(1));
-    c1 = Operator.maxPool1D(c1, c1.getShape(1));
-    c2 = Operator.maxPool1D(c2, c2.getShape(1));
+    MTensor c2 = arena.acquire(SLOT_CONV2, n_examples);
+    Operator.conv1DBiasReluPacked(c1_pooled, convs_2_weight, convs_2_bias, c2);
 
-    Operator.flatten(c0, 1);
-    Operator.flatten(c1, 1);
-    Operator.flatten(c2, 1);
+    MTensor c0_max = arena.acquire(SLOT_CONV0_MAX, n_examples);
+    MTensor c1_max = arena.acquire(SLOT_CONV1_MAX, n_examples);
+    MTensor c2_max = arena.acquire(SLOT_CONV2_MAX, n_examples);
+    Operator.maxPool1D(c0, c0.getShape(1), c0_max);
+    Operator.maxPool1D(c1_pooled, c1_pooled.getShape(1), c1_max);
+    Operator.maxPool1D(c2, c2.getShape(1), c2_max);
 
-    MTensor concat = Operator.concatenate(new MTensor[] {c0, c1, c2, dense});
+    Operator.flatten(c0_max, 1);
+    Operator.flatten(c1_max, 1);
+    Operator.flatten(c2_max, 1);
 
-    MTensor dense1_x = Operator.dense(concat, fc1_weight, fc1_bias);
+    MTensor concat = arena.acquire(SLOT_CONCAT, n_examples);
+    Operator.concatenate(new MTensor[] {c0_max, c1_max, c2_max, dense}, concat);
+
+    MTensor dense1_x = arena.acquire(SLOT_FC1, n_examples);
+    Operator.densePacked(concat, fc1_weight, fc1_bias, dense1_x);
     Operator.relu(dense1_x);
-    MTensor dense2_x = Operator.dense(dense1_x, fc2_weight, fc2_bias);
+    MTensor dense2_x = arena.acquire(SLOT_FC2, n_examples);
+    Operator.densePacked(dense1_x, fc2_weight, fc2_bias, dense2_x);
     Operator.relu(dense2_x);
 
-    MTensor fc3_weight = final_weights.get(task + ".weight");
-    MTensor fc3_bias = final_weights.get(task + ".bias");
-    if (fc3_weight == null || fc3_bias == null) {
-      return null;
-    }
-
-    MTensor res = Operator.dense(dense2_x, fc3_weight, fc3_bias);
+    MTensor res = arena.acquire(task_slot, n_examples);
+    Operator.densePacked(dense2_x, fc3_weight, fc3_bias, res);
     Operator.softmax(res);
 
     return res;
@@ -145,29 +247,33 @@ public final class Model {
     return null;
   }
 
+  /**
+   * Memory-maps the model file. The JSON header is decoded straight from the mapping and every
+   * tensor is a view into it, so the file is never copied onto the heap as a whole.
+   */
   @Nullable
   private static Map<String, MTensor> parse(File file) {
+    FileInputStream inputStream = null;
     try {
-      InputStream inputStream = new FileInputStream(file);
-      int length = inputStream.available();
-      DataInputStream dataIs = new DataInputStream(inputStream);
-      byte[] allData = new byte[length];
-      dataIs.readFully(allData);
-      dataIs.close();
-
-      if (length < 4) {
+      inputStream = new FileInputStream(file);
+      FileChannel channel = inputStream.getChannel();
+      long length = channel.size();
+      if (length < 4 || length > Integer.MAX_VALUE) {
         return null;
       }
 
-      ByteBuffer bb = ByteBuffer.wrap(allData, 0, 4);
-      bb.order(ByteOrder.LITTLE_ENDIAN);
-      int jsonLen = bb.getInt();
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      int jsonLen = mapped.getInt(0);
 
-      if (length < jsonLen + 4) {
+      if (jsonLen < 0 || length < jsonLen + 4L) {
         return null;
       }
 
-      String jsonStr = new String(allData, 4, jsonLen);
+      ByteBuffer jsonBytes = mapped.duplicate();
+      jsonBytes.position(4);
+      jsonBytes.limit(4 + jsonLen);
+      String jsonStr = Charset.forName("UTF-8").decode(jsonBytes).toString();
       JSONObject info = new JSONObject(jsonStr);
 
       JSONArray names = info.names();
@@ -191,14 +297,15 @@ public final class Model {
           count *= shape[i];
         }
 
-        if (offset + count * 4 > length) {
+        if (offset + (long) count * 4 > length) {
           return null;
         }
 
-        bb = ByteBuffer.wrap(allData, offset, count * 4);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        MTensor tensor = new MTensor(shape);
-        bb.asFloatBuffer().get(tensor.getData(), 0, count);
+        ByteBuffer tensorBytes = mapped.duplicate();
+        tensorBytes.position(offset);
+        tensorBytes.limit(offset + count * 4);
+        FloatBuffer view = tensorBytes.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        MTensor tensor = new MTensor(view, shape);
         String finalKey = key;
         if (mapping.containsKey(key)) {
           finalKey = mapping.get(key);
@@ -210,6 +317,9 @@ public final class Model {
       return weights;
     } catch (Exception e) {
       /* no op */
+    } finally {
+      // The mapping stays valid after the channel is closed.
+      Utility.closeQuietly(inputStream);
     }
     return null;
   }
@@ -293,6 +293,18 @@ public final class ModelManager {
     return handler.ruleFile;
   }
 
+  /**
+   * Returns the version of the model currently serving the task, or -1 if no model is loaded.
+   * Callers caching prediction results should key them by this version.
+   */
+  public static int getModelVersion(Task task) {
+    TaskHandler handler = mTaskHandlers.get(task.toUseCase());
+    if (handler == null || handler.model == null) {
+      return -1;
+    }
+    return handler.versionId;
+  }
+
   @Nullable
   public static String[] predict(Task task, float[][] denses, String[] texts) {
     TaskHandler handler = mTaskHandlers.get(task.toUseCase());
@@ -20,11 +20,17 @@
 
 package com.facebook.appevents.ml;
 
+import androidx.annotation.Nullable;
 import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
 
 @AutoHandleExceptions
 final class Operator {
 
+  // Tile sizes for the packed kernels: a block of output channels is reused across a block of
+  // sequence positions while its weights are still in cache.
+  private static final int OUTPUT_BLOCK = 16;
+  private static final int POSITION_BLOCK = 8;
+
   static void addmv(MTensor x, MTensor b) {
     int n_example = x.getShape(0);
     int seq_len = x.getShape(1);
@@ -42,10 +48,15 @@ final class Operator {
   }
 
   static MTensor mul(MTensor x, MTensor w) {
+    MTensor y = new MTensor(new int[] {x.getShape(0), w.getShape(1)});
+    mul(x, w, y);
+    return y;
+  }
+
+  static void mul(MTensor x, MTensor w, MTensor y) {
     int n_examples = x.getShape(0);
     int input_size = w.getShape(0);
     int output_size = w.getShape(1);
-    MTensor y = new MTensor(new int[] {n_examples, output_size});
     float[] x_data = x.getData();
     float[] w_data = w.getData();
     float[] y_data = y.getData();
@@ -58,12 +69,12 @@ final class Operator {
         }
       }
     }
-    return y;
   }
 
   static void relu(MTensor x) {
     float[] x_data = x.getData();
-    for (int i = 0; i < x_data.length; i++) {
+    int capacity = x.getCapacity();
+    for (int i = 0; i < capacity; i++) {
       if (x_data[i] < 0) {
         x_data[i] = 0;
       }
@@ -93,6 +104,13 @@ final class Operator {
       output_size += tensors[i].getShape(1);
     }
     MTensor y = new MTensor(new int[] {n_examples, output_size});
+    concatenate(tensors, y);
+    return y;
+  }
+
+  static void concatenate(MTensor[] tensors, MTensor y) {
+    int n_examples = tensors[0].getShape(0);
+    int output_size = y.getShape(1);
     float[] y_data = y.getData();
 
     for (int n = 0; n < n_examples; n++) {
@@ -104,7 +122,6 @@ final class Operator {
         desPos += input_size;
       }
     }
-    return y;
   }
 
   static void softmax(MTensor x) {
@@ -138,9 +155,15 @@ final class Operator {
   }
 
   static MTensor dense(MTensor x, MTensor w, MTensor b) {
+    MTensor y = new MTensor(new int[] {x.getShape(0), w.getShape(1)});
+    dense(x, w, b, y);
+    return y;
+  }
+
+  static void dense(MTensor x, MTensor w, MTensor b, MTensor y) {
     int n_examples = x.getShape(0);
     int output_size = b.getShape(0);
-    MTensor y = mul(x, w);
+    mul(x, w, y);
     float[] b_data = b.getData();
     float[] y_data = y.getData();
 
@@ -149,13 +172,17 @@ final class Operator {
         y_data[i * output_size + j] += b_data[j];
       }
     }
-    return y;
   }
 
   static MTensor embedding(String[] texts, int seq_len, MTensor w) {
+    MTensor y = new MTensor(new int[] {texts.length, seq_len, w.getShape(1)});
+    embedding(texts, seq_len, w, y);
+    return y;
+  }
+
+  static void embedding(String[] texts, int seq_len, MTensor w, MTensor y) {
     int n_examples = texts.length;
     int embedding_size = w.getShape(1);
-    MTensor y = new MTensor(new int[] {n_examples, seq_len, embedding_size});
     float[] y_data = y.getData();
     float[] w_data = w.getData();
 
@@ -170,7 +197,6 @@ final class Operator {
             embedding_size);
       }
     }
-    return y;
   }
 
   static MTensor transpose2D(MTensor x) {
@@ -207,13 +233,19 @@ final class Operator {
   }
 
   static MTensor conv1D(MTensor x, MTensor w) {
+    int output_seq_len = x.getShape(1) - w.getShape(0) + 1;
+    MTensor y = new MTensor(new int[] {x.getShape(0), output_seq_len, w.getShape(2)});
+    conv1D(x, w, y);
+    return y;
+  }
+
+  static void conv1D(MTensor x, MTensor w, MTensor y) {
     int n_examples = x.getShape(0);
     int input_seq_len = x.getShape(1);
     int input_size = x.getShape(2);
     int kernel_size = w.getShape(0);
     int output_seq_len = input_seq_len - kernel_size + 1;
     int output_size = w.getShape(2);
-    MTensor y = new MTensor(new int[] {n_examples, output_seq_len, output_size});
     float[] x_data = x.getData();
     float[] y_data = y.getData();
     float[] w_data = w.getData();
@@ -233,15 +265,20 @@ final class Operator {
         }
       }
     }
-    return y;
   }
 
   static MTensor maxPool1D(MTensor x, int pool_size) {
+    int output_seq_len = x.getShape(1) - pool_size + 1;
+    MTensor y = new MTensor(new int[] {x.getShape(0), output_seq_len, x.getShape(2)});
+    maxPool1D(x, pool_size, y);
+    return y;
+  }
+
+  static void maxPool1D(MTensor x, int pool_size, MTensor y) {
     int n_examples = x.getShape(0);
     int input_seq_len = x.getShape(1);
     int input_size = x.getShape(2);
     int output_seq_len = input_seq_len - pool_size + 1;
-    MTensor y = new MTensor(new int[] {n_examples, output_seq_len, input_size});
     float[] x_data = x.getData();
     float[] y_data = y.getData();
 
@@ -257,6 +294,115 @@ final class Operator {
         }
       }
     }
-    return y;
+  }
+
+  /**
+   * Repacks a conv1D weight from the {kernel_size, input_size, output_size} layout used by {@link
+   * #conv1D(MTensor, MTensor)} into {output_size, kernel_size, input_size}, so that the weights of
+   * one output channel are contiguous and line up with a contiguous input window.
+   */
+  static MTensor packConv1DWeight(MTensor w) {
+    int kernel_size = w.getShape(0);
+    int input_size = w.getShape(1);
+    int output_size = w.getShape(2);
+    MTensor packed = new MTensor(new int[] {output_size, kernel_size, input_size});
+    float[] w_data = w.getData();
+    float[] p_data = packed.getData();
+    int window = kernel_size * input_size;
+
+    for (int j = 0; j < window; j++) {
+      for (int o = 0; o < output_size; o++) {
+        p_data[o * window + j] = w_data[j * output_size + o];
+      }
+    }
+    return packed;
+  }
+
+  /** Cache-blocked conv1D over a weight packed by {@link #packConv1DWeight(MTensor)}. */
+  static void conv1DPacked(MTensor x, MTensor packed_w, MTensor y) {
+    conv1DPacked(x, packed_w, null, false, y);
+  }
+
+  /** Fused conv1D + bias + ReLU over a weight packed by {@link #packConv1DWeight(MTensor)}. */
+  static void conv1DBiasReluPacked(MTensor x, MTensor packed_w, MTensor b, MTensor y) {
+    conv1DPacked(x, packed_w, b, true, y);
+  }
+
+  private static void conv1DPacked(
+      MTensor x, MTensor packed_w, @Nullable MTensor b, boolean relu, MTensor y) {
+    int n_examples = x.getShape(0);
+    int input_seq_len = x.getShape(1);
+    int input_size = x.getShape(2);
+    int output_size = packed_w.getShape(0);
+    int kernel_size = packed_w.getShape(1);
+    int output_seq_len = input_seq_len - kernel_size + 1;
+    int window = kernel_size * input_size;
+    float[] x_data = x.getData();
+    float[] w_data = packed_w.getData();
+    float[] y_data = y.getData();
+    float[] b_data = b == null ? null : b.getData();
+
+    for (int n = 0; n < n_examples; n++) {
+      int x_base = n * input_seq_len * input_size;
+      int y_base = n * output_seq_len * output_size;
+      for (int o0 = 0; o0 < output_size; o0 += OUTPUT_BLOCK) {
+        int o1 = Math.min(o0 + OUTPUT_BLOCK, output_size);
+        for (int i0 = 0; i0 < output_seq_len; i0 += POSITION_BLOCK) {
+          int i1 = Math.min(i0 + POSITION_BLOCK, output_seq_len);
+          for (int o = o0; o < o1; o++) {
+            int w_base = o * window;
+            for (int i = i0; i < i1; i++) {
+              // The input window for position i is contiguous: rows i..i+kernel_size-1.
+              int x_start = x_base + i * input_size;
+              float sum = 0;
+              for (int j = 0; j < window; j++) {
+                sum += x_data[x_start + j] * w_data[w_base + j];
+              }
+              if (b_data != null) {
+                sum += b_data[o];
+              }
+              if (relu && sum < 0) {
+                sum = 0;
+              }
+              y_data[y_base + i * output_size + o] = sum;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Repacks a dense weight from the {input_size, output_size} layout used by {@link #dense(MTensor,
+   * MTensor, MTensor)} into {output_size, input_size}.
+   */
+  static MTensor packDenseWeight(MTensor w) {
+    return transpose2D(w);
+  }
+
+  /** Cache-blocked dense layer over a {output_size, input_size} weight. */
+  static void densePacked(MTensor x, MTensor packed_w, MTensor b, MTensor y) {
+    int n_examples = x.getShape(0);
+    int output_size = packed_w.getShape(0);
+    int input_size = packed_w.getShape(1);
+    float[] x_data = x.getData();
+    float[] w_data = packed_w.getData();
+    float[] b_data = b.getData();
+    float[] y_data = y.getData();
+
+    for (int o0 = 0; o0 < output_size; o0 += OUTPUT_BLOCK) {
+      int o1 = Math.min(o0 + OUTPUT_BLOCK, output_size);
+      for (int n = 0; n < n_examples; n++) {
+        int x_base = n * input_size;
+        for (int o = o0; o < o1; o++) {
+          int w_base = o * input_size;
+          float sum = 0;
+          for (int k = 0; k < input_size; k++) {
+            sum += x_data[x_base + k] * w_data[w_base + k];
+          }
+          y_data[n * output_size + o] = sum + b_data[o];
+        }
+      }
+    }
   }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents.ml;
+
+/**
+ * Per-thread set of reusable tensors for one {@link Model}.
+ *
+ * <p>The model plans the per-example shape of every intermediate tensor once when it is built. An
+ * arena lazily allocates one buffer per slot and only grows it when a larger batch arrives, so
+ * repeated inference reuses the same float arrays.
+ */
+final class TensorArena {
+  private final int[][] perExampleShapes;
+  private final int[] perExampleSizes;
+  private final MTensor[] tensors;
+  private final int[][] shapes;
+
+  TensorArena(int[][] perExampleShapes) {
+    this.perExampleShapes = perExampleShapes;
+    this.perExampleSizes = new int[perExampleShapes.length];
+    for (int slot = 0; slot < perExampleShapes.length; slot++) {
+      int size = 1;
+      for (int dim : perExampleShapes[slot]) {
+        size *= dim;
+      }
+      perExampleSizes[slot] = size;
+    }
+    this.tensors = new MTensor[perExampleShapes.length];
+    this.shapes = new int[perExampleShapes.length][];
+  }
+
+  /**
+   * Returns the tensor for the slot shaped as {n_examples, ...planned shape}. Its contents are
+   * whatever the previous inference left there and are expected to be overwritten.
+   */
+  MTensor acquire(int slot, int n_examples) {
+    MTensor tensor = tensors[slot];
+    int[] shape = shapes[slot];
+    if (tensor != null && shape[0] == n_examples) {
+      // Callers may have flattened the tensor; restore the planned view without copying.
+      tensor.setShape(shape);
+      return tensor;
+    }
+
+    shape = new int[perExampleShapes[slot].length + 1];
+    shape[0] = n_examples;
+    System.arraycopy(perExampleShapes[slot], 0, shape, 1, perExampleShapes[slot].length);
+    shapes[slot] = shape;
+    if (tensor == null || tensor.getData().length < n_examples * perExampleSizes[slot]) {
+      tensor = new MTensor(shape);
+      tensors[slot] = tensor;
+    } else {
+      tensor.setShape(shape);
+    }
+    return tensor;
+  }
+}
@@ -31,6 +31,7 @@ import com.facebook.GraphRequest;
 import com.facebook.appevents.InternalAppEventsLogger;
 import com.facebook.appevents.codeless.internal.ViewHierarchy;
 import com.facebook.appevents.ml.ModelManager;
+import com.facebook.internal.SdkExecutors;
 import com.facebook.internal.Utility;
 import com.facebook.internal.instrument.crashshield.AutoHandleExceptions;
 import com.facebook.internal.qualityvalidation.Excuse;
@@ -133,39 +134,53 @@ public final class ViewOnClickListener implements View.OnClickListener {
 
   private void predictAndProcess(
       final String pathID, final String buttonText, final JSONObject viewData) {
-    Utility.runOnNonUiThread(
-        new Runnable() {
-          @Override
-          public void run() {
-            try {
-              String appName =
-                  Utility.getAppName(FacebookSdk.getApplicationContext()).toLowerCase();
-              float[] dense = FeatureExtractor.getDenseFeatures(viewData, appName);
-              String textFeature =
-                  FeatureExtractor.getTextFeature(buttonText, activityName, appName);
-              if (dense == null) {
-                return;
+    // Feature extraction and inference run on the CPU pool. Recording the prediction and sending
+    // it touch disk and the network, so that part is handed to the IO pool.
+    SdkExecutors.getCpuExecutor()
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  String appName =
+                      Utility.getAppName(FacebookSdk.getApplicationContext()).toLowerCase();
+                  final float[] dense = FeatureExtractor.getDenseFeatures(viewData, appName);
+                  String textFeature =
+                      FeatureExtractor.getTextFeature(buttonText, activityName, appName);
+                  if (dense == null) {
+                    return;
+                  }
+                  @Nullable
+                  String[] predictedEvents =
+                      ModelManager.predict(
+                          ModelManager.Task.MTML_APP_EVENT_PREDICTION,
+                          new float[][] {dense},
+                          new String[] {textFeature});
+                  if (predictedEvents == null) {
+                    return;
+                  }
+
+                  final String predictedEvent = predictedEvents[0];
+                  SdkExecutors.getIoExecutor()
+                      .execute(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              try {
+                                PredictionHistoryManager.addPrediction(pathID, predictedEvent);
+                                if (!predictedEvent.equals(OTHER_EVENT)) {
+                                  processPredictedResult(predictedEvent, buttonText, dense);
+                                }
+                              } catch (Exception e) {
+                                /*no op*/
+                              }
+                            }
+                          });
+                } catch (Exception e) {
+                  /*no op*/
+                }
               }
-              @Nullable
-              String[] predictedEvents =
-                  ModelManager.predict(
-                      ModelManager.Task.MTML_APP_EVENT_PREDICTION,
-                      new float[][] {dense},
-                      new String[] {textFeature});
-              if (predictedEvents == null) {
-                return;
-              }
-
-              String predictedEvent = predictedEvents[0];
-              PredictionHistoryManager.addPrediction(pathID, predictedEvent);
-              if (!predictedEvent.equals(OTHER_EVENT)) {
-                processPredictedResult(predictedEvent, buttonText, dense);
-              }
-            } catch (Exception e) {
-              /*no op*/
-            }
-          }
-        });
+            });
   }
 
   private static void processPredictedResult(
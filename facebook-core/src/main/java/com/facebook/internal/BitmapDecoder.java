@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import androidx.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images no larger than they need to be for the size they will be displayed at.
+ *
+ * <p>When a target size is given, the start of the stream is marked so that a bounds-only pass can
+ * pick the largest power-of-two {@link BitmapFactory.Options#inSampleSize} that keeps the image at
+ * least as large as the target; the stream is then reset and decoded once at that sample size.
+ */
+final class BitmapDecoder {
+  // How far the bounds pass may read before the mark is lost. Image headers, including large EXIF
+  // blocks, fit comfortably; the buffer only grows as far as the decoder actually reads.
+  static final int BOUNDS_MARK_LIMIT = 5 * 1024 * 1024;
+
+  private BitmapDecoder() {}
+
+  /**
+   * Decodes the stream for display at the target size. Once this returns, options.inSampleSize
+   * holds the sample size that was used.
+   */
+  @Nullable
+  static Bitmap decode(
+      InputStream stream,
+      int targetWidth,
+      int targetHeight,
+      boolean allowRgb565,
+      BitmapFactory.Options options)
+      throws IOException {
+    if (allowRgb565) {
+      // Only honored for images without alpha; others still decode as ARGB_8888.
+      options.inPreferredConfig = Bitmap.Config.RGB_565;
+    }
+    if (targetWidth <= ImageRequest.UNSPECIFIED_DIMENSION
+        && targetHeight <= ImageRequest.UNSPECIFIED_DIMENSION) {
+      return BitmapFactory.decodeStream(stream, null, options);
+    }
+
+    InputStream markable =
+        stream.markSupported()
+            ? stream
+            : new BufferedInputStream(stream, Utility.DEFAULT_STREAM_BUFFER_SIZE);
+    markable.mark(BOUNDS_MARK_LIMIT);
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeStream(markable, null, options);
+    options.inJustDecodeBounds = false;
+    // Throws if the bounds pass read past the mark limit; the image is then treated as unreadable.
+    markable.reset();
+    options.inSampleSize =
+        calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+    return BitmapFactory.decodeStream(markable, null, options);
+  }
+
+  static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+    int sampleSize = 1;
+    if (width <= 0 || height <= 0) {
+      return sampleSize;
+    }
+    // An unspecified dimension never limits the sample size.
+    int minWidth = Math.max(targetWidth, 1);
+    int minHeight = Math.max(targetHeight, 1);
+    while (width / (sampleSize * 2) >= minWidth && height / (sampleSize * 2) >= minHeight) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of decoded bitmaps in front of the image disk cache. Sizes are accounted
+ * in bytes, and the cache shrinks in response to {@link ComponentCallbacks2#onTrimMemory(int)}.
+ *
+ * <p>Entries are keyed by image Uri and target size (see {@link
+ * ImageResponseCache#getVariantKey}) rather than by caller, so that every caller asking for the
+ * same image at the same size shares one decoded bitmap.
+ */
+class BitmapMemoryCache implements ComponentCallbacks2 {
+  private final LinkedHashMap<String, Entry> entries =
+      new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private final long maxBytes;
+  private long sizeBytes;
+  private long hitCount;
+  private long missCount;
+
+  BitmapMemoryCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the cached bitmap for the key, or null on a miss. Bitmaps decoded from a cached
+   * redirect are only returned to callers that allow cached redirects.
+   */
+  @Nullable
+  synchronized Entry get(String key, boolean allowCachedRedirects) {
+    Entry entry = entries.get(key);
+    if (entry == null || (entry.isCachedRedirect && !allowCachedRedirects)) {
+      missCount++;
+      return null;
+    }
+    hitCount++;
+    return entry;
+  }
+
+  synchronized void put(String key, Bitmap bitmap, boolean isCachedRedirect) {
+    long bytes = bitmap.getByteCount();
+    if (bytes > maxBytes) {
+      return;
+    }
+    Entry previous = entries.put(key, new Entry(bitmap, isCachedRedirect, bytes));
+    if (previous != null) {
+      sizeBytes -= previous.bytes;
+    }
+    sizeBytes += bytes;
+    trimToSize(maxBytes);
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  synchronized long getMissCount() {
+    return missCount;
+  }
+
+  synchronized double getHitRate() {
+    long lookups = hitCount + missCount;
+    return lookups == 0 ? 0 : (double) hitCount / lookups;
+  }
+
+  private void trimToSize(long targetBytes) {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (sizeBytes > targetBytes && iterator.hasNext()) {
+      sizeBytes -= iterator.next().getValue().bytes;
+      iterator.remove();
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    synchronized (this) {
+      if (level >= TRIM_MEMORY_MODERATE) {
+        clear();
+      } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+        trimToSize(sizeBytes / 4);
+      } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+        trimToSize(sizeBytes / 2);
+      }
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    clear();
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {}
+
+  static final class Entry {
+    final Bitmap bitmap;
+    final boolean isCachedRedirect;
+    final long bytes;
+
+    Entry(Bitmap bitmap, boolean isCachedRedirect, long bytes) {
+      this.bitmap = bitmap;
+      this.isCachedRedirect = isCachedRedirect;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -21,12 +21,23 @@
 package com.facebook.internal;
 
 import android.util.Log;
+import androidx.annotation.Nullable;
 import com.facebook.FacebookSdk;
 import com.facebook.LoggingBehavior;
 import java.io.*;
+import java.nio.charset.Charset;
 import java.security.InvalidParameterException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.PriorityQueue;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -55,6 +66,14 @@ import org.json.JSONTokener;
 // the corresponding file has been deleted.  Given this and that cache files never change other than
 // deleting in trim() or clear(),  we only have to ensure that there is at most one trim() or
 // clear() process deleting files at any given time.
+//
+// To keep trim() from listing and stat-ing the whole directory after every put, the cache keeps an
+// in-memory LRU index of cache files (name -> size, access time) guarded by lock.  Puts and gets
+// update the index, so trim() only touches the files it evicts, and gets never write to disk:
+// access times are flushed in batches by the next checkpoint.  The index is loaded on the first
+// trim() from a checkpoint file named INDEX_FILE_NAME, which is reconciled against a plain
+// directory listing; only files missing from the checkpoint are stat-ed.  If there is no usable
+// checkpoint the index is rebuilt from a full scan.
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
@@ -65,8 +84,28 @@ public final class FileLruCache {
   static final String TAG = FileLruCache.class.getSimpleName();
   private static final String HEADER_CACHEKEY_KEY = "key";
   private static final String HEADER_CACHE_CONTENT_TAG_KEY = "tag";
+  private static final String INDEX_FILE_NAME = "lruindex";
+  private static final int INDEX_MAGIC = 0x46424C49; // "FBLI"
+  private static final int INDEX_VERSION = 1;
+  private static final int INDEX_CHECKPOINT_MUTATIONS = 64;
+  private static final long INDEX_CHECKPOINT_INTERVAL_MILLIS = 60 * 1000;
 
   private static final AtomicLong bufferIndex = new AtomicLong();
+  private static final FilenameFilter filterCacheFiles =
+      new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+          return BufferFile.excludeBufferFiles().accept(dir, filename)
+              && !filename.equals(INDEX_FILE_NAME);
+        }
+      };
+  private static final FilenameFilter filterExcludeIndexFile =
+      new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String filename) {
+          return !filename.equals(INDEX_FILE_NAME);
+        }
+      };
 
   private final String tag;
   private final Limits limits;
@@ -76,6 +115,14 @@ public final class FileLruCache {
   private final Object lock;
   private AtomicLong lastClearCacheTime = new AtomicLong(0);
 
+  // Access-ordered, so iteration starts at the least recently used file. Guarded by lock.
+  private final LinkedHashMap<String, IndexEntry> index =
+      new LinkedHashMap<String, IndexEntry>(16, 0.75f, true);
+  private long indexByteCount;
+  private boolean isIndexLoaded;
+  private int indexMutationsSinceCheckpoint;
+  private long lastCheckpointTime;
+
   // The value of tag should be a final String that works as a directory name.
   public FileLruCache(String tag, Limits limits) {
     this.tag = tag;
@@ -107,7 +154,7 @@ public final class FileLruCache {
       }
     }
 
-    File[] files = this.directory.listFiles();
+    File[] files = this.directory.listFiles(filterExcludeIndexFile);
     long total = 0;
     if (files != null) {
       for (File file : files) {
@@ -136,29 +183,13 @@ public final class FileLruCache {
     boolean success = false;
 
     try {
-      JSONObject header = StreamHeader.readHeader(buffered);
-      if (header == null) {
+      if (!StreamHeader.readHeader(buffered, key, contentTag, input.getChannel().size())) {
         return null;
       }
 
-      String foundKey = header.optString(HEADER_CACHEKEY_KEY);
-      if ((foundKey == null) || !foundKey.equals(key)) {
-        return null;
-      }
-
-      String headerContentTag = header.optString(HEADER_CACHE_CONTENT_TAG_KEY, null);
-
-      if ((contentTag == null && headerContentTag != null)
-          || (contentTag != null && !contentTag.equals(headerContentTag))) {
-        return null;
-      }
-
-      long accessTime = new Date().getTime();
-      Logger.log(
-          LoggingBehavior.CACHE,
-          TAG,
-          "Setting lastModified to " + Long.valueOf(accessTime) + " for " + file.getName());
-      file.setLastModified(accessTime);
+      // Recency lives in the index and reaches disk with the next checkpoint; the file's mtime is
+      // only a fallback for rebuilding the index without one.
+      recordAccess(file, new Date().getTime());
 
       success = true;
       return buffered;
@@ -169,11 +200,28 @@ public final class FileLruCache {
     }
   }
 
+  // Whether an entry for the key is on disk, without opening it or reading its header. Entries
+  // whose files a clear has not deleted yet do not count.
+  boolean contains(String key) {
+    File file = new File(this.directory, Utility.md5hash(key));
+    return file.lastModified() >= lastClearCacheTime.get() && file.exists();
+  }
+
   public OutputStream openPutStream(final String key) throws IOException {
     return openPutStream(key, null);
   }
 
   public OutputStream openPutStream(final String key, String contentTag) throws IOException {
+    return openPutStream(key, contentTag, null);
+  }
+
+  /**
+   * Opens a stream that stores the entry when it is closed. If complete is given, the entry is only
+   * stored if complete is set by the time the stream is closed; otherwise it is discarded.
+   */
+  private OutputStream openPutStream(
+      final String key, String contentTag, @Nullable final AtomicBoolean complete)
+      throws IOException {
     final File buffer = BufferFile.newFile(this.directory);
     buffer.delete();
     if (!buffer.createNewFile()) {
@@ -188,16 +236,23 @@ public final class FileLruCache {
       throw new IOException(e.getMessage());
     }
 
+    // Prefix the stream with the actual key, since there could be collisions
+    final byte[] keyBytes = key.getBytes(StreamHeader.UTF_8);
+    final byte[] tagBytes =
+        Utility.isNullOrEmpty(contentTag) ? null : contentTag.getBytes(StreamHeader.UTF_8);
+
     final long bufferFileCreateTime = System.currentTimeMillis();
     StreamCloseCallback renameToTargetCallback =
         new StreamCloseCallback() {
           @Override
           public void onClose() {
-            // if the buffer file was created before the cache was cleared, then the buffer file
-            // should be deleted rather than renamed and saved.
-            if (bufferFileCreateTime < lastClearCacheTime.get()) {
+            // if the buffer file was created before the cache was cleared, or holds only part of
+            // the content, then the buffer file should be deleted rather than renamed and saved.
+            if (bufferFileCreateTime < lastClearCacheTime.get()
+                || (complete != null && !complete.get())) {
               buffer.delete();
             } else {
+              StreamHeader.writeContentLength(buffer, StreamHeader.getLength(keyBytes, tagBytes));
               renameToTargetAndTrim(key, buffer);
             }
           }
@@ -209,22 +264,10 @@ public final class FileLruCache {
     boolean success = false;
 
     try {
-      // Prefix the stream with the actual key, since there could be collisions
-      JSONObject header = new JSONObject();
-      header.put(HEADER_CACHEKEY_KEY, key);
-      if (!Utility.isNullOrEmpty(contentTag)) {
-        header.put(HEADER_CACHE_CONTENT_TAG_KEY, contentTag);
-      }
-
-      StreamHeader.writeHeader(buffered, header);
+      StreamHeader.writeHeader(buffered, key.hashCode(), keyBytes, tagBytes);
 
       success = true;
       return buffered;
-    } catch (JSONException e) {
-      // JSON is an implementation detail of the cache, so don't let JSON exceptions out.
-      Logger.log(
-          LoggingBehavior.CACHE, Log.WARN, TAG, "Error creating JSON header for cache file: " + e);
-      throw new IOException(e.getMessage());
     } finally {
       if (!success) {
         buffered.close();
@@ -236,6 +279,12 @@ public final class FileLruCache {
     // get the current directory listing of files to delete
     final File[] filesToDelete = directory.listFiles(BufferFile.excludeBufferFiles());
     lastClearCacheTime.set(System.currentTimeMillis());
+    synchronized (lock) {
+      index.clear();
+      indexByteCount = 0;
+      isIndexLoaded = true;
+      indexMutationsSinceCheckpoint++;
+    }
     if (filesToDelete != null) {
       FacebookSdk.getExecutor()
           .execute(
@@ -270,6 +319,8 @@ public final class FileLruCache {
     // operation seems worth this cost.
     if (!buffer.renameTo(target)) {
       buffer.delete();
+    } else {
+      recordPut(target);
     }
 
     postTrim();
@@ -278,9 +329,11 @@ public final class FileLruCache {
   // Opens an output stream for the key, and creates an input stream wrapper to copy
   // the contents of input into the new output stream.  The effect is to store a
   // copy of input, and associate that data with key.
+  // The entry is only stored if input is read to its end before the wrapper is closed.
   public InputStream interceptAndPut(String key, InputStream input) throws IOException {
-    OutputStream output = openPutStream(key);
-    return new CopyingInputStream(input, output);
+    AtomicBoolean reachedEnd = new AtomicBoolean();
+    OutputStream output = openPutStream(key, null, reachedEnd);
+    return new CopyingInputStream(input, output, reachedEnd);
   }
 
   public String toString() {
@@ -310,34 +363,27 @@ public final class FileLruCache {
     }
     try {
       Logger.log(LoggingBehavior.CACHE, TAG, "trim started");
-      PriorityQueue<ModifiedFile> heap = new PriorityQueue<ModifiedFile>();
-      long size = 0;
-      long count = 0;
-      File[] filesToTrim = this.directory.listFiles(BufferFile.excludeBufferFiles());
-      if (filesToTrim != null) {
-        for (File file : filesToTrim) {
-          ModifiedFile modified = new ModifiedFile(file);
-          heap.add(modified);
-          Logger.log(
-              LoggingBehavior.CACHE,
-              TAG,
-              "  trim considering time="
-                  + Long.valueOf(modified.getModified())
-                  + " name="
-                  + modified.getFile().getName());
+      loadIndexIfNeeded();
 
-          size += file.length();
-          count++;
+      List<File> filesToDelete = new ArrayList<File>();
+      synchronized (lock) {
+        Iterator<Map.Entry<String, IndexEntry>> iterator = index.entrySet().iterator();
+        while (((indexByteCount > limits.getByteCount()) || (index.size() > limits.getFileCount()))
+            && iterator.hasNext()) {
+          Map.Entry<String, IndexEntry> eldest = iterator.next();
+          iterator.remove();
+          indexByteCount -= eldest.getValue().size;
+          indexMutationsSinceCheckpoint++;
+          filesToDelete.add(new File(directory, eldest.getKey()));
         }
       }
 
-      while ((size > limits.getByteCount()) || (count > limits.getFileCount())) {
-        File file = heap.remove().getFile();
+      for (File file : filesToDelete) {
         Logger.log(LoggingBehavior.CACHE, TAG, "  trim removing " + file.getName());
-        size -= file.length();
-        count--;
         file.delete();
       }
+
+      checkpointIndexIfNeeded();
     } finally {
       synchronized (lock) {
         isTrimInProgress = false;
@@ -346,6 +392,184 @@ public final class FileLruCache {
     }
   }
 
+  private void recordPut(File file) {
+    long size = file.length();
+    synchronized (lock) {
+      IndexEntry previous = index.put(file.getName(), new IndexEntry(size, new Date().getTime()));
+      if (previous != null) {
+        indexByteCount -= previous.size;
+      }
+      indexByteCount += size;
+      indexMutationsSinceCheckpoint++;
+    }
+  }
+
+  private void recordAccess(File file, long accessTime) {
+    boolean isIndexed;
+    boolean isCheckpointDue = false;
+    synchronized (lock) {
+      IndexEntry entry = index.get(file.getName());
+      isIndexed = entry != null;
+      if (isIndexed) {
+        entry.accessTime = accessTime;
+        isCheckpointDue = ++indexMutationsSinceCheckpoint == INDEX_CHECKPOINT_MUTATIONS;
+      }
+    }
+
+    if (!isIndexed) {
+      // Not indexed yet, e.g. the index has not been loaded since startup.
+      long size = file.length();
+      synchronized (lock) {
+        if (!index.containsKey(file.getName())) {
+          index.put(file.getName(), new IndexEntry(size, accessTime));
+          indexByteCount += size;
+          isCheckpointDue = ++indexMutationsSinceCheckpoint == INDEX_CHECKPOINT_MUTATIONS;
+        }
+      }
+    }
+
+    if (isCheckpointDue) {
+      // A trim with nothing to evict only writes the checkpoint, flushing the batched accesses.
+      postTrim();
+    }
+  }
+
+  // Only called from trim(), so at most one thread loads the index at a time.
+  private void loadIndexIfNeeded() {
+    synchronized (lock) {
+      if (isIndexLoaded) {
+        return;
+      }
+    }
+
+    String[] names = directory.list(filterCacheFiles);
+    Map<String, IndexEntry> checkpoint = readIndexCheckpoint();
+    List<Map.Entry<String, IndexEntry>> loaded = new ArrayList<Map.Entry<String, IndexEntry>>();
+    if (names != null) {
+      for (String name : names) {
+        IndexEntry entry = checkpoint != null ? checkpoint.get(name) : null;
+        if (entry == null) {
+          File file = new File(directory, name);
+          entry = new IndexEntry(file.length(), file.lastModified());
+        }
+        loaded.add(new AbstractMap.SimpleEntry<String, IndexEntry>(name, entry));
+      }
+    }
+    Collections.sort(
+        loaded,
+        new Comparator<Map.Entry<String, IndexEntry>>() {
+          @Override
+          public int compare(Map.Entry<String, IndexEntry> a, Map.Entry<String, IndexEntry> b) {
+            return a.getValue().compareTo(b.getValue());
+          }
+        });
+    Logger.log(
+        LoggingBehavior.CACHE,
+        TAG,
+        "loaded index with "
+            + loaded.size()
+            + " files"
+            + (checkpoint != null ? " from checkpoint" : " from directory scan"));
+
+    synchronized (lock) {
+      // Entries recorded by puts and gets since startup are newer than anything on disk, so they
+      // stay at the most recently used end.
+      LinkedHashMap<String, IndexEntry> recorded = new LinkedHashMap<String, IndexEntry>(index);
+      index.clear();
+      indexByteCount = 0;
+      for (Map.Entry<String, IndexEntry> entry : loaded) {
+        if (!recorded.containsKey(entry.getKey())) {
+          index.put(entry.getKey(), entry.getValue());
+          indexByteCount += entry.getValue().size;
+        }
+      }
+      for (Map.Entry<String, IndexEntry> entry : recorded.entrySet()) {
+        index.put(entry.getKey(), entry.getValue());
+        indexByteCount += entry.getValue().size;
+      }
+      isIndexLoaded = true;
+      indexMutationsSinceCheckpoint = checkpoint != null ? 0 : 1;
+    }
+  }
+
+  private Map<String, IndexEntry> readIndexCheckpoint() {
+    File indexFile = new File(directory, INDEX_FILE_NAME);
+    if (!indexFile.exists()) {
+      return null;
+    }
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+      if (input.readInt() != INDEX_MAGIC || input.readInt() != INDEX_VERSION) {
+        return null;
+      }
+      int count = input.readInt();
+      if (count < 0) {
+        return null;
+      }
+      Map<String, IndexEntry> entries = new LinkedHashMap<String, IndexEntry>();
+      for (int i = 0; i < count; i++) {
+        String name = input.readUTF();
+        long size = input.readLong();
+        long accessTime = input.readLong();
+        entries.put(name, new IndexEntry(size, accessTime));
+      }
+      return entries;
+    } catch (IOException e) {
+      Logger.log(LoggingBehavior.CACHE, Log.WARN, TAG, "Error reading cache index: " + e);
+      return null;
+    } finally {
+      Utility.closeQuietly(input);
+    }
+  }
+
+  private void checkpointIndexIfNeeded() {
+    List<String> names;
+    List<IndexEntry> entries;
+    long now = System.currentTimeMillis();
+    synchronized (lock) {
+      if (indexMutationsSinceCheckpoint == 0
+          || (indexMutationsSinceCheckpoint < INDEX_CHECKPOINT_MUTATIONS
+              && now - lastCheckpointTime < INDEX_CHECKPOINT_INTERVAL_MILLIS)) {
+        return;
+      }
+      names = new ArrayList<String>(index.size());
+      entries = new ArrayList<IndexEntry>(index.size());
+      for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+        names.add(entry.getKey());
+        entries.add(new IndexEntry(entry.getValue().size, entry.getValue().accessTime));
+      }
+      indexMutationsSinceCheckpoint = 0;
+      lastCheckpointTime = now;
+    }
+
+    // Written to a buffer file first so that a crash never leaves a torn checkpoint behind.
+    File buffer = BufferFile.newFile(directory);
+    DataOutputStream output = null;
+    boolean written = false;
+    try {
+      output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(buffer)));
+      output.writeInt(INDEX_MAGIC);
+      output.writeInt(INDEX_VERSION);
+      output.writeInt(names.size());
+      for (int i = 0; i < names.size(); i++) {
+        output.writeUTF(names.get(i));
+        output.writeLong(entries.get(i).size);
+        output.writeLong(entries.get(i).accessTime);
+      }
+      output.flush();
+      written = true;
+    } catch (IOException e) {
+      Logger.log(LoggingBehavior.CACHE, Log.WARN, TAG, "Error writing cache index: " + e);
+    } finally {
+      Utility.closeQuietly(output);
+    }
+
+    if (!written || !buffer.renameTo(new File(directory, INDEX_FILE_NAME))) {
+      buffer.delete();
+    }
+  }
+
   private static class BufferFile {
     private static final String FILE_NAME_PREFIX = "buffer";
     private static final FilenameFilter filterExcludeBufferFiles =
@@ -386,38 +610,158 @@ public final class FileLruCache {
     }
   }
 
-  // Treats the first part of a stream as a header, reads/writes it as a JSON blob, and
-  // leaves the stream positioned exactly after the header.
+  // Treats the first part of a stream as a header, reads/writes it, and leaves the stream
+  // positioned exactly after the header.
+  //
+  // Version 1 is a compact binary header that can be matched against a key without any JSON
+  // parsing. All integers are big-endian:
+  //     byte: meaning
+  // ---------------------------------
+  //        0: version number (1)
+  //      1-4: magic number
+  //      5-8: String.hashCode() of the key
+  //     9-16: content length, or -1 if unknown
+  //    17-20: key size
+  //      ...: UTF-8 key
+  //      ...: tag size, or -1 if there is no tag
+  //      ...: UTF-8 tag
+  //      ...: stream data
   //
-  // The format is as follows:
+  // Version 0 is the legacy format, which is still read so that existing entries stay valid:
   //     byte: meaning
   // ---------------------------------
-  //        0: version number
+  //        0: version number (0)
   //      1-3: big-endian JSON header blob size
   // 4-size+4: UTF-8 JSON header blob
   //      ...: stream data
-  private static final class StreamHeader {
-    private static final int HEADER_VERSION = 0;
-
-    static void writeHeader(OutputStream stream, JSONObject header) throws IOException {
-      String headerString = header.toString();
-      byte[] headerBytes = headerString.getBytes();
+  static final class StreamHeader {
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    static final int HEADER_VERSION = 1;
+    static final int LEGACY_HEADER_VERSION = 0;
+    private static final int HEADER_MAGIC = 0x46424348; // "FBCH"
+    private static final int CONTENT_LENGTH_OFFSET = 9;
+
+    static int getLength(byte[] keyBytes, @Nullable byte[] tagBytes) {
+      return 1 + 4 + 4 + 8 + 4 + keyBytes.length + 4 + (tagBytes == null ? 0 : tagBytes.length);
+    }
 
-      // Write version number and big-endian header size
-      stream.write(HEADER_VERSION);
-      stream.write((headerBytes.length >> 16) & 0xff);
-      stream.write((headerBytes.length >> 8) & 0xff);
-      stream.write((headerBytes.length >> 0) & 0xff);
+    static void writeHeader(
+        OutputStream stream, int keyHash, byte[] keyBytes, @Nullable byte[] tagBytes)
+        throws IOException {
+      DataOutputStream output = new DataOutputStream(stream);
+      output.writeByte(HEADER_VERSION);
+      output.writeInt(HEADER_MAGIC);
+      output.writeInt(keyHash);
+      // The content length is not known until the put stream is closed.
+      output.writeLong(-1);
+      output.writeInt(keyBytes.length);
+      output.write(keyBytes);
+      if (tagBytes == null) {
+        output.writeInt(-1);
+      } else {
+        output.writeInt(tagBytes.length);
+        output.write(tagBytes);
+      }
+      output.flush();
+    }
 
-      stream.write(headerBytes);
+    // Fills in the content length of a finished buffer file. Failing to do so leaves it unknown,
+    // which readers accept.
+    static void writeContentLength(File file, int headerLength) {
+      RandomAccessFile randomAccessFile = null;
+      try {
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        long contentLength = randomAccessFile.length() - headerLength;
+        if (contentLength >= 0) {
+          randomAccessFile.seek(CONTENT_LENGTH_OFFSET);
+          randomAccessFile.writeLong(contentLength);
+        }
+      } catch (IOException e) {
+        Logger.log(
+            LoggingBehavior.CACHE, Log.WARN, TAG, "Error writing cache entry content length: " + e);
+      } finally {
+        Utility.closeQuietly(randomAccessFile);
+      }
     }
 
-    static JSONObject readHeader(InputStream stream) throws IOException {
+    // Returns true if the stream starts with a header for the given key and tag whose content is
+    // complete. streamLength is the total length of the stream, header included.
+    static boolean readHeader(
+        InputStream stream, String key, @Nullable String contentTag, long streamLength)
+        throws IOException {
       int version = stream.read();
-      if (version != HEADER_VERSION) {
-        return null;
+      if (version == LEGACY_HEADER_VERSION) {
+        return matchesLegacyHeader(readLegacyHeader(stream), key, contentTag);
+      } else if (version != HEADER_VERSION) {
+        return false;
+      }
+
+      try {
+        DataInputStream input = new DataInputStream(stream);
+        if (input.readInt() != HEADER_MAGIC || input.readInt() != key.hashCode()) {
+          return false;
+        }
+        long contentLength = input.readLong();
+
+        byte[] keyBytes = key.getBytes(UTF_8);
+        if (!readField(input, keyBytes)) {
+          return false;
+        }
+        byte[] tagBytes = Utility.isNullOrEmpty(contentTag) ? null : contentTag.getBytes(UTF_8);
+        if (contentTag != null && tagBytes == null) {
+          // Puts never store an empty tag, matching the legacy behavior.
+          return false;
+        }
+        if (!readField(input, tagBytes)) {
+          return false;
+        }
+
+        if (contentLength >= 0
+            && contentLength != streamLength - getLength(keyBytes, tagBytes)) {
+          Logger.log(LoggingBehavior.CACHE, TAG, "readHeader: cache entry content is truncated");
+          return false;
+        }
+        return true;
+      } catch (EOFException e) {
+        Logger.log(LoggingBehavior.CACHE, TAG, "readHeader: stream ended while reading header");
+        return false;
+      }
+    }
+
+    // Reads a size-prefixed field and compares it with expected, where null means absent.
+    private static boolean readField(DataInputStream input, @Nullable byte[] expected)
+        throws IOException {
+      int size = input.readInt();
+      if (expected == null) {
+        return size == -1;
+      }
+      if (size != expected.length) {
+        return false;
       }
+      byte[] bytes = new byte[size];
+      input.readFully(bytes);
+      return Arrays.equals(bytes, expected);
+    }
 
+    private static boolean matchesLegacyHeader(
+        @Nullable JSONObject header, String key, @Nullable String contentTag) {
+      if (header == null) {
+        return false;
+      }
+
+      String foundKey = header.optString(HEADER_CACHEKEY_KEY);
+      if ((foundKey == null) || !foundKey.equals(key)) {
+        return false;
+      }
+
+      String headerContentTag = header.optString(HEADER_CACHE_CONTENT_TAG_KEY, null);
+
+      return (contentTag == null && headerContentTag == null)
+          || (contentTag != null && contentTag.equals(headerContentTag));
+    }
+
+    // Expects the stream to be positioned after the version number.
+    static JSONObject readLegacyHeader(InputStream stream) throws IOException {
       int headerSize = 0;
       for (int i = 0; i < 3; i++) {
         int b = stream.read();
@@ -468,6 +812,20 @@ public final class FileLruCache {
 
       return header;
     }
+
+    // Writes a version 0 header. Only kept so that migration can be tested.
+    static void writeLegacyHeader(OutputStream stream, JSONObject header) throws IOException {
+      String headerString = header.toString();
+      byte[] headerBytes = headerString.getBytes();
+
+      // Write version number and big-endian header size
+      stream.write(LEGACY_HEADER_VERSION);
+      stream.write((headerBytes.length >> 16) & 0xff);
+      stream.write((headerBytes.length >> 8) & 0xff);
+      stream.write((headerBytes.length >> 0) & 0xff);
+
+      stream.write(headerBytes);
+    }
   }
 
   private static class CloseCallbackOutputStream extends OutputStream {
@@ -512,10 +870,13 @@ public final class FileLruCache {
   private static final class CopyingInputStream extends InputStream {
     final InputStream input;
     final OutputStream output;
+    final AtomicBoolean reachedEnd;
 
-    CopyingInputStream(final InputStream input, final OutputStream output) {
+    CopyingInputStream(
+        final InputStream input, final OutputStream output, final AtomicBoolean reachedEnd) {
       this.input = input;
       this.output = output;
+      this.reachedEnd = reachedEnd;
     }
 
     @Override
@@ -554,6 +915,8 @@ public final class FileLruCache {
       int count = input.read(buffer);
       if (count > 0) {
         output.write(buffer, 0, count);
+      } else if (count < 0) {
+        reachedEnd.set(true);
       }
       return count;
     }
@@ -563,6 +926,8 @@ public final class FileLruCache {
       int b = input.read();
       if (b >= 0) {
         output.write(b);
+      } else {
+        reachedEnd.set(true);
       }
       return b;
     }
@@ -572,6 +937,8 @@ public final class FileLruCache {
       int count = input.read(buffer, offset, length);
       if (count > 0) {
         output.write(buffer, offset, count);
+      } else if (count < 0) {
+        reachedEnd.set(true);
       }
       return count;
     }
@@ -635,52 +1002,25 @@ public final class FileLruCache {
     }
   }
 
-  // Caches the result of lastModified during sort/heap operations
-  private static final class ModifiedFile implements Comparable<ModifiedFile> {
-    private static final int HASH_SEED = 29; // Some random prime number
-    private static final int HASH_MULTIPLIER = 37; // Some random prime number
-
-    private final File file;
-    private final long modified;
-
-    ModifiedFile(File file) {
-      this.file = file;
-      this.modified = file.lastModified();
-    }
+  private static final class IndexEntry implements Comparable<IndexEntry> {
+    private final long size;
+    private long accessTime;
 
-    File getFile() {
-      return file;
-    }
-
-    long getModified() {
-      return modified;
+    IndexEntry(long size, long accessTime) {
+      this.size = size;
+      this.accessTime = accessTime;
     }
 
     @Override
-    public int compareTo(ModifiedFile another) {
-      if (getModified() < another.getModified()) {
+    public int compareTo(IndexEntry another) {
+      if (accessTime < another.accessTime) {
         return -1;
-      } else if (getModified() > another.getModified()) {
+      } else if (accessTime > another.accessTime) {
         return 1;
       } else {
-        return getFile().compareTo(another.getFile());
+        return 0;
       }
     }
-
-    @Override
-    public boolean equals(Object another) {
-      return (another instanceof ModifiedFile) && (compareTo((ModifiedFile) another) == 0);
-    }
-
-    @Override
-    public int hashCode() {
-      int result = HASH_SEED;
-
-      result = (result * HASH_MULTIPLIER) + file.hashCode();
-      result = (result * HASH_MULTIPLIER) + (int) (modified % Integer.MAX_VALUE);
-
-      return result;
-    }
   }
 
   private interface StreamCloseCallback {
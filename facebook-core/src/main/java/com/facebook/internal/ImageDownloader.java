@@ -27,14 +27,15 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
 import com.facebook.FacebookException;
-import com.facebook.internal.qualityvalidation.Excuse;
-import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -42,17 +43,25 @@ import java.util.Map;
  * Android. Use of any of the classes in this package is unsupported, and they may be modified or
  * removed without warning at any time.
  */
-@ExcusesForDesignViolations(@Excuse(type = "MISSING_UNIT_TEST", reason = "Legacy"))
 public class ImageDownloader {
   private static final int DOWNLOAD_QUEUE_MAX_CONCURRENT = WorkQueue.DEFAULT_MAX_CONCURRENT;
   private static final int CACHE_READ_QUEUE_MAX_CONCURRENT = 2;
   private static Handler handler;
   private static WorkQueue downloadQueue = new WorkQueue(DOWNLOAD_QUEUE_MAX_CONCURRENT);
   private static WorkQueue cacheReadQueue = new WorkQueue(CACHE_READ_QUEUE_MAX_CONCURRENT);
+  private static final BitmapMemoryCache memoryCache =
+      new BitmapMemoryCache(Runtime.getRuntime().maxMemory() / 32);
+  private static boolean isMemoryCacheRegistered;
 
   private static final Map<RequestKey, DownloaderContext> pendingRequests =
       new HashMap<RequestKey, DownloaderContext>();
 
+  // Network downloads in flight, keyed by image Uri and target size so that requests from
+  // different callers for the same image share one fetch and one decode. Guarded by
+  // pendingRequests.
+  private static final Map<String, CoalescedDownload> downloadsInFlight =
+      new HashMap<String, CoalescedDownload>();
+
   /**
    * Downloads the image specified in the passed in request. If a callback is specified, it is
    * guaranteed to be invoked on the calling thread.
@@ -70,6 +79,13 @@ public class ImageDownloader {
     // for these changed Urls since the caller might be doing some book-keeping with the
     // requests object reference. So we keep the old references and just map them to new urls in
     // the downloader.
+    BitmapMemoryCache.Entry cached =
+        memoryCache.get(getMemoryCacheKey(request), request.isCachedRedirectAllowed());
+    if (cached != null) {
+      issueMemoryCacheResponse(request, cached);
+      return;
+    }
+
     RequestKey key = new RequestKey(request.getImageUri(), request.getCallerTag());
     synchronized (pendingRequests) {
       DownloaderContext downloaderContext = pendingRequests.get(key);
@@ -95,8 +111,19 @@ public class ImageDownloader {
         // request.
         cancelled = true;
 
-        if (downloaderContext.workItem.cancel()) {
+        CoalescedDownload download = downloaderContext.download;
+        if (download != null && !download.leader.equals(key)) {
+          // Sharing another request's download, which keeps running for its other requests.
+          download.followers.remove(key);
           pendingRequests.remove(key);
+        } else if (download != null && !download.followers.isEmpty()) {
+          // Other requests are waiting on this download, so let it finish without a response.
+          downloaderContext.isCancelled = true;
+        } else if (downloaderContext.workItem.cancel()) {
+          pendingRequests.remove(key);
+          if (download != null) {
+            downloadsInFlight.remove(download.downloadKey);
+          }
         } else {
           // May be attempting a cache-read right now. So keep track of the cancellation
           // to prevent network calls etc
@@ -118,7 +145,18 @@ public class ImageDownloader {
     }
   }
 
+  /** Returns the number of requests served from decoded bitmaps held in memory. */
+  public static long getMemoryCacheHitCount() {
+    return memoryCache.getHitCount();
+  }
+
+  /** Returns the number of requests that had to go to the disk cache or the network. */
+  public static long getMemoryCacheMissCount() {
+    return memoryCache.getMissCount();
+  }
+
   public static void clearCache(Context context) {
+    memoryCache.clear();
     ImageResponseCache.clearCache(context);
     UrlRedirectCache.clearCache();
   }
@@ -133,8 +171,44 @@ public class ImageDownloader {
   }
 
   private static void enqueueDownload(ImageRequest request, RequestKey key) {
-    enqueueRequest(
-        request, key, downloadQueue, new DownloadImageWorkItem(request.getContext(), key));
+    String downloadKey =
+        ImageResponseCache.getVariantKey(
+            key.uri, request.getTargetWidth(), request.getTargetHeight());
+    synchronized (pendingRequests) {
+      CoalescedDownload download = downloadsInFlight.get(downloadKey);
+      if (download != null && !download.leader.equals(key)) {
+        DownloaderContext downloaderContext = new DownloaderContext();
+        downloaderContext.request = request;
+        // Prioritizing this request prioritizes the shared download.
+        downloaderContext.workItem = download.workItem;
+        downloaderContext.download = download;
+        pendingRequests.put(key, downloaderContext);
+        download.followers.add(key);
+        return;
+      }
+
+      enqueueRequest(
+          request,
+          key,
+          downloadQueue,
+          new DownloadImageWorkItem(request.getContext(), key, downloadKey));
+      DownloaderContext downloaderContext = pendingRequests.get(key);
+      download = new CoalescedDownload(downloadKey, key, downloaderContext.workItem);
+      downloaderContext.download = download;
+      downloadsInFlight.put(downloadKey, download);
+    }
+  }
+
+  // Stops new requests from joining the download and returns the requests that joined it.
+  private static List<RequestKey> finishDownload(String downloadKey, RequestKey key) {
+    synchronized (pendingRequests) {
+      CoalescedDownload download = downloadsInFlight.get(downloadKey);
+      if (download == null || !download.leader.equals(key)) {
+        return Collections.emptyList();
+      }
+      downloadsInFlight.remove(downloadKey);
+      return new ArrayList<RequestKey>(download.followers);
+    }
   }
 
   private static void enqueueRequest(
@@ -161,6 +235,10 @@ public class ImageDownloader {
     // Once the old downloader context is removed, we are thread-safe since this is the
     // only reference to it
     DownloaderContext completedRequestContext = removePendingRequest(key);
+    if (completedRequestContext != null && bitmap != null) {
+      // Cached under the Uri the caller asked for, not the one a redirect resolved to.
+      cacheInMemory(completedRequestContext.request, bitmap, isCachedRedirect);
+    }
     if (completedRequestContext != null && !completedRequestContext.isCancelled) {
       final ImageRequest request = completedRequestContext.request;
       final ImageRequest.Callback callback = request.getCallback();
@@ -179,26 +257,89 @@ public class ImageDownloader {
     }
   }
 
+  private static void issueMemoryCacheResponse(
+      final ImageRequest request, final BitmapMemoryCache.Entry cached) {
+    final ImageRequest.Callback callback = request.getCallback();
+    if (callback != null) {
+      getHandler()
+          .post(
+              new Runnable() {
+                @Override
+                public void run() {
+                  ImageResponse response =
+                      new ImageResponse(request, null, cached.isCachedRedirect, cached.bitmap);
+                  callback.onCompleted(response);
+                }
+              });
+    }
+  }
+
+  private static void cacheInMemory(ImageRequest request, Bitmap bitmap, boolean isCachedRedirect) {
+    synchronized (memoryCache) {
+      if (!isMemoryCacheRegistered) {
+        request.getContext().getApplicationContext().registerComponentCallbacks(memoryCache);
+        isMemoryCacheRegistered = true;
+      }
+    }
+    memoryCache.put(getMemoryCacheKey(request), bitmap, isCachedRedirect);
+  }
+
+  private static String getMemoryCacheKey(ImageRequest request) {
+    return ImageResponseCache.getVariantKey(
+        request.getImageUri(), request.getTargetWidth(), request.getTargetHeight());
+  }
+
   private static void readFromCache(RequestKey key, Context context, boolean allowCachedRedirects) {
+    ImageRequest request = getPendingRequest(key);
+    if (request == null) {
+      // Cancelled before the cache read started.
+      return;
+    }
+    int targetWidth = request.getTargetWidth();
+    int targetHeight = request.getTargetHeight();
+
+    Uri cachedUri = null;
     InputStream cachedStream = null;
+    boolean isVariant = false;
     boolean isCachedRedirect = false;
     if (allowCachedRedirects) {
       Uri redirectUri = UrlRedirectCache.getRedirectedUri(key.uri);
       if (redirectUri != null) {
-        cachedStream = ImageResponseCache.getCachedImageStream(redirectUri, context);
+        cachedUri = redirectUri;
+        cachedStream =
+            ImageResponseCache.getCachedImageVariantStream(
+                redirectUri, targetWidth, targetHeight, context);
+        isVariant = cachedStream != null;
+        if (!isVariant) {
+          cachedStream = ImageResponseCache.getCachedImageStream(redirectUri, context);
+        }
         isCachedRedirect = cachedStream != null;
       }
     }
 
     if (!isCachedRedirect) {
-      cachedStream = ImageResponseCache.getCachedImageStream(key.uri, context);
+      cachedUri = key.uri;
+      cachedStream =
+          ImageResponseCache.getCachedImageVariantStream(
+              key.uri, targetWidth, targetHeight, context);
+      isVariant = cachedStream != null;
+      if (!isVariant) {
+        cachedStream = ImageResponseCache.getCachedImageStream(key.uri, context);
+      }
     }
 
     if (cachedStream != null) {
       // We were able to find a cached image.
-      Bitmap bitmap = BitmapFactory.decodeStream(cachedStream);
-      Utility.closeQuietly(cachedStream);
-      issueResponse(key, null, bitmap, isCachedRedirect);
+      Bitmap bitmap = null;
+      Exception error = null;
+      try {
+        bitmap = decode(cachedStream, cachedUri, request, context, !isVariant);
+      } catch (IOException e) {
+        error = e;
+      } finally {
+        Utility.closeQuietly(cachedStream);
+      }
+      issueResponse(key, error, bitmap, isCachedRedirect);
     } else {
       // Once the old downloader context is removed, we are thread-safe since this is the
       // only reference to it
@@ -209,7 +350,31 @@ public class ImageDownloader {
     }
   }
 
-  private static void download(RequestKey key, Context context) {
+  // Decodes at the request's target size. When the full-resolution image had to be subsampled,
+  // the result is also stored as a variant so later requests for this size skip the full decode.
+  private static Bitmap decode(
+      InputStream stream,
+      Uri imageUri,
+      ImageRequest request,
+      Context context,
+      boolean storeVariant)
+      throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    Bitmap bitmap =
+        BitmapDecoder.decode(
+            stream,
+            request.getTargetWidth(),
+            request.getTargetHeight(),
+            request.isRgb565Allowed(),
+            options);
+    if (bitmap != null && storeVariant && options.inSampleSize > 1) {
+      ImageResponseCache.putCachedImageVariant(
+          imageUri, request.getTargetWidth(), request.getTargetHeight(), bitmap, context);
+    }
+    return bitmap;
+  }
+
+  private static void download(RequestKey key, String downloadKey, Context context) {
     HttpURLConnection connection = null;
     InputStream stream = null;
     Exception error = null;
@@ -239,13 +404,31 @@ public class ImageDownloader {
               enqueueCacheRead(
                   downloaderContext.request, new RequestKey(redirectUri, key.tag), false);
             }
+            // Requests that shared this download follow the same redirect, where they will
+            // share the download of the redirect target.
+            for (RequestKey follower : finishDownload(downloadKey, key)) {
+              DownloaderContext followerContext = removePendingRequest(follower);
+              if (followerContext != null && !followerContext.isCancelled) {
+                enqueueCacheRead(
+                    followerContext.request, new RequestKey(redirectUri, follower.tag), false);
+              }
+            }
           }
           break;
 
         case HttpURLConnection.HTTP_OK:
           // image should be available
           stream = ImageResponseCache.interceptAndCacheImageStream(context, connection);
-          bitmap = BitmapFactory.decodeStream(stream);
+          ImageRequest request = getPendingRequest(key);
+          if (request != null) {
+            bitmap = decode(stream, key.uri, request, context, true);
+          } else {
+            // Cancelled, but the image is still read through so that it gets cached.
+            bitmap = BitmapFactory.decodeStream(stream);
+          }
+          // The decoder may stop before the end of the body, and the cache only keeps entries
+          // that were read to the end.
+          skipToEnd(stream);
           break;
 
         default:
@@ -272,8 +455,19 @@ public class ImageDownloader {
       Utility.disconnectQuietly(connection);
     }
 
+    List<RequestKey> followers = finishDownload(downloadKey, key);
     if (issueResponse) {
       issueResponse(key, error, bitmap, false);
+      for (RequestKey follower : followers) {
+        issueResponse(follower, error, bitmap, false);
+      }
+    }
+  }
+
+  private static void skipToEnd(InputStream stream) throws IOException {
+    byte[] buffer = new byte[Utility.DEFAULT_STREAM_BUFFER_SIZE];
+    while (stream.read(buffer) != -1) {
+      // Discard whatever the decoder left unread.
     }
   }
 
@@ -284,6 +478,13 @@ public class ImageDownloader {
     return handler;
   }
 
+  private static ImageRequest getPendingRequest(RequestKey key) {
+    synchronized (pendingRequests) {
+      DownloaderContext downloaderContext = pendingRequests.get(key);
+      return downloaderContext != null ? downloaderContext.request : null;
+    }
+  }
+
   private static DownloaderContext removePendingRequest(RequestKey key) {
     synchronized (pendingRequests) {
       return pendingRequests.remove(key);
@@ -329,6 +530,20 @@ public class ImageDownloader {
     WorkQueue.WorkItem workItem;
     ImageRequest request;
     boolean isCancelled;
+    CoalescedDownload download;
+  }
+
+  private static class CoalescedDownload {
+    final String downloadKey;
+    final RequestKey leader;
+    final WorkQueue.WorkItem workItem;
+    final List<RequestKey> followers = new ArrayList<RequestKey>();
+
+    CoalescedDownload(String downloadKey, RequestKey leader, WorkQueue.WorkItem workItem) {
+      this.downloadKey = downloadKey;
+      this.leader = leader;
+      this.workItem = workItem;
+    }
   }
 
   private static class CacheReadWorkItem implements Runnable {
@@ -351,15 +566,17 @@ public class ImageDownloader {
   private static class DownloadImageWorkItem implements Runnable {
     private Context context;
     private RequestKey key;
+    private String downloadKey;
 
-    DownloadImageWorkItem(Context context, RequestKey key) {
+    DownloadImageWorkItem(Context context, RequestKey key, String downloadKey) {
       this.context = context;
       this.key = key;
+      this.downloadKey = downloadKey;
     }
 
     @Override
     public void run() {
-      download(key, context);
+      download(key, downloadKey, context);
     }
   }
 }
@@ -60,6 +60,9 @@ public class ImageRequest {
   private Callback callback;
   private boolean allowCachedRedirects;
   private Object callerTag;
+  private int targetWidth;
+  private int targetHeight;
+  private boolean allowRgb565;
 
   public static Uri getProfilePictureUri(String userId, int width, int height) {
     return getProfilePictureUri(userId, width, height, "");
@@ -112,6 +115,9 @@ public class ImageRequest {
     this.callback = builder.callback;
     this.allowCachedRedirects = builder.allowCachedRedirects;
     this.callerTag = builder.callerTag == null ? new Object() : builder.callerTag;
+    this.targetWidth = builder.targetWidth;
+    this.targetHeight = builder.targetHeight;
+    this.allowRgb565 = builder.allowRgb565;
   }
 
   public Context getContext() {
@@ -134,6 +140,27 @@ public class ImageRequest {
     return callerTag;
   }
 
+  /**
+   * The width, in pixels, the image will be displayed at, or {@link #UNSPECIFIED_DIMENSION} to
+   * decode it at full resolution.
+   */
+  public int getTargetWidth() {
+    return targetWidth;
+  }
+
+  /**
+   * The height, in pixels, the image will be displayed at, or {@link #UNSPECIFIED_DIMENSION} to
+   * decode it at full resolution.
+   */
+  public int getTargetHeight() {
+    return targetHeight;
+  }
+
+  /** Whether opaque images may be decoded as RGB_565, halving their memory footprint. */
+  public boolean isRgb565Allowed() {
+    return allowRgb565;
+  }
+
   public static class Builder {
     // Required
     private Context context;
@@ -143,6 +170,9 @@ public class ImageRequest {
     private Callback callback;
     private boolean allowCachedRedirects;
     private Object callerTag;
+    private int targetWidth = UNSPECIFIED_DIMENSION;
+    private int targetHeight = UNSPECIFIED_DIMENSION;
+    private boolean allowRgb565;
 
     public Builder(Context context, Uri imageUri) {
       Validate.notNull(imageUri, "imageUri");
@@ -165,6 +195,22 @@ public class ImageRequest {
       return this;
     }
 
+    /**
+     * Sets the size the image will be displayed at, so that it can be decoded at a reduced
+     * resolution that is still at least this large. Either dimension may be {@link
+     * #UNSPECIFIED_DIMENSION}.
+     */
+    public Builder setTargetSize(int targetWidth, int targetHeight) {
+      this.targetWidth = Math.max(targetWidth, UNSPECIFIED_DIMENSION);
+      this.targetHeight = Math.max(targetHeight, UNSPECIFIED_DIMENSION);
+      return this;
+    }
+
+    public Builder setAllowRgb565(boolean allowRgb565) {
+      this.allowRgb565 = allowRgb565;
+      return this;
+    }
+
     public ImageRequest build() {
       return new ImageRequest(this);
     }
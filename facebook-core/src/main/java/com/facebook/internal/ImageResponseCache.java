@@ -21,6 +21,7 @@
 package com.facebook.internal;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.util.Log;
 import com.facebook.LoggingBehavior;
@@ -29,6 +30,7 @@ import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 
 /**
@@ -39,6 +41,7 @@ import java.net.HttpURLConnection;
 @ExcusesForDesignViolations(@Excuse(type = "MISSING_UNIT_TEST", reason = "Legacy"))
 class ImageResponseCache {
   static final String TAG = ImageResponseCache.class.getSimpleName();
+  private static final int VARIANT_JPEG_QUALITY = 90;
 
   private static FileLruCache imageCache;
 
@@ -67,6 +70,54 @@ class ImageResponseCache {
     return imageStream;
   }
 
+  // Gets a downscaled variant of the image previously stored by putCachedImageVariant, or returns
+  // null if there is none. Does not throw if there was an error.
+  static InputStream getCachedImageVariantStream(
+      Uri uri, int targetWidth, int targetHeight, Context context) {
+    InputStream imageStream = null;
+    if (uri != null && isCDNURL(uri)) {
+      try {
+        FileLruCache cache = getCache(context);
+        imageStream = cache.get(getVariantKey(uri, targetWidth, targetHeight));
+      } catch (IOException e) {
+        Logger.log(LoggingBehavior.CACHE, Log.WARN, TAG, e.toString());
+      }
+    }
+    return imageStream;
+  }
+
+  // Stores a downscaled variant of the image so that later requests for the same target size can
+  // skip decoding the full-resolution image. Caching is best effort.
+  static void putCachedImageVariant(
+      Uri uri, int targetWidth, int targetHeight, Bitmap bitmap, Context context) {
+    if (uri == null || !isCDNURL(uri)) {
+      return;
+    }
+    OutputStream stream = null;
+    try {
+      FileLruCache cache = getCache(context);
+      stream = cache.openPutStream(getVariantKey(uri, targetWidth, targetHeight));
+      if (bitmap.hasAlpha()) {
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+      } else {
+        bitmap.compress(Bitmap.CompressFormat.JPEG, VARIANT_JPEG_QUALITY, stream);
+      }
+    } catch (IOException e) {
+      Logger.log(LoggingBehavior.CACHE, Log.WARN, TAG, e.toString());
+    } finally {
+      Utility.closeQuietly(stream);
+    }
+  }
+
+  // Keys variants by target size; the full-resolution image is keyed by the bare Uri.
+  static String getVariantKey(Uri uri, int targetWidth, int targetHeight) {
+    if (targetWidth <= ImageRequest.UNSPECIFIED_DIMENSION
+        && targetHeight <= ImageRequest.UNSPECIFIED_DIMENSION) {
+      return uri.toString();
+    }
+    return uri.toString() + "#" + targetWidth + "x" + targetHeight;
+  }
+
   static InputStream interceptAndCacheImageStream(Context context, HttpURLConnection connection)
       throws IOException {
     InputStream stream = null;
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.util.Log;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
+ * Android. Use of any of the classes in this package is unsupported, and they may be modified or
+ * removed without warning at any time.
+ *
+ * <p>Executors owned by the SDK: an IO pool for blocking work, a CPU pool for computation, and a
+ * single shared scheduler for delayed and periodic work. Components that need their tasks to run
+ * one at a time, in order, get a serial executor from {@link #newSerialExecutor(String)}; it runs
+ * on a small pool reserved for serial executors and schedules through the shared scheduler, so it
+ * holds no thread of its own and a burst of downloads on the IO pool cannot hold it up. Serial
+ * executors whose tasks block on the network get a thread of their own from {@link
+ * #newBlockingSerialExecutor(String)} instead, so they cannot hold up the shared pool either.
+ *
+ * <p>The IO and CPU pools have bounded queues. When one is saturated, new work is rejected with a
+ * {@link RejectedExecutionException} and counted by {@link #getRejectedCount()}, as the AsyncTask
+ * pool the SDK used before did. Running it on the caller instead would put network access on the
+ * UI thread, and moving it to another queue would only hide the saturation.
+ */
+public final class SdkExecutors {
+  private static final String TAG = SdkExecutors.class.getSimpleName();
+
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final int IO_CORE_POOL_SIZE = Math.max(2, Math.min(CPU_COUNT - 1, 4));
+  private static final int IO_MAX_POOL_SIZE = CPU_COUNT * 2 + 1;
+  private static final int IO_QUEUE_CAPACITY = 128;
+  private static final int CPU_POOL_SIZE = Math.max(1, Math.min(CPU_COUNT - 1, 4));
+  private static final int CPU_QUEUE_CAPACITY = 64;
+  private static final int SERIAL_POOL_SIZE = 2;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static final Object lock = new Object();
+  private static ThreadPoolExecutor ioExecutor;
+  private static ThreadPoolExecutor cpuExecutor;
+  private static ThreadPoolExecutor serialPool;
+  private static ScheduledThreadPoolExecutor scheduler;
+
+  private static final AtomicLong rejectedCount = new AtomicLong();
+
+  private SdkExecutors() {}
+
+  /** Returns the pool for blocking work such as network and disk access. */
+  public static Executor getIoExecutor() {
+    synchronized (lock) {
+      if (ioExecutor == null) {
+        ioExecutor = newPool("io", IO_CORE_POOL_SIZE, IO_MAX_POOL_SIZE, IO_QUEUE_CAPACITY);
+      }
+      return ioExecutor;
+    }
+  }
+
+  /** Returns the pool for computation that does not block, such as model inference. */
+  public static Executor getCpuExecutor() {
+    synchronized (lock) {
+      if (cpuExecutor == null) {
+        cpuExecutor = newPool("cpu", CPU_POOL_SIZE, CPU_POOL_SIZE, CPU_QUEUE_CAPACITY);
+      }
+      return cpuExecutor;
+    }
+  }
+
+  /**
+   * Returns the scheduler shared by the whole SDK. Tasks run on the scheduler thread itself, so
+   * they should only hand work off to another executor.
+   */
+  public static ScheduledExecutorService getScheduler() {
+    synchronized (lock) {
+      if (scheduler == null) {
+        scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("scheduler"));
+      }
+      return scheduler;
+    }
+  }
+
+  /**
+   * Returns an executor that runs its tasks one at a time, in submission order, on the pool
+   * reserved for serial executors. Delayed and periodic tasks are timed by the shared scheduler
+   * and then queued behind the tasks already submitted. The executor survives {@link #shutdown()}.
+   */
+  public static ScheduledExecutorService newSerialExecutor(String name) {
+    return new SerialExecutor(name, null);
+  }
+
+  /**
+   * Returns a serial executor like {@link #newSerialExecutor(String)} that runs on a thread of its
+   * own, for tasks that block on the network. The thread exits while the executor is idle.
+   */
+  public static ScheduledExecutorService newBlockingSerialExecutor(String name) {
+    return new SerialExecutor(name, newUnboundedPool(name, 1));
+  }
+
+  /** Returns how many tasks a saturated pool has rejected. */
+  public static long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Shuts down the pools and the shared scheduler. Work that is already queued still runs; the
+   * next call to one of the getters creates fresh executors.
+   */
+  public static void shutdown() {
+    synchronized (lock) {
+      if (ioExecutor != null) {
+        ioExecutor.shutdown();
+        ioExecutor = null;
+      }
+      if (cpuExecutor != null) {
+        cpuExecutor.shutdown();
+        cpuExecutor = null;
+      }
+      if (serialPool != null) {
+        serialPool.shutdown();
+        serialPool = null;
+      }
+      if (scheduler != null) {
+        scheduler.shutdown();
+        scheduler = null;
+      }
+    }
+  }
+
+  private static ThreadPoolExecutor newPool(
+      String name, int corePoolSize, int maxPoolSize, int queueCapacity) {
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            corePoolSize,
+            maxPoolSize,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(queueCapacity),
+            new NamedThreadFactory(name),
+            new RejectAndCount(name));
+    // An idle SDK should not keep any pool threads alive.
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Serial executors occupy at most one thread each, and only while they run a task, so a couple of
+   * threads with an unbounded queue is enough headroom for them.
+   */
+  private static Executor getSerialPool() {
+    synchronized (lock) {
+      if (serialPool == null) {
+        serialPool = newUnboundedPool("serial", SERIAL_POOL_SIZE);
+      }
+      return serialPool;
+    }
+  }
+
+  private static ThreadPoolExecutor newUnboundedPool(String name, int poolSize) {
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory(name));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    NamedThreadFactory(String name) {
+      this.prefix = "FacebookSdk-" + name + "-";
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  private static class RejectAndCount implements RejectedExecutionHandler {
+    private final String name;
+
+    RejectAndCount(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        throw new RejectedExecutionException("The " + name + " pool has been shut down");
+      }
+      if (rejectedCount.incrementAndGet() == 1) {
+        Log.w(TAG, "The " + name + " pool is saturated, rejecting work");
+      }
+      throw new RejectedExecutionException("The " + name + " pool is saturated");
+    }
+  }
+
+  private static class SerialExecutor extends AbstractExecutorService
+      implements ScheduledExecutorService {
+    private final String name;
+    // The executor's own thread, or null to run on the shared serial pool.
+    private final ThreadPoolExecutor ownThread;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private boolean isDraining;
+    private boolean isShutdown;
+
+    private final Runnable drainRunnable =
+        new Runnable() {
+          @Override
+          public void run() {
+            drain();
+          }
+        };
+
+    SerialExecutor(String name, ThreadPoolExecutor ownThread) {
+      this.name = name;
+      this.ownThread = ownThread;
+    }
+
+    private Executor getRunner() {
+      return ownThread != null ? ownThread : getSerialPool();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      synchronized (tasks) {
+        if (isShutdown) {
+          throw new RejectedExecutionException(name + " has been shut down");
+        }
+        tasks.add(command);
+        if (isDraining) {
+          return;
+        }
+        isDraining = true;
+      }
+      try {
+        getRunner().execute(drainRunnable);
+      } catch (RejectedExecutionException e) {
+        synchronized (tasks) {
+          tasks.remove(command);
+          isDraining = !tasks.isEmpty();
+          if (!isDraining) {
+            tasks.notifyAll();
+          }
+        }
+        throw e;
+      }
+    }
+
+    // Runs one task and then queues the drain again behind the other serial executors' work, so a
+    // long queue here cannot keep a shared thread to itself.
+    private void drain() {
+      while (runNext()) {
+        try {
+          getRunner().execute(drainRunnable);
+          return;
+        } catch (RejectedExecutionException e) {
+          // The pool was shut down between tasks; finish the queue on this thread.
+        }
+      }
+    }
+
+    // Returns whether tasks remain after the one it ran.
+    private boolean runNext() {
+      Runnable task;
+      synchronized (tasks) {
+        task = tasks.poll();
+        if (task == null) {
+          finishDraining();
+          return false;
+        }
+      }
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Task on " + name + " failed: ", e);
+      }
+      synchronized (tasks) {
+        if (tasks.isEmpty()) {
+          finishDraining();
+          return false;
+        }
+        return true;
+      }
+    }
+
+    // Called with the tasks lock held.
+    private void finishDraining() {
+      isDraining = false;
+      tasks.notifyAll();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      return schedule(Executors.callable(command), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      final FutureTask<V> task = new FutureTask<>(callable);
+      Runnable handOff =
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                execute(task);
+              } catch (RejectedExecutionException e) {
+                task.cancel(false);
+              }
+            }
+          };
+      ScheduledFuture<?> trigger = getScheduler().schedule(handOff, delay, unit);
+      return new SerialScheduledFuture<>(task, trigger);
+    }
+
+    /**
+     * The period is measured between hand-offs to this executor, so a run that is still queued
+     * behind other tasks does not push back the next one.
+     */
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(
+        Runnable command, long initialDelay, long period, TimeUnit unit) {
+      return getScheduler().scheduleAtFixedRate(handOff(command), initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+        Runnable command, long initialDelay, long delay, TimeUnit unit) {
+      return getScheduler().scheduleWithFixedDelay(handOff(command), initialDelay, delay, unit);
+    }
+
+    // Once this executor is shut down, execute() throws and the scheduler stops repeating.
+    private Runnable handOff(final Runnable command) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          execute(command);
+        }
+      };
+    }
+
+    @Override
+    public void shutdown() {
+      synchronized (tasks) {
+        isShutdown = true;
+      }
+      if (ownThread != null) {
+        ownThread.shutdown();
+      }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      synchronized (tasks) {
+        isShutdown = true;
+        List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        if (ownThread != null) {
+          ownThread.shutdown();
+        }
+        return pending;
+      }
+    }
+
+    @Override
+    public boolean isShutdown() {
+      synchronized (tasks) {
+        return isShutdown;
+      }
+    }
+
+    @Override
+    public boolean isTerminated() {
+      synchronized (tasks) {
+        return isShutdown && !isDraining;
+      }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (tasks) {
+        while (!(isShutdown && !isDraining)) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(tasks, remaining);
+        }
+        return true;
+      }
+    }
+  }
+
+  private static class SerialScheduledFuture<V> implements ScheduledFuture<V> {
+    private final FutureTask<V> task;
+    private final ScheduledFuture<?> trigger;
+
+    SerialScheduledFuture(FutureTask<V> task, ScheduledFuture<?> trigger) {
+      this.task = task;
+      this.trigger = trigger;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return trigger.getDelay(unit);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+      long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+      return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      trigger.cancel(false);
+      // Cancelling the task also covers the case where it was already handed off and is queued.
+      return task.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return task.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return task.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+      return task.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      return task.get(timeout, unit);
+    }
+  }
+}
@@ -23,25 +23,40 @@ package com.facebook.internal;
 import android.net.Uri;
 import android.util.Log;
 import com.facebook.LoggingBehavior;
-import com.facebook.internal.qualityvalidation.Excuse;
-import com.facebook.internal.qualityvalidation.ExcusesForDesignViolations;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
  * Android. Use of any of the classes in this package is unsupported, and they may be modified or
  * removed without warning at any time.
  */
-@ExcusesForDesignViolations(@Excuse(type = "MISSING_UNIT_TEST", reason = "Legacy"))
 class UrlRedirectCache {
   static final String TAG = UrlRedirectCache.class.getSimpleName();
   private static final String REDIRECT_CONTENT_TAG = TAG + "_Redirect";
+  private static final int MAX_REDIRECTS = 16;
+  private static final int MAX_MEMORY_ENTRIES = 256;
 
   private static FileLruCache urlRedirectCache;
 
+  // Resolved redirect chains (first url, ..., final url), in front of the disk cache. A chain is
+  // only used while each of its redirects is still on disk, so trims and clears of the disk cache
+  // also retire it. Guarded by itself.
+  private static final Map<String, String[]> memoryCache =
+      new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+          return size() > MAX_MEMORY_ENTRIES;
+        }
+      };
+
   static synchronized FileLruCache getCache() throws IOException {
     if (urlRedirectCache == null) {
       urlRedirectCache = new FileLruCache(TAG, new FileLruCache.Limits());
@@ -54,14 +69,30 @@ class UrlRedirectCache {
       return null;
     }
 
-    String uriString = uri.toString();
+    String originalUriString = uri.toString();
+    String[] memoizedChain;
+    synchronized (memoryCache) {
+      memoizedChain = memoryCache.get(originalUriString);
+    }
+    if (memoizedChain != null) {
+      if (isOnDisk(memoizedChain)) {
+        return Uri.parse(memoizedChain[memoizedChain.length - 1]);
+      }
+      synchronized (memoryCache) {
+        memoryCache.remove(originalUriString);
+      }
+    }
+
+    String uriString = originalUriString;
     InputStreamReader reader = null;
     try {
       InputStream stream;
       FileLruCache cache = getCache();
-      boolean redirectExists = false;
-      while ((stream = cache.get(uriString, REDIRECT_CONTENT_TAG)) != null) {
-        redirectExists = true;
+      List<String> chain = new ArrayList<String>();
+      int redirectCount = 0;
+      while (redirectCount++ < MAX_REDIRECTS
+          && (stream = cache.get(uriString, REDIRECT_CONTENT_TAG)) != null) {
+        chain.add(uriString);
 
         // Get the redirected url
         reader = new InputStreamReader(stream);
@@ -77,7 +108,11 @@ class UrlRedirectCache {
         uriString = urlBuilder.toString();
       }
 
-      if (redirectExists) {
+      if (!chain.isEmpty()) {
+        chain.add(uriString);
+        synchronized (memoryCache) {
+          memoryCache.put(originalUriString, chain.toArray(new String[chain.size()]));
+        }
         return Uri.parse(uriString);
       }
     } catch (IOException ioe) {
@@ -93,6 +128,19 @@ class UrlRedirectCache {
       return;
     }
 
+    String fromUriString = fromUri.toString();
+    synchronized (memoryCache) {
+      // Earlier redirects into fromUri now resolve further; drop them rather than chase them.
+      Iterator<String[]> chains = memoryCache.values().iterator();
+      while (chains.hasNext()) {
+        String[] chain = chains.next();
+        if (chain[chain.length - 1].equals(fromUriString)) {
+          chains.remove();
+        }
+      }
+      memoryCache.put(fromUriString, new String[] {fromUriString, toUri.toString()});
+    }
+
     OutputStream redirectStream = null;
     try {
       FileLruCache cache = getCache();
@@ -105,7 +153,25 @@ class UrlRedirectCache {
     }
   }
 
+  // Every url but the last in the chain must still have its redirect on disk.
+  private static boolean isOnDisk(String[] chain) {
+    try {
+      FileLruCache cache = getCache();
+      for (int i = 0; i < chain.length - 1; i++) {
+        if (!cache.contains(chain[i])) {
+          return false;
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
   static void clearCache() {
+    synchronized (memoryCache) {
+      memoryCache.clear();
+    }
     try {
       getCache().clearCache();
     } catch (IOException e) {
@@ -21,7 +21,14 @@
 package com.facebook.internal;
 
 import com.facebook.FacebookSdk;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
@@ -30,15 +37,36 @@ import java.util.concurrent.Executor;
  */
 public class WorkQueue {
   public static final int DEFAULT_MAX_CONCURRENT = 8;
-
-  private final Object workLock = new Object();
-  private WorkNode pendingJobs;
+  public static final int PRIORITY_LOW = -10;
+  public static final int PRIORITY_NORMAL = 0;
+  public static final int PRIORITY_HIGH = 10;
+
+  private static final int MIN_STALE_ENTRIES_TO_SWEEP = 16;
+
+  // Work items are ordered by priority, then by sequence number. Items added to the front take
+  // decreasing negative sequence numbers so that the most recent one runs first; items added to
+  // the back take increasing positive ones.
+  //
+  // Each item carries a state that is changed with a CAS. Reprioritizing inserts a new entry that
+  // supersedes the item's previous one, and cancelling only changes the state, so neither pays for
+  // a scan of pendingJobs. The stale entries they leave behind are dropped when polled, or swept
+  // out in one pass once they outnumber the pending items.
+  private final PriorityBlockingQueue<WorkEntry> pendingJobs = new PriorityBlockingQueue<>();
+  // Held shared by every change to pendingJobs and the counters, which still run concurrently with
+  // each other; validate() holds it exclusively to see them in a consistent state.
+  private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+  private final AtomicLong frontSequence = new AtomicLong();
+  private final AtomicLong backSequence = new AtomicLong();
 
   private final int maxConcurrent;
   private final Executor executor;
 
-  private WorkNode runningJobs = null;
-  private int runningCount = 0;
+  private final AtomicInteger runningCount = new AtomicInteger();
+  private final AtomicInteger pendingCount = new AtomicInteger();
+  private final AtomicInteger staleCount = new AtomicInteger();
+  private final AtomicLong startedCount = new AtomicLong();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong maxWaitNanos = new AtomicLong();
 
   public WorkQueue() {
     this(DEFAULT_MAX_CONCURRENT);
@@ -58,63 +86,151 @@ public class WorkQueue {
   }
 
   public WorkItem addActiveWorkItem(Runnable callback, boolean addToFront) {
-    WorkNode node = new WorkNode(callback);
-    synchronized (workLock) {
-      pendingJobs = node.addToList(pendingJobs, addToFront);
+    return addActiveWorkItem(callback, PRIORITY_NORMAL, addToFront);
+  }
+
+  /**
+   * Adds a work item that runs before any pending item of lower priority.
+   *
+   * @param callback the work to run
+   * @param priority higher values run first, see {@link #PRIORITY_NORMAL}
+   * @param addToFront whether to run before, rather than after, pending items of equal priority
+   * @return a handle that can cancel or reprioritize the work while it is pending
+   */
+  public WorkItem addActiveWorkItem(Runnable callback, int priority, boolean addToFront) {
+    WorkNode node = new WorkNode(callback, priority);
+    stateLock.readLock().lock();
+    try {
+      pendingCount.incrementAndGet();
+      node.enqueue(addToFront);
+    } finally {
+      stateLock.readLock().unlock();
     }
 
-    startItem();
+    startItems();
     return node;
   }
 
   public void validate() {
-    synchronized (workLock) {
-      // Verify that all running items know they are running, and counts match
-      int count = 0;
-
-      if (runningJobs != null) {
-        WorkNode walk = runningJobs;
-        do {
-          walk.verify(true);
-          count++;
-          walk = walk.getNext();
-        } while (walk != runningJobs);
+    stateLock.writeLock().lock();
+    try {
+      int running = runningCount.get();
+      assert running >= 0 && running <= maxConcurrent;
+
+      // Every pending item has exactly one current entry queued, and every other entry is counted
+      // as stale.
+      int current = 0;
+      int stale = 0;
+      for (WorkEntry entry : pendingJobs) {
+        if (entry.node.isCurrent(entry)) {
+          current++;
+        } else {
+          stale++;
+        }
       }
-
-      assert runningCount == count;
+      assert current == pendingCount.get();
+      assert stale == staleCount.get();
+    } finally {
+      stateLock.writeLock().unlock();
     }
   }
 
-  private void startItem() {
-    finishItemAndStartNew(null);
+  /** Returns the number of work items waiting to run. */
+  public int getPendingCount() {
+    return pendingCount.get();
+  }
+
+  /** Returns the number of work items currently running. */
+  public int getRunningCount() {
+    return runningCount.get();
   }
 
-  private void finishItemAndStartNew(WorkNode finished) {
-    WorkNode ready = null;
+  /** Returns the number of work items that have started running. */
+  public long getStartedCount() {
+    return startedCount.get();
+  }
 
-    synchronized (workLock) {
-      if (finished != null) {
-        runningJobs = finished.removeFromList(runningJobs);
-        runningCount--;
+  /** Returns the total time started work items spent waiting to run, in milliseconds. */
+  public long getTotalWaitTimeMillis() {
+    return totalWaitNanos.get() / 1000000;
+  }
+
+  /** Returns the longest time a started work item spent waiting to run, in milliseconds. */
+  public long getMaxWaitTimeMillis() {
+    return maxWaitNanos.get() / 1000000;
+  }
+
+  // Starts pending items until the queue is empty or the concurrency budget is used up.
+  private void startItems() {
+    while (true) {
+      int running = runningCount.get();
+      if (running >= maxConcurrent) {
+        return;
+      }
+      if (!runningCount.compareAndSet(running, running + 1)) {
+        continue;
       }
 
-      if (runningCount < maxConcurrent) {
-        ready = pendingJobs; // Head of the pendingJobs queue
-        if (ready != null) {
-          // The Queue reassignments are necessary since 'ready' might have been
-          // added / removed from the front of either queue, which changes its
-          // respective head.
-          pendingJobs = ready.removeFromList(pendingJobs);
-          runningJobs = ready.addToList(runningJobs, false);
-          runningCount++;
-
-          ready.setIsRunning(true);
+      WorkNode ready = pollReady();
+      if (ready == null) {
+        runningCount.decrementAndGet();
+        // An item added after the poll may have seen the slot reserved above and not started.
+        if (pendingJobs.isEmpty()) {
+          return;
         }
+        continue;
       }
+      execute(ready);
     }
+  }
 
-    if (ready != null) {
-      execute(ready);
+  private WorkNode pollReady() {
+    stateLock.readLock().lock();
+    try {
+      WorkEntry entry;
+      while ((entry = pendingJobs.poll()) != null) {
+        WorkNode node = entry.node;
+        if (node.start(entry)) {
+          pendingCount.decrementAndGet();
+          recordWait(System.nanoTime() - node.enqueueTime);
+          return node;
+        }
+        // Superseded by a later entry, or the item was cancelled.
+        staleCount.decrementAndGet();
+      }
+      return null;
+    } finally {
+      stateLock.readLock().unlock();
+    }
+  }
+
+  // Called with stateLock held shared. Pollers may briefly find the queue empty while the live
+  // entries are out, so callers run startItems() afterwards.
+  private void sweepStaleEntriesIfNeeded() {
+    if (staleCount.get() <= Math.max(MIN_STALE_ENTRIES_TO_SWEEP, pendingCount.get())) {
+      return;
+    }
+    List<WorkEntry> drained = new ArrayList<>();
+    pendingJobs.drainTo(drained);
+    List<WorkEntry> live = new ArrayList<>(drained.size());
+    for (WorkEntry entry : drained) {
+      if (entry.node.isCurrent(entry)) {
+        live.add(entry);
+      } else {
+        // Once stale an entry stays stale, so it is safe to drop it here.
+        staleCount.decrementAndGet();
+      }
+    }
+    pendingJobs.addAll(live);
+  }
+
+  private void recordWait(long waitNanos) {
+    startedCount.incrementAndGet();
+    totalWaitNanos.addAndGet(waitNanos);
+    long max;
+    while (waitNanos > (max = maxWaitNanos.get())
+        && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+      // Retry with the updated maximum.
     }
   }
 
@@ -126,100 +242,111 @@ public class WorkQueue {
             try {
               node.getCallback().run();
             } finally {
-              finishItemAndStartNew(node);
+              runningCount.decrementAndGet();
+              startItems();
             }
           }
         });
   }
 
+  private static final class WorkEntry implements Comparable<WorkEntry> {
+    final WorkNode node;
+    final int priority;
+    final long sequence;
+
+    WorkEntry(WorkNode node, int priority, long sequence) {
+      this.node = node;
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(WorkEntry another) {
+      if (priority != another.priority) {
+        return priority > another.priority ? -1 : 1;
+      }
+      return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+    }
+  }
+
   private class WorkNode implements WorkItem {
+    static final int PENDING = 0;
+    static final int RUNNING = 1;
+    static final int CANCELLED = 2;
+
     private final Runnable callback;
-    private WorkNode next;
-    private WorkNode prev;
-    private boolean isRunning;
+    private final int priority;
+    private final long enqueueTime = System.nanoTime();
+    final AtomicInteger state = new AtomicInteger(PENDING);
+    // The entry in pendingJobs that currently represents this node.
+    volatile WorkEntry entry;
 
-    WorkNode(Runnable callback) {
+    WorkNode(Runnable callback, int priority) {
       this.callback = callback;
+      this.priority = priority;
+    }
+
+    void enqueue(boolean addToFront) {
+      long sequence =
+          addToFront ? -frontSequence.incrementAndGet() : backSequence.incrementAndGet();
+      WorkEntry newEntry = new WorkEntry(this, priority, sequence);
+      entry = newEntry;
+      pendingJobs.add(newEntry);
+      sweepStaleEntriesIfNeeded();
+    }
+
+    // Called with the entry just polled from pendingJobs; false if that entry is stale.
+    synchronized boolean start(WorkEntry polled) {
+      return entry == polled && state.compareAndSet(PENDING, RUNNING);
     }
 
     @Override
     public boolean cancel() {
-      synchronized (workLock) {
-        if (!isRunning()) {
-          pendingJobs = removeFromList(pendingJobs);
+      stateLock.readLock().lock();
+      try {
+        // The queued entry is left for pollReady() to drop.
+        if (state.compareAndSet(PENDING, CANCELLED)) {
+          pendingCount.decrementAndGet();
+          staleCount.incrementAndGet();
           return true;
         }
+        return false;
+      } finally {
+        stateLock.readLock().unlock();
       }
-
-      return false;
     }
 
     @Override
     public void moveToFront() {
-      synchronized (workLock) {
-        if (!isRunning()) {
-          pendingJobs = removeFromList(pendingJobs);
-          pendingJobs = addToList(pendingJobs, true);
+      stateLock.readLock().lock();
+      try {
+        synchronized (this) {
+          WorkEntry previous = entry;
+          if (state.get() != PENDING || pendingJobs.peek() == previous) {
+            // Already started or cancelled, or nothing would run before it anyway.
+            return;
+          }
+          staleCount.incrementAndGet();
+          enqueue(true);
         }
+      } finally {
+        stateLock.readLock().unlock();
       }
+      startItems();
+    }
+
+    boolean isCurrent(WorkEntry queued) {
+      return entry == queued && state.get() == PENDING;
     }
 
     @Override
     public boolean isRunning() {
-      return isRunning;
+      return state.get() == RUNNING;
     }
 
     Runnable getCallback() {
       return callback;
     }
-
-    WorkNode getNext() {
-      return next;
-    }
-
-    void setIsRunning(boolean isRunning) {
-      this.isRunning = isRunning;
-    }
-
-    WorkNode addToList(WorkNode list, boolean addToFront) {
-      assert next == null;
-      assert prev == null;
-
-      if (list == null) {
-        list = next = prev = this;
-      } else {
-        next = list;
-        prev = list.prev;
-        next.prev = prev.next = this;
-      }
-
-      return addToFront ? this : list;
-    }
-
-    WorkNode removeFromList(WorkNode list) {
-      assert next != null;
-      assert prev != null;
-
-      if (list == this) {
-        if (next == this) {
-          list = null;
-        } else {
-          list = next;
-        }
-      }
-
-      next.prev = prev;
-      prev.next = next;
-      next = prev = null;
-
-      return list;
-    }
-
-    void verify(boolean shouldBeRunning) {
-      assert prev.next == this;
-      assert next.prev == this;
-      assert isRunning() == shouldBeRunning;
-    }
   }
 
   public interface WorkItem {
@@ -30,6 +30,7 @@ import androidx.annotation.RestrictTo;
 import com.facebook.FacebookSdk;
 import com.facebook.GraphRequest;
 import com.facebook.GraphRequestBatch;
+import com.facebook.internal.SdkExecutors;
 import com.facebook.internal.Utility;
 import com.facebook.internal.logging.ExternalLog;
 import com.facebook.internal.logging.LoggingCache;
@@ -38,7 +39,6 @@ import com.facebook.internal.logging.LoggingStore;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -63,7 +63,7 @@ public class MonitorLoggingManager implements LoggingManager {
   private static final String ENTRIES_KEY = "entries";
   private static final String MONITORING_ENDPOINT = "monitorings";
   private final ScheduledExecutorService singleThreadExecutor =
-      Executors.newSingleThreadScheduledExecutor();
+      SdkExecutors.newSerialExecutor("MonitorLoggingManager");
   private static MonitorLoggingManager monitorLoggingManager;
   private LoggingCache logQueue;
   private LoggingStore logStore;
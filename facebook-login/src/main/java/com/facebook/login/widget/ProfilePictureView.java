@@ -451,6 +451,7 @@ public class ProfilePictureView extends FrameLayout {
     ImageRequest request =
         requestBuilder
             .setAllowCachedRedirects(allowCachedResponse)
+            .setTargetSize(queryWidth, queryHeight)
             .setCallerTag(this)
             .setCallback(
                 new ImageRequest.Callback() {
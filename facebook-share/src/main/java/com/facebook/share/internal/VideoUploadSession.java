@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * com.facebook.share.internal is solely for the use of other packages within the Facebook SDK for
+ * Android. Use of any of the classes in this package is unsupported, and they may be modified or
+ * removed without warning at any time.
+ *
+ * <p>Tracks which byte ranges of a resumable video upload are in flight and which the server has
+ * confirmed.
+ *
+ * <p>In serial mode the server drives the upload: each transfer response names the next range to
+ * send. In parallel mode up to {@code maxChunksInFlight} ranges of the size chosen by the server
+ * are sent at once. The server's start_offset is the end of the data it has received
+ * contiguously. If the server rejects a chunk that starts past that offset, the session falls
+ * back to serial mode and continues from the server's offsets once the in-flight chunks drain.
+ */
+class VideoUploadSession {
+  private static final String JSON_SESSION_ID = "session_id";
+  private static final String JSON_VIDEO_ID = "video_id";
+  private static final String JSON_VIDEO_SIZE = "video_size";
+  private static final String JSON_CONFIRMED_OFFSET = "confirmed_offset";
+  private static final String JSON_CHUNK_SIZE = "chunk_size";
+
+  static final class Chunk {
+    final long start;
+    final long end;
+    final boolean isSentInParallel;
+
+    Chunk(long start, long end, boolean isSentInParallel) {
+      this.start = start;
+      this.end = end;
+      this.isSentInParallel = isSentInParallel;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + start + ", " + end + ")";
+    }
+  }
+
+  private final long videoSize;
+  private final int maxChunksInFlight;
+
+  private String sessionId;
+  private String videoId;
+  private long chunkSize;
+  private boolean isParallel;
+  private boolean isComplete;
+  private boolean isFinishClaimed;
+  private boolean isAbandoned;
+  private int chunksInFlight;
+  // The end of the data the server has confirmed contiguously.
+  private long confirmedOffset;
+  // The next offset to send in parallel mode.
+  private long nextOffset;
+  // The range the server most recently asked for, sent next in serial mode.
+  private long requestedStart;
+  private long requestedEnd;
+
+  VideoUploadSession(long videoSize, int maxChunksInFlight) {
+    this.videoSize = videoSize;
+    this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+  }
+
+  String getSessionId() {
+    return sessionId;
+  }
+
+  String getVideoId() {
+    return videoId;
+  }
+
+  synchronized long getConfirmedOffset() {
+    return confirmedOffset;
+  }
+
+  synchronized boolean isParallel() {
+    return isParallel;
+  }
+
+  /**
+   * Returns true, exactly once, when the server has every byte and no chunk is still in flight.
+   * The caller that gets true sends the finish phase.
+   */
+  synchronized boolean claimFinish() {
+    if (isComplete && chunksInFlight == 0 && !isFinishClaimed) {
+      isFinishClaimed = true;
+      return true;
+    }
+    return false;
+  }
+
+  /** Stops the session from handing out more chunks, after the upload failed or was restarted. */
+  synchronized void abandon() {
+    isComplete = true;
+    isFinishClaimed = true;
+    isAbandoned = true;
+  }
+
+  synchronized boolean isAbandoned() {
+    return isAbandoned;
+  }
+
+  /** Records the response to the start phase and returns the chunks to send. */
+  synchronized List<Chunk> onStarted(
+      String sessionId, String videoId, long startOffset, long endOffset) {
+    this.sessionId = sessionId;
+    this.videoId = videoId;
+    this.chunkSize = Math.max(1, endOffset - startOffset);
+    this.isParallel = maxChunksInFlight > 1;
+    this.confirmedOffset = startOffset;
+    this.nextOffset = startOffset;
+    this.requestedStart = startOffset;
+    this.requestedEnd = endOffset;
+    this.isComplete = startOffset >= endOffset;
+    return dispatch();
+  }
+
+  /** Restarts a session read with {@link #fromJson} from its last confirmed offset. */
+  synchronized List<Chunk> onResumed() {
+    isParallel = maxChunksInFlight > 1;
+    nextOffset = confirmedOffset;
+    requestedStart = confirmedOffset;
+    requestedEnd = Math.min(confirmedOffset + chunkSize, videoSize);
+    isComplete = requestedStart >= requestedEnd;
+    return dispatch();
+  }
+
+  /**
+   * Records the server's response to a transferred chunk and returns the chunks to send next.
+   *
+   * @param serverStart the start_offset in the response
+   * @param serverEnd the end_offset in the response
+   */
+  synchronized List<Chunk> onTransferred(Chunk chunk, long serverStart, long serverEnd) {
+    chunksInFlight--;
+    if (serverStart >= confirmedOffset) {
+      confirmedOffset = serverStart;
+      requestedStart = serverStart;
+      requestedEnd = serverEnd;
+    }
+    if (serverStart >= serverEnd) {
+      isComplete = true;
+    }
+    return dispatch();
+  }
+
+  /**
+   * Handles a chunk the server refused. Returns the chunks to send next if the refusal only means
+   * the server does not take chunks out of order, or null if the upload has failed.
+   */
+  synchronized List<Chunk> onRejected(Chunk chunk) {
+    if (!chunk.isSentInParallel || chunk.start <= confirmedOffset) {
+      return null;
+    }
+    chunksInFlight--;
+    isParallel = false;
+    return dispatch();
+  }
+
+  private List<Chunk> dispatch() {
+    if (isComplete) {
+      return Collections.emptyList();
+    }
+    List<Chunk> chunks = new ArrayList<>();
+    if (isParallel) {
+      while (chunksInFlight < maxChunksInFlight && nextOffset < videoSize) {
+        long end = Math.min(nextOffset + chunkSize, videoSize);
+        chunks.add(new Chunk(nextOffset, end, true));
+        nextOffset = end;
+        chunksInFlight++;
+      }
+      if (chunksInFlight > 0) {
+        return chunks;
+      }
+      // Everything has been sent but the server is still missing a range, so send what it asks
+      // for from here on.
+      isParallel = false;
+    }
+    if (chunksInFlight == 0 && requestedStart < requestedEnd) {
+      chunks.add(new Chunk(requestedStart, requestedEnd, false));
+      chunksInFlight++;
+    }
+    return chunks;
+  }
+
+  synchronized JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put(JSON_SESSION_ID, sessionId);
+    json.put(JSON_VIDEO_ID, videoId);
+    json.put(JSON_VIDEO_SIZE, videoSize);
+    json.put(JSON_CONFIRMED_OFFSET, confirmedOffset);
+    json.put(JSON_CHUNK_SIZE, chunkSize);
+    return json;
+  }
+
+  /**
+   * Reads a session saved with {@link #toJson}. Returns null if it was saved for a video of a
+   * different size.
+   */
+  static VideoUploadSession fromJson(JSONObject json, long videoSize, int maxChunksInFlight)
+      throws JSONException {
+    if (json.getLong(JSON_VIDEO_SIZE) != videoSize) {
+      return null;
+    }
+    VideoUploadSession session = new VideoUploadSession(videoSize, maxChunksInFlight);
+    session.sessionId = json.getString(JSON_SESSION_ID);
+    session.videoId = json.getString(JSON_VIDEO_ID);
+    session.confirmedOffset = json.getLong(JSON_CONFIRMED_OFFSET);
+    session.chunkSize = Math.max(1, json.getLong(JSON_CHUNK_SIZE));
+    return session;
+  }
+}
@@ -20,6 +20,8 @@
 
 package com.facebook.share.internal;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
@@ -49,6 +51,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import org.json.JSONException;
@@ -85,8 +88,16 @@ public class VideoUploader {
   private static final int MAX_RETRIES_PER_PHASE = 2;
   private static final int RETRY_DELAY_UNIT_MS = 5000;
   private static final int RETRY_DELAY_BACK_OFF_FACTOR = 3;
+  // The transfer sub error code for a chunk whose start_offset is not the one the server expects.
+  private static final int ERROR_SUBCODE_UNEXPECTED_START_OFFSET = 1363037;
+
+  private static final String SESSION_STORE_NAME =
+      "com.facebook.share.internal.VideoUploader.sessions";
+  private static final String JSON_SAVED_AT = "saved_at";
+  private static final long MAX_SAVED_SESSION_AGE_MS = 24 * 60 * 60 * 1000;
 
   private static boolean initialized;
+  private static int maxChunksInFlight = 1;
 
   private static Handler handler;
   private static WorkQueue uploadQueue = new WorkQueue(UPLOAD_QUEUE_MAX_CONCURRENT);
@@ -113,6 +124,20 @@ public class VideoUploader {
     uploadAsync(videoContent, graphNode, callback, null);
   }
 
+  /**
+   * Sets how many chunks of an upload may be transferred at once. With more than one, chunks are
+   * sent in parallel until the server refuses one out of order, and then one at a time. Only
+   * videos that can be read at an offset are sent in parallel.
+   *
+   * @param maxChunks the number of chunks in flight per upload, 1 by default
+   */
+  public static synchronized void setMaxChunksInFlight(int maxChunks) {
+    if (maxChunks < 1) {
+      throw new IllegalArgumentException("maxChunks must be at least 1");
+    }
+    maxChunksInFlight = maxChunks;
+  }
+
   private static synchronized void uploadAsync(
       ShareVideoContent videoContent,
       String graphNode,
@@ -137,7 +162,18 @@ public class VideoUploader {
 
     pendingUploads.add(uploadContext);
 
-    enqueueUploadStart(uploadContext, 0);
+    VideoUploadSession savedSession = loadSavedSession(uploadContext);
+    if (savedSession != null) {
+      // Pick up an upload that was interrupted from the last offset the server confirmed.
+      uploadContext.setSession(savedSession, true);
+      if (uploadContext.progressCallback != null) {
+        uploadContext.progressCallback.onProgress(
+            savedSession.getConfirmedOffset(), uploadContext.videoSize);
+      }
+      enqueueUploadChunks(uploadContext, savedSession, savedSession.onResumed());
+    } else {
+      enqueueUploadStart(uploadContext, 0);
+    }
   }
 
   private static synchronized void cancelAllRequests() {
@@ -146,8 +182,8 @@ public class VideoUploader {
     }
   }
 
-  private static synchronized void removePendingUpload(UploadContext uploadContext) {
-    pendingUploads.remove(uploadContext);
+  private static synchronized boolean removePendingUpload(UploadContext uploadContext) {
+    return pendingUploads.remove(uploadContext);
   }
 
   private static synchronized Handler getHandler() {
@@ -164,9 +200,13 @@ public class VideoUploader {
       final String videoId) {
     // Remove the UploadContext synchronously
     // Once the UploadContext is removed, this is the only reference to it.
-    removePendingUpload(uploadContext);
+    if (!removePendingUpload(uploadContext)) {
+      // Another chunk of a parallel upload already reported the outcome.
+      return;
+    }
 
     Utility.closeQuietly(uploadContext.videoStream);
+    closeQuietly(uploadContext.videoDescriptor);
 
     if (uploadContext.callback != null) {
       if (error != null) {
@@ -194,11 +234,89 @@ public class VideoUploader {
     enqueueRequest(uploadContext, new StartUploadWorkItem(uploadContext, completedRetries));
   }
 
+  private static void enqueueUploadChunks(
+      UploadContext uploadContext,
+      VideoUploadSession session,
+      List<VideoUploadSession.Chunk> chunks) {
+    for (VideoUploadSession.Chunk chunk : chunks) {
+      enqueueUploadChunk(uploadContext, session, chunk, 0);
+    }
+    if (session.claimFinish()) {
+      enqueueUploadFinish(uploadContext, 0);
+    }
+  }
+
   private static void enqueueUploadChunk(
-      UploadContext uploadContext, String chunkStart, String chunkEnd, int completedRetries) {
+      UploadContext uploadContext,
+      VideoUploadSession session,
+      VideoUploadSession.Chunk chunk,
+      int completedRetries) {
     enqueueRequest(
-        uploadContext,
-        new TransferChunkWorkItem(uploadContext, chunkStart, chunkEnd, completedRetries));
+        uploadContext, new TransferChunkWorkItem(uploadContext, session, chunk, completedRetries));
+  }
+
+  /**
+   * Drops a resumed session that the server no longer accepts and starts the upload over. Returns
+   * false if the session has already been replaced.
+   */
+  private static synchronized boolean restartUpload(
+      UploadContext uploadContext, VideoUploadSession session) {
+    if (uploadContext.session != session || !uploadContext.isResumed) {
+      return false;
+    }
+    session.abandon();
+    clearSavedSession(uploadContext);
+    uploadContext.setSession(null, false);
+    enqueueUploadStart(uploadContext, 0);
+    return true;
+  }
+
+  private static SharedPreferences getSessionStore() {
+    return FacebookSdk.getApplicationContext()
+        .getSharedPreferences(SESSION_STORE_NAME, Context.MODE_PRIVATE);
+  }
+
+  private static VideoUploadSession loadSavedSession(UploadContext uploadContext) {
+    if (uploadContext.videoDescriptor == null) {
+      // A sequential stream cannot start at an offset.
+      return null;
+    }
+    String saved = getSessionStore().getString(uploadContext.sessionKey, null);
+    if (saved == null) {
+      return null;
+    }
+    VideoUploadSession session = null;
+    try {
+      JSONObject json = new JSONObject(saved);
+      if (System.currentTimeMillis() - json.optLong(JSON_SAVED_AT) < MAX_SAVED_SESSION_AGE_MS) {
+        session =
+            VideoUploadSession.fromJson(
+                json, uploadContext.videoSize, uploadContext.maxChunksInFlight);
+      }
+    } catch (JSONException e) {
+      logError(e, "Error reading saved video upload session");
+    }
+    if (session == null) {
+      clearSavedSession(uploadContext);
+    }
+    return session;
+  }
+
+  private static void saveSession(UploadContext uploadContext, VideoUploadSession session) {
+    if (uploadContext.videoDescriptor == null) {
+      return;
+    }
+    try {
+      JSONObject json = session.toJson();
+      json.put(JSON_SAVED_AT, System.currentTimeMillis());
+      getSessionStore().edit().putString(uploadContext.sessionKey, json.toString()).apply();
+    } catch (JSONException e) {
+      logError(e, "Error saving video upload session");
+    }
+  }
+
+  private static void clearSavedSession(UploadContext uploadContext) {
+    getSessionStore().edit().remove(uploadContext.sessionKey).apply();
   }
 
   private static void enqueueUploadFinish(UploadContext uploadContext, int completedRetries) {
@@ -209,6 +327,26 @@ public class VideoUploader {
     uploadContext.workItem = uploadQueue.addActiveWorkItem(workItem);
   }
 
+  private static GraphRequest.ParcelFileDescriptorRange getChunkRange(
+      UploadContext uploadContext, String chunkStart, String chunkEnd) {
+    long chunkStartLong = Long.parseLong(chunkStart);
+    long chunkEndLong = Long.parseLong(chunkEnd);
+    if (chunkStartLong < 0
+        || chunkEndLong < chunkStartLong
+        || chunkEndLong > uploadContext.videoSize) {
+      logError(
+          null,
+          "Error reading video chunk. Requested chunk '%s' to '%s' of a %d byte video.",
+          chunkStart,
+          chunkEnd,
+          uploadContext.videoSize);
+      return null;
+    }
+
+    return new GraphRequest.ParcelFileDescriptorRange(
+        uploadContext.videoDescriptor, chunkStartLong, chunkEndLong - chunkStartLong, null);
+  }
+
   private static byte[] getChunk(UploadContext uploadContext, String chunkStart, String chunkEnd)
       throws IOException {
     if (!Utility.areObjectsEqual(chunkStart, uploadContext.chunkStart)) {
@@ -274,6 +412,17 @@ public class VideoUploader {
         };
   }
 
+  // ParcelFileDescriptor is only Closeable from API 16.
+  private static void closeQuietly(ParcelFileDescriptor descriptor) {
+    try {
+      if (descriptor != null) {
+        descriptor.close();
+      }
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+
   private static void logError(Exception e, String format, Object... args) {
     Log.e(TAG, String.format(Locale.ROOT, format, args), e);
   }
@@ -290,8 +439,16 @@ public class VideoUploader {
     public final FacebookCallback<Sharer.Result> callback;
     public final GraphRequest.OnProgressCallback progressCallback;
 
+    public final String sessionKey;
+    public int maxChunksInFlight;
+
+    public volatile VideoUploadSession session;
+    public volatile boolean isResumed;
     public String sessionId;
     public String videoId;
+    // Chunks are streamed straight from the descriptor when it is seekable. Otherwise the video is
+    // read sequentially from videoStream, one chunk at a time.
+    public ParcelFileDescriptor videoDescriptor;
     public InputStream videoStream;
     public long videoSize;
     public String chunkStart = "0";
@@ -316,6 +473,13 @@ public class VideoUploader {
       this.callback = callback;
       this.progressCallback = progressCallback;
       this.params = videoContent.getVideo().getParameters();
+      this.sessionKey =
+          String.format(
+              Locale.ROOT,
+              "%s|%s|%s",
+              accessToken != null ? accessToken.getUserId() : "",
+              graphNode,
+              videoUri);
       if (!Utility.isNullOrEmpty(videoContent.getPeopleIds())) {
         this.params.putString("tags", TextUtils.join(", ", videoContent.getPeopleIds()));
       }
@@ -330,27 +494,47 @@ public class VideoUploader {
     }
 
     private void initialize() throws FileNotFoundException {
-      ParcelFileDescriptor fileDescriptor;
       try {
         if (Utility.isFileUri(videoUri)) {
-          fileDescriptor =
+          videoDescriptor =
               ParcelFileDescriptor.open(
                   new File(videoUri.getPath()), ParcelFileDescriptor.MODE_READ_ONLY);
-          videoSize = fileDescriptor.getStatSize();
-          videoStream = new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor);
+          videoSize = videoDescriptor.getStatSize();
         } else if (Utility.isContentUri(videoUri)) {
           videoSize = Utility.getContentSize(videoUri);
-          videoStream =
-              FacebookSdk.getApplicationContext().getContentResolver().openInputStream(videoUri);
+          videoDescriptor =
+              FacebookSdk.getApplicationContext()
+                  .getContentResolver()
+                  .openFileDescriptor(videoUri, "r");
+          if (videoDescriptor != null && videoDescriptor.getStatSize() < 0) {
+            // Pipes and sockets cannot be read at an offset.
+            closeQuietly(videoDescriptor);
+            videoDescriptor = null;
+          }
+          if (videoDescriptor == null) {
+            videoStream =
+                FacebookSdk.getApplicationContext().getContentResolver().openInputStream(videoUri);
+          }
         } else {
           throw new FacebookException("Uri must be a content:// or file:// uri");
         }
+        maxChunksInFlight = videoDescriptor != null ? VideoUploader.maxChunksInFlight : 1;
       } catch (FileNotFoundException e) {
+        closeQuietly(videoDescriptor);
         Utility.closeQuietly(videoStream);
 
         throw e;
       }
     }
+
+    private void setSession(VideoUploadSession session, boolean isResumed) {
+      this.session = session;
+      this.isResumed = isResumed;
+      if (session != null) {
+        this.sessionId = session.getSessionId();
+        this.videoId = session.getVideoId();
+      }
+    }
   }
 
   private static class StartUploadWorkItem extends UploadWorkItemBase {
@@ -376,17 +560,25 @@ public class VideoUploader {
 
     @Override
     protected void handleSuccess(JSONObject jsonObject) throws JSONException {
-      uploadContext.sessionId = jsonObject.getString(PARAM_SESSION_ID);
-      uploadContext.videoId = jsonObject.getString(PARAM_VIDEO_ID);
-      String startOffset = jsonObject.getString(PARAM_START_OFFSET);
-      String endOffset = jsonObject.getString(PARAM_END_OFFSET);
+      long startOffset = Long.parseLong(jsonObject.getString(PARAM_START_OFFSET));
+      long endOffset = Long.parseLong(jsonObject.getString(PARAM_END_OFFSET));
+
+      VideoUploadSession session =
+          new VideoUploadSession(uploadContext.videoSize, uploadContext.maxChunksInFlight);
+      List<VideoUploadSession.Chunk> chunks =
+          session.onStarted(
+              jsonObject.getString(PARAM_SESSION_ID),
+              jsonObject.getString(PARAM_VIDEO_ID),
+              startOffset,
+              endOffset);
+      uploadContext.setSession(session, false);
+      saveSession(uploadContext, session);
 
       if (uploadContext.progressCallback != null) {
-        long currentProgress = Long.parseLong(startOffset);
-        uploadContext.progressCallback.onProgress(currentProgress, uploadContext.videoSize);
+        uploadContext.progressCallback.onProgress(startOffset, uploadContext.videoSize);
       }
 
-      enqueueUploadChunk(uploadContext, startOffset, endOffset, 0);
+      enqueueUploadChunks(uploadContext, session, chunks);
     }
 
     @Override
@@ -418,14 +610,26 @@ public class VideoUploader {
           }
         };
 
-    private String chunkStart;
-    private String chunkEnd;
+    private final VideoUploadSession session;
+    private final VideoUploadSession.Chunk chunk;
+    private final String chunkStart;
+    private final String chunkEnd;
 
     public TransferChunkWorkItem(
-        UploadContext uploadContext, String chunkStart, String chunkEnd, int completedRetries) {
+        UploadContext uploadContext,
+        VideoUploadSession session,
+        VideoUploadSession.Chunk chunk,
+        int completedRetries) {
       super(uploadContext, completedRetries);
-      this.chunkStart = chunkStart;
-      this.chunkEnd = chunkEnd;
+      this.session = session;
+      this.chunk = chunk;
+      this.chunkStart = String.valueOf(chunk.start);
+      this.chunkEnd = String.valueOf(chunk.end);
+    }
+
+    @Override
+    protected boolean isAbandoned() {
+      return session.isAbandoned();
     }
 
     @Override
@@ -435,11 +639,21 @@ public class VideoUploader {
       parameters.putString(PARAM_SESSION_ID, uploadContext.sessionId);
       parameters.putString(PARAM_START_OFFSET, chunkStart);
 
-      byte[] chunk = getChunk(uploadContext, chunkStart, chunkEnd);
-      if (chunk != null) {
-        parameters.putByteArray(PARAM_VIDEO_FILE_CHUNK, chunk);
+      if (uploadContext.videoDescriptor != null) {
+        GraphRequest.ParcelFileDescriptorRange chunk =
+            getChunkRange(uploadContext, chunkStart, chunkEnd);
+        if (chunk != null) {
+          parameters.putParcelable(PARAM_VIDEO_FILE_CHUNK, chunk);
+        } else {
+          throw new FacebookException("Error reading video");
+        }
       } else {
-        throw new FacebookException("Error reading video");
+        byte[] chunk = getChunk(uploadContext, chunkStart, chunkEnd);
+        if (chunk != null) {
+          parameters.putByteArray(PARAM_VIDEO_FILE_CHUNK, chunk);
+        } else {
+          throw new FacebookException("Error reading video");
+        }
       }
 
       return parameters;
@@ -447,23 +661,40 @@ public class VideoUploader {
 
     @Override
     protected void handleSuccess(JSONObject jsonObject) throws JSONException {
-      String startOffset = jsonObject.getString(PARAM_START_OFFSET);
-      String endOffset = jsonObject.getString(PARAM_END_OFFSET);
+      long startOffset = Long.parseLong(jsonObject.getString(PARAM_START_OFFSET));
+      long endOffset = Long.parseLong(jsonObject.getString(PARAM_END_OFFSET));
 
-      if (uploadContext.progressCallback != null) {
-        long currentProgress = Long.parseLong(startOffset);
-        uploadContext.progressCallback.onProgress(currentProgress, uploadContext.videoSize);
+      if (uploadContext.session != session) {
+        // The upload was restarted while this chunk was in flight.
+        return;
       }
+      uploadContext.isResumed = false;
+      List<VideoUploadSession.Chunk> chunks = session.onTransferred(chunk, startOffset, endOffset);
+      saveSession(uploadContext, session);
 
-      if (Utility.areObjectsEqual(startOffset, endOffset)) {
-        enqueueUploadFinish(uploadContext, 0);
-      } else {
-        enqueueUploadChunk(uploadContext, startOffset, endOffset, 0);
+      if (uploadContext.progressCallback != null) {
+        uploadContext.progressCallback.onProgress(
+            session.getConfirmedOffset(), uploadContext.videoSize);
       }
+
+      enqueueUploadChunks(uploadContext, session, chunks);
     }
 
     @Override
     protected void handleError(FacebookException error) {
+      if (uploadContext.session != session || restartUpload(uploadContext, session)) {
+        return;
+      }
+      FacebookRequestError requestError = response != null ? response.getError() : null;
+      if (requestError != null
+          && requestError.getSubErrorCode() == ERROR_SUBCODE_UNEXPECTED_START_OFFSET) {
+        // Any other refusal, such as an expired token, fails the upload.
+        List<VideoUploadSession.Chunk> chunks = session.onRejected(chunk);
+        if (chunks != null) {
+          enqueueUploadChunks(uploadContext, session, chunks);
+          return;
+        }
+      }
       logError(error, "Error uploading video '%s'", uploadContext.videoId);
       endUploadWithFailure(error);
     }
@@ -475,7 +706,7 @@ public class VideoUploader {
 
     @Override
     protected void enqueueRetry(int retriesCompleted) {
-      enqueueUploadChunk(uploadContext, chunkStart, chunkEnd, retriesCompleted);
+      enqueueUploadChunk(uploadContext, session, chunk, retriesCompleted);
     }
   }
 
@@ -509,6 +740,7 @@ public class VideoUploader {
     @Override
     protected void handleSuccess(JSONObject jsonObject) throws JSONException {
       if (jsonObject.getBoolean("success")) {
+        clearSavedSession(uploadContext);
         issueResponseOnMainThread(null, uploadContext.videoId);
       } else {
         handleError(new FacebookException(ERROR_BAD_SERVER_RESPONSE));
@@ -544,6 +776,10 @@ public class VideoUploader {
 
     @Override
     public void run() {
+      if (isAbandoned()) {
+        // The upload failed or was restarted after this was queued, and has already reported.
+        return;
+      }
       if (!uploadContext.isCanceled) {
         try {
           executeGraphRequestSynchronously(getParameters());
@@ -614,6 +850,12 @@ public class VideoUploader {
     }
 
     protected void endUploadWithFailure(FacebookException error) {
+      VideoUploadSession session = uploadContext.session;
+      if (session != null) {
+        // Queued chunks are dropped and chunks still in flight do not start new ones. The saved
+        // session is kept so the upload can be resumed.
+        session.abandon();
+      }
       issueResponseOnMainThread(error, null);
     }
 
@@ -628,6 +870,10 @@ public class VideoUploader {
               });
     }
 
+    protected boolean isAbandoned() {
+      return false;
+    }
+
     protected abstract Bundle getParameters() throws Exception;
 
     protected abstract void handleSuccess(JSONObject jsonObject) throws JSONException;
@@ -25,6 +25,7 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.doReturn;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -36,16 +37,25 @@ import android.graphics.Bitmap;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import com.facebook.internal.AttributionIdentifiers;
+import com.facebook.internal.ServerProtocol;
 import com.facebook.internal.Utility;
 import com.facebook.share.internal.ShareInternalUtility;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -165,6 +175,97 @@ public class GraphRequestTest extends FacebookPowerMockTestCase {
     assertEquals("me/photos", request.getGraphPath());
   }
 
+  @Test
+  public void testProgressTotalMatchesBodyForRepeatedBitmaps() throws Exception {
+    Bitmap image = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+    Bundle firstParameters = new Bundle();
+    firstParameters.putParcelable("picture", image);
+    Bundle secondParameters = new Bundle();
+    secondParameters.putParcelable("picture", image);
+    GraphRequestBatch batch =
+        new GraphRequestBatch(
+            new GraphRequest(null, "me/photos", firstParameters, HttpMethod.POST, null),
+            new GraphRequest(null, "me/photos", secondParameters, HttpMethod.POST, null));
+    final long[] lastProgress = {-1, -1};
+    batch.addCallback(
+        new GraphRequestBatch.OnProgressCallback() {
+          @Override
+          public void onBatchCompleted(GraphRequestBatch batch) {}
+
+          @Override
+          public void onBatchProgress(GraphRequestBatch batch, long current, long max) {
+            lastProgress[0] = current;
+            lastProgress[1] = max;
+          }
+        });
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpURLConnection connection = mock(HttpURLConnection.class);
+    when(connection.getURL()).thenReturn(new URL(ServerProtocol.getGraphUrlBase()));
+    when(connection.getOutputStream()).thenReturn(body);
+    GraphRequest.serializeToUrlConnection(batch, connection);
+
+    // The repeated bitmap is sized once but written for each request, so the total must still
+    // match the body exactly.
+    assertTrue(body.size() > 0);
+    assertEquals(body.size(), lastProgress[0]);
+    assertEquals(body.size(), lastProgress[1]);
+    // The encoded bitmap is spilled to the cache dir between the passes and removed once written.
+    File[] spilled = RuntimeEnvironment.application.getCacheDir().listFiles();
+    for (File file : spilled == null ? new File[0] : spilled) {
+      assertFalse(file.getName().startsWith("upload"));
+    }
+  }
+
+  @Test
+  public void testProgressTotalMatchesBodyForFileRange() throws Exception {
+    File file = File.createTempFile("video", ".bin");
+    FileOutputStream fileStream = new FileOutputStream(file);
+    try {
+      fileStream.write(new byte[4096]);
+    } finally {
+      fileStream.close();
+    }
+    ParcelFileDescriptor descriptor =
+        ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    try {
+      Bundle parameters = new Bundle();
+      parameters.putParcelable(
+          "video_file_chunk",
+          new GraphRequest.ParcelFileDescriptorRange(descriptor, 1000, 2000, null));
+      GraphRequestBatch batch =
+          new GraphRequestBatch(
+              new GraphRequest(null, "me/videos", parameters, HttpMethod.POST, null));
+      final long[] lastProgress = {-1, -1};
+      batch.addCallback(
+          new GraphRequestBatch.OnProgressCallback() {
+            @Override
+            public void onBatchCompleted(GraphRequestBatch batch) {}
+
+            @Override
+            public void onBatchProgress(GraphRequestBatch batch, long current, long max) {
+              lastProgress[0] = current;
+              lastProgress[1] = max;
+            }
+          });
+
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      HttpURLConnection connection = mock(HttpURLConnection.class);
+      when(connection.getURL()).thenReturn(new URL(ServerProtocol.getGraphUrlBase()));
+      when(connection.getOutputStream()).thenReturn(body);
+      GraphRequest.serializeToUrlConnection(batch, connection);
+
+      // The sizing pass counts the range without reading it, so the count must match the bytes
+      // that were actually copied.
+      assertTrue(body.size() > 2000);
+      assertEquals(body.size(), lastProgress[0]);
+      assertEquals(body.size(), lastProgress[1]);
+    } finally {
+      descriptor.close();
+      file.delete();
+    }
+  }
+
   @Test
   public void testCreatePlacesSearchRequestWithLocation() {
     Location location = new Location("");
@@ -304,7 +405,9 @@ public class GraphRequestTest extends FacebookPowerMockTestCase {
             GraphResponse.class,
             "fromHttpConnection",
             any(HttpURLConnection.class),
-            any(GraphRequestBatch.class));
+            any(GraphRequestBatch.class),
+            any(GraphResponseStreamParser.Listener.class),
+            any(boolean[].class));
 
     GraphRequest.Callback callback = mock(GraphRequest.Callback.class);
     GraphRequest request = new GraphRequest(null, null, null, null, callback);
@@ -313,6 +416,57 @@ public class GraphRequestTest extends FacebookPowerMockTestCase {
     verify(callback, times(1)).onCompleted(any(GraphResponse.class));
   }
 
+  @Test
+  public void testCustomTransport() throws Exception {
+    spy(GraphResponse.class);
+    final List<GraphResponse> responses = new ArrayList<>();
+    responses.add(new GraphResponse(null, null, null));
+    doAnswer(
+            new Answer<List<GraphResponse>>() {
+              @Override
+              public List<GraphResponse> answer(InvocationOnMock invocation) {
+                boolean[] bodyFullyRead = (boolean[]) invocation.getArguments()[3];
+                bodyFullyRead[0] = true;
+                return responses;
+              }
+            })
+        .when(
+            GraphResponse.class,
+            "fromHttpConnection",
+            any(HttpURLConnection.class),
+            any(GraphRequestBatch.class),
+            any(GraphResponseStreamParser.Listener.class),
+            any(boolean[].class));
+
+    final List<HttpURLConnection> opened = new ArrayList<>();
+    final List<Boolean> released = new ArrayList<>();
+    GraphRequestTransport previousTransport = GraphRequest.getTransport();
+    GraphRequest.setTransport(
+        new GraphRequestTransport() {
+          @Override
+          public HttpURLConnection openConnection(URL url) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            opened.add(connection);
+            return connection;
+          }
+
+          @Override
+          public void releaseConnection(HttpURLConnection connection, boolean reusable) {
+            assertSame(opened.get(0), connection);
+            released.add(reusable);
+          }
+        });
+    try {
+      new GraphRequest(null, "TourEiffel").executeAndWait();
+    } finally {
+      GraphRequest.setTransport(previousTransport);
+    }
+
+    assertEquals(1, opened.size());
+    assertEquals(1, released.size());
+    assertTrue(released.get(0));
+  }
+
   @Test
   public void testRequestForCustomAudienceThirdPartyID() throws Exception {
     mockStatic(AttributionIdentifiers.class);
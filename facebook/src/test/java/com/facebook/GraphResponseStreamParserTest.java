@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.support.membermodification.MemberMatcher.method;
+import static org.powermock.api.support.membermodification.MemberModifier.stub;
+import static org.powermock.api.support.membermodification.MemberModifier.suppress;
+
+import com.facebook.internal.FetchedAppGateKeepersManager;
+import com.facebook.internal.Utility;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RuntimeEnvironment;
+
+@PrepareForTest({
+  AccessToken.class,
+  AccessTokenCache.class,
+  FacebookSdk.class,
+  FetchedAppGateKeepersManager.class,
+  GraphRequest.class,
+  Utility.class,
+})
+public final class GraphResponseStreamParserTest extends FacebookPowerMockTestCase {
+
+  private static final String OK_ENTRY_1 = "{\"code\":200,\"body\":\"{\\\"id\\\":\\\"1\\\"}\"}";
+  private static final String OK_ENTRY_2 = "{\"code\":200,\"body\":\"{\\\"id\\\":\\\"2\\\"}\"}";
+  private static final String ERROR_ENTRY =
+      "{\"code\":400,\"body\":\"{\\\"error\\\":{\\\"message\\\":\\\"bad\\\",\\\"code\\\":100}}\"}";
+
+  private HttpURLConnection connection;
+
+  @Before
+  public void before() throws Exception {
+    suppress(method(Utility.class, "clearFacebookCookies"));
+    Whitebox.setInternalState(FacebookSdk.class, "sdkInitialized", true);
+    Whitebox.setInternalState(
+        FacebookSdk.class, "applicationContext", RuntimeEnvironment.application);
+    stub(method(AccessTokenCache.class, "save")).toReturn(null);
+    mockStatic(FetchedAppGateKeepersManager.class);
+
+    connection = mock(HttpURLConnection.class);
+    when(connection.getResponseCode()).thenReturn(200);
+  }
+
+  @Test
+  public void testSingleRequest() throws Exception {
+    List<GraphResponse> responses = parse("{\"id\":\"1\"}", batchOf(1), null);
+
+    assertEquals(1, responses.size());
+    assertNull(responses.get(0).getError());
+    assertEquals("1", responses.get(0).getJSONObject().getString("id"));
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    List<GraphResponse> responses =
+        parse("[" + OK_ENTRY_1 + "," + OK_ENTRY_2 + "]", batchOf(2), null);
+
+    assertEquals(2, responses.size());
+    assertEquals("1", responses.get(0).getJSONObject().getString("id"));
+    assertEquals("2", responses.get(1).getJSONObject().getString("id"));
+  }
+
+  @Test
+  public void testErrorEntryCarriesTheWholeBatchResult() throws Exception {
+    List<GraphResponse> responses =
+        parse("[" + OK_ENTRY_1 + "," + ERROR_ENTRY + "]", batchOf(2), null);
+
+    assertNull(responses.get(0).getError());
+    FacebookRequestError error = responses.get(1).getError();
+    assertNotNull(error);
+    assertEquals(100, error.getErrorCode());
+    assertEquals("bad", error.getErrorMessage());
+    JSONArray batchResult = (JSONArray) error.getBatchRequestResult();
+    assertEquals(2, batchResult.length());
+    assertEquals(200, batchResult.getJSONObject(0).getInt("code"));
+    assertEquals(400, batchResult.getJSONObject(1).getInt("code"));
+  }
+
+  @Test
+  public void testEntryBodiesAreParsedWithoutChangingTheBatchResult() throws Exception {
+    String literalEntry = "{\"code\":200,\"body\":\"true\"}";
+    List<GraphResponse> responses =
+        parse("[" + OK_ENTRY_1 + "," + literalEntry + "," + ERROR_ENTRY + "]", batchOf(3), null);
+
+    assertEquals("1", responses.get(0).getJSONObject().getString("id"));
+    assertTrue(
+        responses.get(1).getJSONObject().getBoolean(GraphResponse.NON_JSON_RESPONSE_PROPERTY));
+    FacebookRequestError error = responses.get(2).getError();
+    assertEquals(100, error.getErrorCode());
+    JSONArray batchResult = (JSONArray) error.getBatchRequestResult();
+    for (int i = 0; i < batchResult.length(); i++) {
+      assertTrue(batchResult.getJSONObject(i).get("body") instanceof String);
+    }
+  }
+
+  @Test
+  public void testNullEntry() throws Exception {
+    List<GraphResponse> responses = parse("[" + OK_ENTRY_1 + ",null]", batchOf(2), null);
+
+    assertEquals(2, responses.size());
+    assertNull(responses.get(1).getError());
+    assertNull(responses.get(1).getJSONObject());
+  }
+
+  @Test
+  public void testMalformedPayloadThrows() throws Exception {
+    try {
+      parse("[" + OK_ENTRY_1 + ",{\"code\":", batchOf(2), null);
+      fail("expected IOException");
+    } catch (IOException expected) {
+      // The caller turns this into error responses for the whole batch.
+    }
+  }
+
+  @Test
+  public void testUnexpectedNumberOfResultsThrows() throws Exception {
+    try {
+      parse("[" + OK_ENTRY_1 + "," + OK_ENTRY_2 + "]", batchOf(3), null);
+      fail("expected FacebookException");
+    } catch (FacebookException expected) {
+      // Too few entries for the batch.
+    }
+  }
+
+  @Test
+  public void testTrailingGarbageIsIgnored() throws Exception {
+    List<GraphResponse> responses =
+        parse("[" + OK_ENTRY_1 + "," + OK_ENTRY_2 + "]garbage", batchOf(2), null);
+
+    assertEquals(2, responses.size());
+    assertEquals("2", responses.get(1).getJSONObject().getString("id"));
+  }
+
+  @Test
+  public void testResponsesAreDeliveredBeforeTheBodyEnds() throws Exception {
+    final byte[] head = ("[" + OK_ENTRY_1 + ",").getBytes("UTF-8");
+    // Serves the first entry, then fails as if the connection dropped mid-body.
+    InputStream stream =
+        new InputStream() {
+          private int position;
+
+          @Override
+          public int read() throws IOException {
+            if (position == head.length) {
+              throw new IOException("connection reset");
+            }
+            return head[position++] & 0xff;
+          }
+
+          @Override
+          public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position == head.length) {
+              throw new IOException("connection reset");
+            }
+            int count = Math.min(length, head.length - position);
+            System.arraycopy(head, position, buffer, offset, count);
+            position += count;
+            return count;
+          }
+        };
+    final List<Integer> deliveredIndices = new ArrayList<>();
+    final List<GraphResponse> delivered = new ArrayList<>();
+    GraphResponseStreamParser.Listener listener =
+        new GraphResponseStreamParser.Listener() {
+          @Override
+          public void onResponse(int index, GraphResponse response) {
+            deliveredIndices.add(index);
+            delivered.add(response);
+          }
+        };
+
+    try {
+      GraphResponseStreamParser.parse(stream, connection, batchOf(2), listener);
+      fail("expected IOException");
+    } catch (IOException expected) {
+      // The second entry never arrives.
+    }
+
+    assertEquals(1, deliveredIndices.size());
+    assertEquals(0, (int) deliveredIndices.get(0));
+    assertEquals("1", delivered.get(0).getJSONObject().getString("id"));
+  }
+
+  @Test
+  public void testListenerSeesEveryResponseInOrder() throws Exception {
+    final List<Integer> deliveredIndices = new ArrayList<>();
+    final List<GraphResponse> delivered = new ArrayList<>();
+    GraphResponseStreamParser.Listener listener =
+        new GraphResponseStreamParser.Listener() {
+          @Override
+          public void onResponse(int index, GraphResponse response) {
+            deliveredIndices.add(index);
+            delivered.add(response);
+          }
+        };
+
+    List<GraphResponse> responses =
+        parse("[" + OK_ENTRY_1 + "," + ERROR_ENTRY + "]", batchOf(2), listener);
+
+    assertEquals(2, deliveredIndices.size());
+    assertEquals(0, (int) deliveredIndices.get(0));
+    assertEquals(1, (int) deliveredIndices.get(1));
+    assertSame(responses.get(0), delivered.get(0));
+    assertSame(responses.get(1), delivered.get(1));
+    assertTrue(delivered.get(1).getError() != null);
+  }
+
+  private List<GraphResponse> parse(
+      String body, GraphRequestBatch batch, GraphResponseStreamParser.Listener listener)
+      throws Exception {
+    InputStream stream = new ByteArrayInputStream(body.getBytes("UTF-8"));
+    return GraphResponseStreamParser.parse(stream, connection, batch, listener);
+  }
+
+  private static GraphRequestBatch batchOf(int size) {
+    GraphRequestBatch batch = new GraphRequestBatch();
+    for (int i = 0; i < size; i++) {
+      batch.add(mock(GraphRequest.class));
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import android.os.ParcelFileDescriptor;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParcelFileDescriptorRangeTest extends FacebookTestCase {
+  // Larger than the transfer buffer, so a range spans several reads.
+  private static final int FILE_SIZE = 200 * 1024;
+
+  private final byte[] contents = new byte[FILE_SIZE];
+  private File file;
+  private ParcelFileDescriptor descriptor;
+
+  @Before
+  public void before() throws IOException {
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = (byte) (i * 31 + i / 256);
+    }
+    file = File.createTempFile("range", ".bin");
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(contents);
+    } finally {
+      outputStream.close();
+    }
+    descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+  }
+
+  @After
+  public void after() throws IOException {
+    descriptor.close();
+    file.delete();
+  }
+
+  @Test
+  public void testWritesOnlyTheRange() throws IOException {
+    int offset = 1000;
+    int length = 150 * 1024 + 7;
+    GraphRequest.ParcelFileDescriptorRange range =
+        new GraphRequest.ParcelFileDescriptorRange(descriptor, offset, length, null);
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    assertEquals(length, range.writeTo(body));
+    assertArrayEquals(Arrays.copyOfRange(contents, offset, offset + length), body.toByteArray());
+  }
+
+  @Test
+  public void testEmptyRangeWritesNothing() throws IOException {
+    GraphRequest.ParcelFileDescriptorRange range =
+        new GraphRequest.ParcelFileDescriptorRange(descriptor, 10, 0, null);
+
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    assertEquals(0, range.writeTo(body));
+    assertEquals(0, body.size());
+  }
+
+  @Test
+  public void testFileEndingBeforeTheRangeThrows() throws IOException {
+    GraphRequest.ParcelFileDescriptorRange range =
+        new GraphRequest.ParcelFileDescriptorRange(descriptor, FILE_SIZE - 100, 200, null);
+
+    try {
+      range.writeTo(new ByteArrayOutputStream());
+      fail("expected exception");
+    } catch (EOFException e) {
+      // Success
+    }
+  }
+
+  @Test
+  public void testDescriptorStaysOpenAfterWrite() throws IOException {
+    GraphRequest.ParcelFileDescriptorRange first =
+        new GraphRequest.ParcelFileDescriptorRange(descriptor, 0, 100, null);
+    GraphRequest.ParcelFileDescriptorRange second =
+        new GraphRequest.ParcelFileDescriptorRange(descriptor, 100, 100, null);
+    first.writeTo(new ByteArrayOutputStream());
+
+    // The duplicate used for the first write is closed by now; the caller's descriptor is not.
+    assertEquals(FILE_SIZE, descriptor.getStatSize());
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    second.writeTo(body);
+    assertArrayEquals(Arrays.copyOfRange(contents, 100, 200), body.toByteArray());
+  }
+
+  @Test
+  public void testNegativeOffsetIsRejected() {
+    try {
+      new GraphRequest.ParcelFileDescriptorRange(descriptor, -1, 10, null);
+      fail("expected exception");
+    } catch (IllegalArgumentException e) {
+      // Success
+    }
+  }
+}
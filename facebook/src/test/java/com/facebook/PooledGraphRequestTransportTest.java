@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import static org.junit.Assert.assertEquals;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledGraphRequestTransportTest {
+  private static final byte[] RESPONSE_BODY = "{\"id\":\"1\"}".getBytes();
+
+  private HttpServer server;
+  private volatile boolean closeAfterResponse;
+
+  @Before
+  public void before() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            InputStream requestBody = exchange.getRequestBody();
+            while (requestBody.read() != -1) {
+              // Consume the request body.
+            }
+            if (closeAfterResponse) {
+              exchange.getResponseHeaders().set("Connection", "close");
+            }
+            exchange.sendResponseHeaders(200, RESPONSE_BODY.length);
+            OutputStream responseBody = exchange.getResponseBody();
+            responseBody.write(RESPONSE_BODY);
+            responseBody.close();
+          }
+        });
+    server.start();
+  }
+
+  @After
+  public void after() {
+    server.stop(0);
+  }
+
+  @Test(timeout = 5000)
+  public void testUnexecutedConnectionsDoNotBlockLaterRequests() throws Exception {
+    PooledGraphRequestTransport transport = new PooledGraphRequestTransport();
+
+    // Like GraphRequest.toHttpConnection: the request is written but nobody reads the response
+    // or releases the connection.
+    List<HttpURLConnection> unexecuted = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      HttpURLConnection connection = transport.openConnection(getUrl());
+      writeRequest(connection);
+      unexecuted.add(connection);
+    }
+
+    HttpURLConnection executed = transport.openConnection(getUrl());
+    writeRequest(executed);
+    readResponse(executed);
+    transport.releaseConnection(executed, true);
+
+    assertEquals(9, transport.getConnectionsOpened());
+    assertEquals(1, transport.getConnectionsReturnedToPool());
+  }
+
+  @Test
+  public void testFullyReadConnectionIsKeptAlive() throws Exception {
+    PooledGraphRequestTransport transport = new PooledGraphRequestTransport();
+
+    for (int i = 0; i < 2; i++) {
+      HttpURLConnection connection = transport.openConnection(getUrl());
+      writeRequest(connection);
+      readResponse(connection);
+      transport.releaseConnection(connection, true);
+    }
+
+    assertEquals(2, transport.getConnectionsOpened());
+    assertEquals(2, transport.getConnectionsReturnedToPool());
+    assertEquals(0, transport.getConnectionsDisconnected());
+  }
+
+  @Test
+  public void testServerRequestedCloseIsNotKeptAlive() throws Exception {
+    closeAfterResponse = true;
+    PooledGraphRequestTransport transport = new PooledGraphRequestTransport();
+
+    HttpURLConnection connection = transport.openConnection(getUrl());
+    writeRequest(connection);
+    readResponse(connection);
+    transport.releaseConnection(connection, true);
+
+    assertEquals(0, transport.getConnectionsReturnedToPool());
+    assertEquals(1, transport.getConnectionsDisconnected());
+  }
+
+  @Test
+  public void testUnreadConnectionIsDisconnected() throws Exception {
+    PooledGraphRequestTransport transport = new PooledGraphRequestTransport();
+
+    transport.releaseConnection(transport.openConnection(getUrl()), false);
+    transport.releaseConnection(transport.openConnection(getUrl()), false);
+
+    assertEquals(0, transport.getConnectionsReturnedToPool());
+    assertEquals(2, transport.getConnectionsDisconnected());
+  }
+
+  @Test
+  public void testIdleConnectionsPerHostAreLimited() throws Exception {
+    PooledGraphRequestTransport transport = new PooledGraphRequestTransport();
+    int limit = PooledGraphRequestTransport.MAX_IDLE_CONNECTIONS_PER_HOST;
+
+    // A burst of concurrent requests: only the limit goes back to the pool.
+    List<HttpURLConnection> burst = new ArrayList<>();
+    for (int i = 0; i <= limit; i++) {
+      HttpURLConnection connection = transport.openConnection(getUrl());
+      writeRequest(connection);
+      readResponse(connection);
+      burst.add(connection);
+    }
+    for (HttpURLConnection connection : burst) {
+      transport.releaseConnection(connection, true);
+    }
+    assertEquals(limit, transport.getConnectionsReturnedToPool());
+    assertEquals(1, transport.getConnectionsOverLimit());
+    assertEquals(1, transport.getConnectionsDisconnected());
+
+    // A later request takes one of the idle connections, so it can go back to the pool too.
+    HttpURLConnection connection = transport.openConnection(getUrl());
+    writeRequest(connection);
+    readResponse(connection);
+    transport.releaseConnection(connection, true);
+    assertEquals(limit + 1, transport.getConnectionsReturnedToPool());
+    assertEquals(1, transport.getConnectionsOverLimit());
+  }
+
+  @Test
+  public void testReleaseIsIdempotent() throws Exception {
+    PooledGraphRequestTransport transport = new PooledGraphRequestTransport();
+
+    HttpURLConnection connection = transport.openConnection(getUrl());
+    writeRequest(connection);
+    readResponse(connection);
+    transport.releaseConnection(connection, true);
+    transport.releaseConnection(connection, true);
+
+    assertEquals(1, transport.getConnectionsReturnedToPool());
+    assertEquals(0, transport.getConnectionsDisconnected());
+  }
+
+  private URL getUrl() throws IOException {
+    return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/me");
+  }
+
+  private static void writeRequest(HttpURLConnection connection) throws IOException {
+    connection.setRequestMethod("POST");
+    connection.setChunkedStreamingMode(0);
+    connection.setDoOutput(true);
+    OutputStream outputStream = connection.getOutputStream();
+    outputStream.write("format=json".getBytes());
+    outputStream.close();
+  }
+
+  private static void readResponse(HttpURLConnection connection) throws IOException {
+    assertEquals(200, connection.getResponseCode());
+    InputStream inputStream = connection.getInputStream();
+    while (inputStream.read() != -1) {
+      // Read the body to its end, as GraphResponse does.
+    }
+    inputStream.close();
+  }
+}
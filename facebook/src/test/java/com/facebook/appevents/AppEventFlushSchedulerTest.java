@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.FacebookTestCase;
+import java.util.Random;
+import org.junit.Test;
+
+public class AppEventFlushSchedulerTest extends FacebookTestCase {
+  private static final long NOW = 1_000_000L;
+
+  @Test
+  public void testTimerIsArmedByOldestEvent() {
+    AppEventFlushScheduler scheduler = new AppEventFlushScheduler(new Random(0));
+
+    assertEquals(
+        AppEventFlushScheduler.MAX_EVENT_AGE_MILLIS, scheduler.onEventsAdded(1, 100, NOW));
+    // Later events do not push the deadline back.
+    assertEquals(
+        AppEventFlushScheduler.MAX_EVENT_AGE_MILLIS - 5000,
+        scheduler.onEventsAdded(2, 200, NOW + 5000));
+    assertEquals(0, scheduler.onTimer(NOW + AppEventFlushScheduler.MAX_EVENT_AGE_MILLIS));
+  }
+
+  @Test
+  public void testCountAndSizeThresholdsFlushImmediately() {
+    AppEventFlushScheduler scheduler = new AppEventFlushScheduler(new Random(0));
+
+    assertEquals(
+        0,
+        scheduler.onEventsAdded(AppEventFlushScheduler.NUM_EVENTS_TO_FLUSH_AFTER + 1, 100, NOW));
+    scheduler.onFlushStarted();
+    assertEquals(
+        0,
+        scheduler.onEventsAdded(
+            1, AppEventFlushScheduler.PAYLOAD_LENGTH_TO_FLUSH_AFTER + 1, NOW));
+  }
+
+  @Test
+  public void testNoConnectivityBacksOffWithJitter() {
+    AppEventFlushScheduler scheduler = new AppEventFlushScheduler(new Random(0));
+
+    long previousNominal = 0;
+    for (int failures = 1; failures <= 10; failures++) {
+      FlushStatistics flushStatistics = failedFlush(scheduler, NOW);
+      long nominal =
+          Math.min(
+              AppEventFlushScheduler.MIN_BACKOFF_MILLIS << (failures - 1),
+              AppEventFlushScheduler.MAX_BACKOFF_MILLIS);
+      assertEquals(failures, flushStatistics.consecutiveFailures);
+      assertTrue(flushStatistics.retryDelayMillis >= nominal / 2);
+      assertTrue(flushStatistics.retryDelayMillis <= nominal);
+      assertTrue(nominal >= previousNominal);
+      previousNominal = nominal;
+    }
+
+    FlushStatistics success = new FlushStatistics();
+    scheduler.onFlushStarted();
+    assertEquals(
+        AppEventFlushScheduler.NO_FLUSH_SCHEDULED, scheduler.onFlushCompleted(success, NOW));
+    assertEquals(0, success.consecutiveFailures);
+  }
+
+  @Test
+  public void testThresholdIsDeferredDuringBackoff() {
+    AppEventFlushScheduler scheduler = new AppEventFlushScheduler(new Random(0));
+    long retryDelay = failedFlush(scheduler, NOW).retryDelayMillis;
+
+    long delay =
+        scheduler.onEventsAdded(AppEventFlushScheduler.NUM_EVENTS_TO_FLUSH_AFTER + 1, 0, NOW);
+    assertEquals(retryDelay, delay);
+    assertEquals(0, scheduler.onTimer(NOW + retryDelay));
+
+    FlushStatistics flushStatistics = new FlushStatistics();
+    scheduler.onFlushStarted();
+    scheduler.onFlushCompleted(flushStatistics, NOW + retryDelay);
+    assertEquals(1, flushStatistics.numDeferredFlushes);
+  }
+
+  @Test
+  public void testOfflineDefersUntilConnectivityReturns() {
+    AppEventFlushScheduler scheduler = new AppEventFlushScheduler(new Random(0));
+    failedFlush(scheduler, NOW);
+
+    assertFalse(scheduler.onConnectivityChanged(false));
+    assertEquals(AppEventFlushScheduler.NO_FLUSH_SCHEDULED, scheduler.onEventsAdded(1, 10, NOW));
+    assertEquals(AppEventFlushScheduler.NO_FLUSH_SCHEDULED, scheduler.onTimer(NOW));
+
+    // Coming back online retries right away rather than waiting out the backoff.
+    assertTrue(scheduler.onConnectivityChanged(true));
+    assertEquals(0, scheduler.onTimer(NOW));
+    assertFalse(scheduler.onConnectivityChanged(true));
+  }
+
+  @Test
+  public void testPersistingDeferredEventsRearmsTheTimer() {
+    AppEventFlushScheduler scheduler = new AppEventFlushScheduler(new Random(0));
+    assertFalse(scheduler.onConnectivityChanged(false));
+    scheduler.onEventsAdded(AppEventFlushScheduler.NUM_EVENTS_TO_FLUSH_AFTER + 1, 0, NOW);
+    scheduler.onEventsPersisted();
+
+    // The persisted events still need a flush once the network is back.
+    assertTrue(scheduler.onConnectivityChanged(true));
+    // The next event starts a new deadline instead of inheriting the persisted events' one.
+    long later = NOW + 2 * AppEventFlushScheduler.MAX_EVENT_AGE_MILLIS;
+    assertEquals(
+        AppEventFlushScheduler.MAX_EVENT_AGE_MILLIS, scheduler.onEventsAdded(1, 10, later));
+  }
+
+  private static FlushStatistics failedFlush(AppEventFlushScheduler scheduler, long now) {
+    FlushStatistics flushStatistics = new FlushStatistics();
+    flushStatistics.result = FlushResult.NO_CONNECTIVITY;
+    scheduler.onFlushStarted();
+    scheduler.onFlushCompleted(flushStatistics, now);
+    return flushStatistics;
+  }
+}
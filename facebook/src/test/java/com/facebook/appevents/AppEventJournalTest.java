@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+public class AppEventJournalTest extends FacebookTestCase {
+  private static final AccessTokenAppIdPair ACCESS_TOKEN_APP_ID_PAIR =
+      new AccessTokenAppIdPair("swagtoken", "123456789");
+
+  @Before
+  public void init() {
+    FacebookSdk.setApplicationId("123456789");
+    FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    AppEvent appEvent = AppEventTestUtilities.getTestAppEvent();
+    byte[] bytes = writeSegment(Arrays.asList(appEvent, appEvent));
+
+    PersistedEvents persistedEvents = new PersistedEvents();
+    int recovered =
+        AppEventJournal.readSegment(new ByteArrayInputStream(bytes), persistedEvents);
+
+    Assert.assertEquals(2, recovered);
+    List<AppEvent> events = persistedEvents.get(ACCESS_TOKEN_APP_ID_PAIR);
+    Assert.assertEquals(2, events.size());
+    Assert.assertTrue(events.get(0).isChecksumValid());
+    Assert.assertEquals(
+        appEvent.getJSONObject().toString(), events.get(0).getJSONObject().toString());
+  }
+
+  @Test
+  public void testTornTailIsIgnored() throws Exception {
+    AppEvent appEvent = AppEventTestUtilities.getTestAppEvent();
+    byte[] bytes = writeSegment(Arrays.asList(appEvent, appEvent));
+    byte[] torn = Arrays.copyOf(bytes, bytes.length - 5);
+
+    PersistedEvents persistedEvents = new PersistedEvents();
+    int recovered = AppEventJournal.readSegment(new ByteArrayInputStream(torn), persistedEvents);
+
+    Assert.assertEquals(1, recovered);
+  }
+
+  @Test
+  public void testCorruptedRecordIsSkipped() throws Exception {
+    AppEvent appEvent = AppEventTestUtilities.getTestAppEvent();
+    byte[] bytes = writeSegment(Arrays.asList(appEvent, appEvent));
+    // Flip a byte inside the first record's payload, past the header, length and crc.
+    bytes[8 + 8 + 4] ^= 0xFF;
+
+    PersistedEvents persistedEvents = new PersistedEvents();
+    int recovered =
+        AppEventJournal.readSegment(new ByteArrayInputStream(bytes), persistedEvents);
+
+    Assert.assertEquals(1, recovered);
+  }
+
+  @Test
+  public void testAppendReadAndClear() throws Exception {
+    File directory = RuntimeEnvironment.application.getFilesDir();
+    AppEventJournal journal = new AppEventJournal(directory, "AppEventJournalTest");
+    journal.clear();
+
+    List<AppEvent> events = new ArrayList<>();
+    events.add(AppEventTestUtilities.getTestAppEvent());
+    journal.append(ACCESS_TOKEN_APP_ID_PAIR, events);
+    journal.append(ACCESS_TOKEN_APP_ID_PAIR, events);
+
+    PersistedEvents persistedEvents = new PersistedEvents();
+    journal.readAll(persistedEvents);
+    Assert.assertEquals(2, persistedEvents.get(ACCESS_TOKEN_APP_ID_PAIR).size());
+
+    journal.clear();
+    PersistedEvents afterClear = new PersistedEvents();
+    journal.readAll(afterClear);
+    Assert.assertFalse(afterClear.containsKey(ACCESS_TOKEN_APP_ID_PAIR));
+  }
+
+  @Test
+  public void testOldestSegmentIsDroppedWhenFull() throws Exception {
+    File directory = RuntimeEnvironment.application.getFilesDir();
+    // Every append fills a segment, so each one rotates.
+    AppEventJournal journal = new AppEventJournal(directory, "AppEventJournalBoundTest", 1, 3);
+    journal.clear();
+
+    List<AppEvent> events = new ArrayList<>();
+    events.add(AppEventTestUtilities.getTestAppEvent());
+    for (int i = 0; i < 10; i++) {
+      journal.append(ACCESS_TOKEN_APP_ID_PAIR, events);
+    }
+
+    // Only the three newest segments are kept, and none of them was renamed.
+    Assert.assertFalse(new File(directory, "AppEventJournalBoundTest.6").exists());
+    Assert.assertTrue(new File(directory, "AppEventJournalBoundTest.7").exists());
+    Assert.assertTrue(new File(directory, "AppEventJournalBoundTest.9").exists());
+    PersistedEvents persistedEvents = new PersistedEvents();
+    journal.readAll(persistedEvents);
+    Assert.assertEquals(3, persistedEvents.get(ACCESS_TOKEN_APP_ID_PAIR).size());
+    journal.clear();
+  }
+
+  @Test
+  public void testAppendAfterTornTailKeepsNewEvents() throws Exception {
+    File directory = RuntimeEnvironment.application.getFilesDir();
+    AppEventJournal journal = new AppEventJournal(directory, "AppEventJournalTornTest");
+    journal.clear();
+
+    List<AppEvent> events = new ArrayList<>();
+    events.add(AppEventTestUtilities.getTestAppEvent());
+    events.add(AppEventTestUtilities.getTestAppEvent());
+    journal.append(ACCESS_TOKEN_APP_ID_PAIR, events);
+
+    // Simulate a crash in the middle of writing the second record.
+    File segment = new File(directory, "AppEventJournalTornTest.0");
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    file.setLength(segment.length() - 5);
+    file.close();
+
+    // A new process resumes the journal and appends more events.
+    AppEventJournal resumed = new AppEventJournal(directory, "AppEventJournalTornTest");
+    resumed.append(ACCESS_TOKEN_APP_ID_PAIR, events);
+
+    PersistedEvents persistedEvents = new PersistedEvents();
+    resumed.readAll(persistedEvents);
+    Assert.assertEquals(3, persistedEvents.get(ACCESS_TOKEN_APP_ID_PAIR).size());
+    resumed.clear();
+  }
+
+  private static byte[] writeSegment(List<AppEvent> events) throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(outputStream);
+    AppEventJournal.writeSegmentHeader(out);
+    for (AppEvent appEvent : events) {
+      AppEventJournal.writeRecord(out, ACCESS_TOKEN_APP_ID_PAIR, appEvent);
+    }
+    out.flush();
+    return outputStream.toByteArray();
+  }
+}
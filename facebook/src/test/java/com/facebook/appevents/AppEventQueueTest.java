@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+
+import com.facebook.FacebookPowerMockTestCase;
+import com.facebook.FacebookSdk;
+import com.facebook.GraphRequest;
+import com.facebook.GraphRequestTransport;
+import com.facebook.internal.FetchedAppSettingsManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RuntimeEnvironment;
+
+@PrepareForTest({AppEventStore.class, FacebookSdk.class, FetchedAppSettingsManager.class})
+public class AppEventQueueTest extends FacebookPowerMockTestCase {
+  private static final String ACCEPTED_APP_ID = "1111";
+  private static final String REFUSED_APP_ID = "2222";
+
+  private final AccessTokenAppIdPair accepted =
+      new AccessTokenAppIdPair("accepted-token", ACCEPTED_APP_ID);
+  private final AccessTokenAppIdPair refused =
+      new AccessTokenAppIdPair("refused-token", REFUSED_APP_ID);
+  private final List<JSONObject> batchEntries = new ArrayList<>();
+  private HttpServer server;
+  private GraphRequestTransport originalTransport;
+  private boolean isOffline;
+
+  @Before
+  public void before() throws Exception {
+    PowerMockito.spy(FacebookSdk.class);
+    Whitebox.setInternalState(FacebookSdk.class, "sdkInitialized", true);
+    Whitebox.setInternalState(FacebookSdk.class, "applicationId", ACCEPTED_APP_ID);
+    Whitebox.setInternalState(
+        FacebookSdk.class, "applicationContext", RuntimeEnvironment.application);
+    Whitebox.setInternalState(FacebookSdk.class, "executor", new FacebookSerialExecutor());
+    PowerMockito.mockStatic(FetchedAppSettingsManager.class);
+    PowerMockito.mockStatic(AppEventStore.class);
+
+    // Accepts the events of one app and refuses the other's, one result per batch entry.
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            JSONArray results = new JSONArray();
+            try {
+              JSONArray batch = readBatch(exchange);
+              for (int i = 0; i < batch.length(); i++) {
+                JSONObject entry = batch.getJSONObject(i);
+                batchEntries.add(entry);
+                JSONObject result = new JSONObject();
+                if (entry.getString("relative_url").contains(REFUSED_APP_ID)) {
+                  result.put("code", 400);
+                  result.put("body", "{\"error\":{\"message\":\"Refused\",\"code\":100}}");
+                } else {
+                  result.put("code", 200);
+                  result.put("body", "{\"success\":true}");
+                }
+                results.put(result);
+              }
+            } catch (Exception e) {
+              throw new IOException(e);
+            }
+            byte[] body = results.toString().getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream outputStream = exchange.getResponseBody();
+            outputStream.write(body);
+            outputStream.close();
+          }
+        });
+    server.start();
+
+    originalTransport = GraphRequest.getTransport();
+    GraphRequest.setTransport(
+        new GraphRequestTransport() {
+          @Override
+          public HttpURLConnection openConnection(URL url) throws IOException {
+            if (isOffline) {
+              throw new IOException("No connectivity");
+            }
+            URL local = new URL("http", "127.0.0.1", server.getAddress().getPort(), url.getFile());
+            return (HttpURLConnection) local.openConnection();
+          }
+
+          @Override
+          public void releaseConnection(HttpURLConnection connection, boolean reusable) {
+            connection.disconnect();
+          }
+        });
+  }
+
+  @After
+  public void after() {
+    GraphRequest.setTransport(originalTransport);
+    server.stop(0);
+  }
+
+  @Test
+  public void testBatchedEventsAreSentInEntryBodies() throws Exception {
+    sendEventsToServer(newCollection());
+
+    assertEquals(2, batchEntries.size());
+    for (JSONObject entry : batchEntries) {
+      assertFalse(entry.getString("relative_url").contains("custom_events"));
+      assertTrue(entry.getString("body").contains("custom_events="));
+    }
+  }
+
+  @Test
+  public void testEachSessionGetsItsOwnResult() throws Exception {
+    AppEventCollection collection = newCollection();
+    FlushStatistics flushResults = sendEventsToServer(collection);
+
+    assertEquals(4, flushResults.numEvents);
+    assertEquals(FlushResult.SERVER_ERROR, flushResults.result);
+    // The accepted events are gone; the refused ones are back in the queue for the next flush.
+    assertEquals(0, collection.get(accepted).getAccumulatedEventCount());
+    assertEquals(2, collection.get(refused).getAccumulatedEventCount());
+    assertNoEventsInFlight(collection);
+    PowerMockito.verifyStatic(AppEventStore.class, times(0));
+    AppEventStore.persistEvents(any(AccessTokenAppIdPair.class), any(SessionEventsState.class));
+  }
+
+  @Test
+  public void testBatchLevelFailureReturnsEverySessionToTheQueue() throws Exception {
+    isOffline = true;
+    AppEventCollection collection = newCollection();
+    FlushStatistics flushResults = sendEventsToServer(collection);
+
+    assertEquals(FlushResult.NO_CONNECTIVITY, flushResults.result);
+    assertEquals(2, collection.get(accepted).getAccumulatedEventCount());
+    assertEquals(2, collection.get(refused).getAccumulatedEventCount());
+    assertNoEventsInFlight(collection);
+    PowerMockito.verifyStatic(AppEventStore.class, times(2));
+    AppEventStore.persistEvents(any(AccessTokenAppIdPair.class), any(SessionEventsState.class));
+  }
+
+  @Test
+  public void testEventsOverTheCapAreKeptWhileOffline() throws Exception {
+    final List<AppEvent> persisted = new ArrayList<>();
+    PowerMockito.doAnswer(
+            new Answer<Void>() {
+              @Override
+              public Void answer(InvocationOnMock invocation) {
+                AppEventCollection collection = invocation.getArgument(0);
+                for (AccessTokenAppIdPair accessTokenAppId : collection.keySet()) {
+                  persisted.addAll(collection.get(accessTokenAppId).getEventsToPersist());
+                }
+                return null;
+              }
+            })
+        .when(AppEventStore.class, "persistEvents", any(AppEventCollection.class));
+    AppEventFlushScheduler flushScheduler =
+        Whitebox.getInternalState(AppEventQueue.class, "flushScheduler");
+    AppEventCollection collection = new AppEventCollection();
+    Whitebox.setInternalState(AppEventQueue.class, "appEventCollection", collection);
+    flushScheduler.onConnectivityChanged(false);
+    try {
+      int eventCount = 1500;
+      AppEvent event = AppEventTestUtilities.getTestAppEvent();
+      for (int i = 0; i < eventCount; i++) {
+        collection.addEvent(accepted, event);
+        Whitebox.invokeMethod(AppEventQueue.class, "onEventsAdded");
+      }
+
+      SessionEventsState state = collection.get(accepted);
+      int numSkipped = Whitebox.getInternalState(state, "numSkippedEventsDueToFullBuffer");
+      int numAccumulated = state.getAccumulatedEventCount();
+      assertEquals(0, numSkipped);
+      assertEquals(eventCount, persisted.size() + numAccumulated);
+      assertTrue(numAccumulated <= AppEventFlushScheduler.NUM_EVENTS_TO_FLUSH_AFTER);
+      assertEquals(
+          numAccumulated * event.getJSONString().length(),
+          state.getAccumulatedPayloadLength());
+      assertTrue(batchEntries.isEmpty());
+    } finally {
+      flushScheduler.onConnectivityChanged(true);
+      Whitebox.setInternalState(
+          AppEventQueue.class, "appEventCollection", new AppEventCollection());
+    }
+  }
+
+  private AppEventCollection newCollection() throws Exception {
+    AppEventCollection collection = new AppEventCollection();
+    HashMap<AccessTokenAppIdPair, SessionEventsState> stateMap =
+        Whitebox.getInternalState(collection, "stateMap");
+    for (AccessTokenAppIdPair accessTokenAppId : new AccessTokenAppIdPair[] {accepted, refused}) {
+      SessionEventsState state = new SessionEventsState(null, "anonymous-id");
+      state.addEvent(AppEventTestUtilities.getTestAppEvent());
+      state.addEvent(AppEventTestUtilities.getTestAppEvent());
+      stateMap.put(accessTokenAppId, state);
+    }
+    return collection;
+  }
+
+  private static FlushStatistics sendEventsToServer(AppEventCollection collection)
+      throws Exception {
+    return Whitebox.invokeMethod(
+        AppEventQueue.class, "sendEventsToServer", FlushReason.EXPLICIT, collection);
+  }
+
+  private static void assertNoEventsInFlight(AppEventCollection collection) {
+    for (AccessTokenAppIdPair accessTokenAppId : collection.keySet()) {
+      List<AppEvent> inFlight =
+          Whitebox.getInternalState(collection.get(accessTokenAppId), "inFlightEvents");
+      assertTrue(inFlight.isEmpty());
+    }
+  }
+
+  private static JSONArray readBatch(HttpExchange exchange) throws Exception {
+    InputStream inputStream = exchange.getRequestBody();
+    if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+      inputStream = new GZIPInputStream(inputStream);
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      body.write(buffer, 0, read);
+    }
+    for (String field : body.toString("UTF-8").split("&")) {
+      if (field.startsWith("batch=")) {
+        return new JSONArray(URLDecoder.decode(field.substring("batch=".length()), "UTF-8"));
+      }
+    }
+    throw new IOException("No batch parameter in the request");
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+public class AppEventRingBufferTest extends FacebookTestCase {
+  private static final int NUM_PRODUCERS = 4;
+  private static final int EVENTS_PER_PRODUCER = 500;
+
+  @Before
+  public void init() {
+    FacebookSdk.setApplicationId("123456789");
+    FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+  }
+
+  @Test
+  public void testWraparoundKeepsOrderAndRejectsWhenFull() throws Exception {
+    AppEventRingBuffer ring = new AppEventRingBuffer(4);
+    AccessTokenAppIdPair pair = new AccessTokenAppIdPair("token", "123456789");
+    AppEventCollection collection = new AppEventCollection();
+    List<AppEvent> received = new ArrayList<>();
+
+    int next = 0;
+    // Enough rounds to wrap the 4 slots many times, with a different fill level each round.
+    for (int round = 0; round < 20; round++) {
+      int batch = round % 4 + 1;
+      for (int i = 0; i < batch; i++) {
+        Assert.assertTrue(ring.offer(pair, newEvent(next++)));
+      }
+      if (batch == 4) {
+        Assert.assertFalse(ring.offer(pair, newEvent(-1)));
+      }
+      Assert.assertEquals(batch, ring.drainTo(collection, Integer.MAX_VALUE));
+      received.addAll(collection.get(pair).getEventsToPersist());
+    }
+
+    Assert.assertEquals(next, received.size());
+    for (int i = 0; i < received.size(); i++) {
+      Assert.assertEquals(i, getIndex(received.get(i)));
+    }
+  }
+
+  @Test
+  public void testDrainStopsAtLimit() throws Exception {
+    AppEventRingBuffer ring = new AppEventRingBuffer(8);
+    AccessTokenAppIdPair pair = new AccessTokenAppIdPair("token", "123456789");
+    AppEventCollection collection = new AppEventCollection();
+    for (int i = 0; i < 5; i++) {
+      ring.offer(pair, newEvent(i));
+    }
+
+    Assert.assertEquals(2, ring.drainTo(collection, 2));
+    Assert.assertEquals(2, collection.getEventCount());
+    Assert.assertEquals(3, ring.drainTo(collection, Integer.MAX_VALUE));
+    Assert.assertEquals(0, ring.drainTo(collection, Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testMultipleProducersLoseNothingAndKeepPerProducerOrder() throws Exception {
+    final AppEventRingBuffer ring = new AppEventRingBuffer(64);
+    final AccessTokenAppIdPair[] pairs = new AccessTokenAppIdPair[NUM_PRODUCERS];
+    final AppEvent[][] events = new AppEvent[NUM_PRODUCERS][EVENTS_PER_PRODUCER];
+    for (int p = 0; p < NUM_PRODUCERS; p++) {
+      pairs[p] = new AccessTokenAppIdPair("token" + p, "123456789");
+      for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+        events[p][i] = newEvent(i);
+      }
+    }
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(NUM_PRODUCERS);
+    for (int p = 0; p < NUM_PRODUCERS; p++) {
+      final int producer = p;
+      new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    start.await();
+                    for (AppEvent event : events[producer]) {
+                      while (!ring.offer(pairs[producer], event)) {
+                        Thread.yield();
+                      }
+                    }
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  } finally {
+                    done.countDown();
+                  }
+                }
+              })
+          .start();
+    }
+
+    AppEventCollection collection = new AppEventCollection();
+    List<List<AppEvent>> received = new ArrayList<>();
+    for (int p = 0; p < NUM_PRODUCERS; p++) {
+      received.add(new ArrayList<AppEvent>());
+    }
+    start.countDown();
+    int total = 0;
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+    while (total < NUM_PRODUCERS * EVENTS_PER_PRODUCER
+        && System.currentTimeMillis() < deadline) {
+      // Drain in small steps so producers keep wrapping around the ring.
+      total += ring.drainTo(collection, 16);
+      for (int p = 0; p < NUM_PRODUCERS; p++) {
+        SessionEventsState state = collection.get(pairs[p]);
+        if (state != null) {
+          received.get(p).addAll(state.getEventsToPersist());
+        }
+      }
+    }
+    Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    Assert.assertEquals(NUM_PRODUCERS * EVENTS_PER_PRODUCER, total);
+    for (int p = 0; p < NUM_PRODUCERS; p++) {
+      List<AppEvent> producerEvents = received.get(p);
+      Assert.assertEquals(EVENTS_PER_PRODUCER, producerEvents.size());
+      for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+        Assert.assertSame(events[p][i], producerEvents.get(i));
+      }
+    }
+  }
+
+  private static AppEvent newEvent(int index) throws Exception {
+    return new AppEvent("context", "event", (double) index, null, false, false, null);
+  }
+
+  private static int getIndex(AppEvent appEvent) throws Exception {
+    return (int) appEvent.getJSONObject().getDouble(AppEventsConstants.EVENT_PARAM_VALUE_TO_SUM);
+  }
+}
@@ -50,8 +50,10 @@ public class AppEventTest extends FacebookTestCase {
   public void testChecksumOfAppEvent() throws Exception {
     AppEvent appEvent = AppEventTestUtilities.getTestAppEvent();
     Assert.assertTrue(appEvent.isChecksumValid());
+    // The returned JSON is a copy, so changing it leaves the event and its checksum intact.
     appEvent.getJSONObject().put("new_key", "corrupted");
-    Assert.assertFalse(appEvent.isChecksumValid());
+    Assert.assertFalse(appEvent.getJSONObject().has("new_key"));
+    Assert.assertTrue(appEvent.isChecksumValid());
   }
 
   @Test
@@ -73,4 +75,24 @@ public class AppEventTest extends FacebookTestCase {
     Assert.assertTrue(
         appEvent1.getJSONObject().toString().equals(appEvent2.getJSONObject().toString()));
   }
+
+  @Test
+  public void testPersistedJsonStringIsReused() throws Exception {
+    AppEvent appEvent = AppEventTestUtilities.getTestAppEvent();
+    Assert.assertEquals(appEvent.getJSONObject().toString(), appEvent.getJSONString());
+
+    AppEvent persisted =
+        AppEvent.createFromPersistedJson(
+            appEvent.getJSONString(), false, false, appEvent.getChecksum());
+    Assert.assertSame(appEvent.getJSONString(), persisted.getJSONString());
+    Assert.assertTrue(persisted.isChecksumValid());
+
+    AppEvent tampered =
+        AppEvent.createFromPersistedJson(
+            appEvent.getJSONString().replace("}", ",\"new_key\":\"corrupted\"}"),
+            false,
+            false,
+            appEvent.getChecksum());
+    Assert.assertFalse(tampered.isChecksumValid());
+  }
 }
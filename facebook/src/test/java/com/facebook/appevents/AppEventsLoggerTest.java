@@ -225,6 +225,30 @@ public class AppEventsLoggerTest extends FacebookPowerMockTestCase {
     Assert.assertEquals(jsonObject.getString("app_user_id"), userID);
   }
 
+  @Test
+  public void testDeviceEnvelopeRefreshedOnDataProcessingOptionsChange() throws Exception {
+    FacebookSdk.setDataProcessingOptions(new String[] {});
+    JSONObject first =
+        AppEventsLoggerUtility.getJSONObjectForGraphAPICall(
+            AppEventsLoggerUtility.GraphAPIActivityType.MOBILE_INSTALL_EVENT,
+            null,
+            "123",
+            true,
+            FacebookSdk.getApplicationContext());
+    Assert.assertEquals(0, first.getJSONArray("data_processing_options").length());
+
+    FacebookSdk.setDataProcessingOptions(new String[] {"LDU"}, 1, 1000);
+    JSONObject second =
+        AppEventsLoggerUtility.getJSONObjectForGraphAPICall(
+            AppEventsLoggerUtility.GraphAPIActivityType.MOBILE_INSTALL_EVENT,
+            null,
+            "123",
+            true,
+            FacebookSdk.getApplicationContext());
+    Assert.assertEquals("LDU", second.getJSONArray("data_processing_options").getString(0));
+    Assert.assertEquals(1, second.getInt("data_processing_options_country"));
+  }
+
   @Test
   public void testActivateApp() throws Exception {
     Application mockApplication = PowerMockito.mock(Application.class);
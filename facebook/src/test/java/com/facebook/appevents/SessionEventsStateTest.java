@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.appevents;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import android.os.Bundle;
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.facebook.GraphRequest;
+import com.facebook.LoggingBehavior;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+public class SessionEventsStateTest extends FacebookTestCase {
+  @Before
+  public void init() {
+    FacebookSdk.setApplicationId("123456789");
+    FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+  }
+
+  @After
+  public void after() {
+    FacebookSdk.setIsDebugEnabled(false);
+    FacebookSdk.clearLoggingBehaviors();
+  }
+
+  @Test
+  public void testPopulateRequestFiltersImplicitEvents() throws Exception {
+    AppEvent explicit1 = newEvent("explicit1", false);
+    AppEvent implicit = newEvent("implicit", true);
+    AppEvent explicit2 = newEvent("explicit2", false);
+    SessionEventsState state = newState(explicit1, implicit, explicit2);
+    GraphRequest request = newRequest();
+
+    assertEquals(2, state.populateRequest(request, RuntimeEnvironment.application, false, false));
+
+    JSONObject graphObject = request.getGraphObject();
+    assertEquals(
+        "[" + explicit1.getJSONString() + "," + explicit2.getJSONString() + "]",
+        graphObject.getString(SessionEventsState.CUSTOM_EVENTS_KEY));
+    assertFalse(request.getParameters().containsKey(SessionEventsState.CUSTOM_EVENTS_KEY));
+  }
+
+  @Test
+  public void testPopulateRequestIncludesImplicitEventsWhenSupported() throws Exception {
+    SessionEventsState state = newState(newEvent("explicit", false), newEvent("implicit", true));
+    GraphRequest request = newRequest();
+
+    assertEquals(2, state.populateRequest(request, RuntimeEnvironment.application, true, false));
+    JSONArray events =
+        new JSONArray(request.getGraphObject().getString(SessionEventsState.CUSTOM_EVENTS_KEY));
+    assertEquals(2, events.length());
+  }
+
+  @Test
+  public void testPopulateRequestWithOnlyFilteredEvents() throws Exception {
+    SessionEventsState state = newState(newEvent("implicit", true));
+    GraphRequest request = newRequest();
+
+    assertEquals(0, state.populateRequest(request, RuntimeEnvironment.application, false, false));
+    assertNull(request.getGraphObject());
+  }
+
+  @Test
+  public void testPopulateRequestTagsEventsOnlyWhenLogging() throws Exception {
+    GraphRequest request = newRequest();
+    newState(newEvent("explicit", false))
+        .populateRequest(request, RuntimeEnvironment.application, false, false);
+    assertNull(request.getTag());
+
+    FacebookSdk.setIsDebugEnabled(true);
+    FacebookSdk.addLoggingBehavior(LoggingBehavior.APP_EVENTS);
+    request = newRequest();
+    newState(newEvent("explicit", false))
+        .populateRequest(request, RuntimeEnvironment.application, false, false);
+    assertEquals(
+        request.getGraphObject().getString(SessionEventsState.CUSTOM_EVENTS_KEY),
+        request.getTag());
+  }
+
+  private static SessionEventsState newState(AppEvent... events) {
+    SessionEventsState state = new SessionEventsState(null, "anonymous-id");
+    for (AppEvent event : events) {
+      state.addEvent(event);
+    }
+    return state;
+  }
+
+  private static GraphRequest newRequest() {
+    return GraphRequest.newPostRequest(null, "123456789/activities", null, null);
+  }
+
+  private static AppEvent newEvent(String eventName, boolean isImplicit) throws Exception {
+    return new AppEvent("contextName", eventName, 1.0, new Bundle(), isImplicit, false, null);
+  }
+}
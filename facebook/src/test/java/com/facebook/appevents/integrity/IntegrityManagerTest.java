@@ -1,35 +1,44 @@
 /*
  * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
  *
- * You are hereby granted a non-exclusive, worldwide, royalty-free license to use, copy, modify,
- * and distribute this software in source code or binary form for use in connection with the web
- * services and APIs provided by Facebook.
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
  *
- * As with any software that integrates with the Facebook platform, your use of this software is
- * subject to the Facebook Developer Principles and Policies
- * [http://developers.facebook.com/policy/]. This copyright notice shall be included in all copies
- * or substantial portions of the software.
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
  *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
- * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
- * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
- * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
 package com.facebook.appevents.integrity;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 
 import com.facebook.FacebookPowerMockTestCase;
 import com.facebook.FacebookSdk;
 import com.facebook.appevents.ml.ModelManager;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.reflect.Whitebox;
@@ -41,6 +50,8 @@ import org.powermock.reflect.Whitebox;
 })
 public class IntegrityManagerTest extends FacebookPowerMockTestCase {
   private final Executor mockExecutor = new FacebookSerialExecutor();
+  private final Map<String, String> mockVerdicts = new HashMap<>();
+  private final List<List<String>> predictCalls = new ArrayList<>();
 
   @Before
   @Override
@@ -49,8 +60,31 @@ public class IntegrityManagerTest extends FacebookPowerMockTestCase {
     Whitebox.setInternalState(FacebookSdk.class, "sdkInitialized", true);
     Whitebox.setInternalState(FacebookSdk.class, "executor", mockExecutor);
     IntegrityManager.enable();
-    PowerMockito.spy(IntegrityManager.class);
     Whitebox.setInternalState(IntegrityManager.class, "isSampleEnabled", true);
+
+    // Stand in for the model: every batch is answered from mockVerdicts and recorded.
+    PowerMockito.mockStatic(ModelManager.class);
+    PowerMockito.when(ModelManager.getModelVersion(ModelManager.Task.MTML_INTEGRITY_DETECT))
+        .thenReturn(-1);
+    PowerMockito.when(
+            ModelManager.predict(
+                eq(ModelManager.Task.MTML_INTEGRITY_DETECT),
+                any(float[][].class),
+                any(String[].class)))
+        .thenAnswer(
+            new Answer<String[]>() {
+              @Override
+              public String[] answer(InvocationOnMock invocation) {
+                String[] texts = (String[]) invocation.getArguments()[2];
+                predictCalls.add(Arrays.asList(texts));
+                String[] results = new String[texts.length];
+                for (int i = 0; i < texts.length; i++) {
+                  String verdict = mockVerdicts.get(texts[i]);
+                  results[i] = verdict == null ? IntegrityManager.INTEGRITY_TYPE_NONE : verdict;
+                }
+                return results;
+              }
+            });
   }
 
   @Test
@@ -59,14 +93,7 @@ public class IntegrityManagerTest extends FacebookPowerMockTestCase {
     mockParameters.put("customer_Address", "1 Hacker way");
     mockParameters.put("customer_event", "event");
 
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_NONE)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "customer_Address");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_ADDRESS)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "1 Hacker way");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_NONE)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "customer_event");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_NONE)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "event");
+    mockVerdicts.put("1 Hacker way", IntegrityManager.INTEGRITY_TYPE_ADDRESS);
 
     Map<String, String> expectedParameters = new HashMap<>();
     JSONObject jsonObject = new JSONObject();
@@ -86,18 +113,8 @@ public class IntegrityManagerTest extends FacebookPowerMockTestCase {
     mockParameters.put("customer_health", "heart attack");
     mockParameters.put("customer_event", "event");
 
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_HEALTH)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "is_pregnant");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_NONE)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "yes");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_NONE)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "customer_health");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_HEALTH)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "heart attack");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_NONE)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "customer_event");
-    PowerMockito.doReturn(IntegrityManager.INTEGRITY_TYPE_NONE)
-        .when(IntegrityManager.class, "getIntegrityPredictionResult", "event");
+    mockVerdicts.put("is_pregnant", IntegrityManager.INTEGRITY_TYPE_HEALTH);
+    mockVerdicts.put("heart attack", IntegrityManager.INTEGRITY_TYPE_HEALTH);
 
     Map<String, String> expectedParameters = new HashMap<>();
     JSONObject jsonObject = new JSONObject();
@@ -110,4 +127,56 @@ public class IntegrityManagerTest extends FacebookPowerMockTestCase {
     assertEquals(2, mockParameters.size());
     assertEquals(expectedParameters, mockParameters);
   }
+
+  @Test
+  public void testAllTextsScoredInOneBatch() {
+    List<String> texts = Arrays.asList("customer_Address", "1 Hacker way", "fb_currency", "USD");
+    mockVerdicts.put("1 Hacker way", IntegrityManager.INTEGRITY_TYPE_ADDRESS);
+
+    Map<String, String> verdicts = IntegrityManager.getIntegrityPredictionResults(texts);
+
+    assertEquals(1, predictCalls.size());
+    assertEquals(texts, predictCalls.get(0));
+    assertEquals(IntegrityManager.INTEGRITY_TYPE_ADDRESS, verdicts.get("1 Hacker way"));
+    assertEquals(IntegrityManager.INTEGRITY_TYPE_NONE, verdicts.get("USD"));
+  }
+
+  @Test
+  public void testCachedVerdictsAreNotScoredAgain() {
+    PowerMockito.when(ModelManager.getModelVersion(ModelManager.Task.MTML_INTEGRITY_DETECT))
+        .thenReturn(Integer.MAX_VALUE);
+    mockVerdicts.put("cache_test_address", IntegrityManager.INTEGRITY_TYPE_ADDRESS);
+    long hits = IntegrityManager.getVerdictCacheHitCount();
+
+    IntegrityManager.getIntegrityPredictionResults(
+        Arrays.asList("cache_test_key", "cache_test_address"));
+    Map<String, String> verdicts =
+        IntegrityManager.getIntegrityPredictionResults(
+            Arrays.asList("cache_test_address", "cache_test_new"));
+
+    // The second batch only carries the text that was not cached yet.
+    assertEquals(2, predictCalls.size());
+    assertEquals(Arrays.asList("cache_test_new"), predictCalls.get(1));
+    assertEquals(IntegrityManager.INTEGRITY_TYPE_ADDRESS, verdicts.get("cache_test_address"));
+    assertEquals(hits + 1, IntegrityManager.getVerdictCacheHitCount());
+  }
+
+  @Test
+  public void testNoModelFiltersNothingAndCachesNothing() {
+    PowerMockito.when(ModelManager.getModelVersion(ModelManager.Task.MTML_INTEGRITY_DETECT))
+        .thenReturn(Integer.MAX_VALUE - 1);
+    PowerMockito.when(
+            ModelManager.predict(
+                eq(ModelManager.Task.MTML_INTEGRITY_DETECT),
+                any(float[][].class),
+                any(String[].class)))
+        .thenReturn(null);
+
+    Map<String, String> verdicts =
+        IntegrityManager.getIntegrityPredictionResults(Arrays.asList("no_model_text"));
+    assertEquals(IntegrityManager.INTEGRITY_TYPE_NONE, verdicts.get("no_model_text"));
+
+    IntegrityVerdictCache cache = Whitebox.getInternalState(IntegrityManager.class, "verdictCache");
+    assertNull(cache.get(Integer.MAX_VALUE - 1, "no_model_text"));
+  }
 }
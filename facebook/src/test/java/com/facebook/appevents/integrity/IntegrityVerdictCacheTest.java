@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use, copy, modify,
+ * and distribute this software in source code or binary form for use in connection with the web
+ * services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of this software is
+ * subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be included in all copies
+ * or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.facebook.appevents.integrity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class IntegrityVerdictCacheTest {
+
+  @Test
+  public void testHitAndMissCounters() {
+    IntegrityVerdictCache cache = new IntegrityVerdictCache(4);
+    assertNull(cache.get(1, "fb_content_type"));
+    cache.put(1, "fb_content_type", IntegrityManager.INTEGRITY_TYPE_NONE);
+    assertEquals(IntegrityManager.INTEGRITY_TYPE_NONE, cache.get(1, "fb_content_type"));
+
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() {
+    IntegrityVerdictCache cache = new IntegrityVerdictCache(2);
+    cache.put(1, "a", IntegrityManager.INTEGRITY_TYPE_NONE);
+    cache.put(1, "b", IntegrityManager.INTEGRITY_TYPE_NONE);
+    // Touch "a" so "b" becomes the eldest entry.
+    cache.get(1, "a");
+    cache.put(1, "c", IntegrityManager.INTEGRITY_TYPE_ADDRESS);
+
+    assertEquals(2, cache.size());
+    assertNull(cache.get(1, "b"));
+    assertEquals(IntegrityManager.INTEGRITY_TYPE_NONE, cache.get(1, "a"));
+    assertEquals(IntegrityManager.INTEGRITY_TYPE_ADDRESS, cache.get(1, "c"));
+  }
+
+  @Test
+  public void testModelVersionChangeDropsVerdicts() {
+    IntegrityVerdictCache cache = new IntegrityVerdictCache(4);
+    cache.put(1, "1 Hacker way", IntegrityManager.INTEGRITY_TYPE_ADDRESS);
+    assertNull(cache.get(2, "1 Hacker way"));
+    assertEquals(0, cache.size());
+  }
+}
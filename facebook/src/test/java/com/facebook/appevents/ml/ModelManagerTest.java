@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use, copy, modify,
+ * and distribute this software in source code or binary form for use in connection with the web
+ * services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of this software is
+ * subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be included in all copies
+ * or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.facebook.appevents.ml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import com.facebook.FacebookTestCase;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RuntimeEnvironment;
+
+public class ModelManagerTest extends FacebookTestCase {
+  private static final String[] TEXTS =
+      new String[] {
+        "fb_content_type", "product", "customer_Address", "1 Hacker way", "fb_currency", "USD",
+      };
+
+  @Before
+  public void init() throws Exception {
+    File file = new File(RuntimeEnvironment.application.getCacheDir(), "integrity_model");
+    Model model = Model.build(ModelTestUtils.writeRandomModel(file, 42));
+    assertNotNull(model);
+
+    JSONObject json = new JSONObject();
+    json.put("use_case", ModelManager.Task.MTML_INTEGRITY_DETECT.toUseCase());
+    json.put("asset_uri", "asset");
+    json.put("version_id", 1);
+    json.put("thresholds", new JSONArray(Arrays.asList("0.3", "0.3", "0.3")));
+    Object handler =
+        Whitebox.invokeMethod(
+            Class.forName("com.facebook.appevents.ml.ModelManager$TaskHandler"), "build", json);
+    Whitebox.setInternalState(handler, "model", model);
+
+    getTaskHandlers().put(ModelManager.Task.MTML_INTEGRITY_DETECT.toUseCase(), handler);
+  }
+
+  @After
+  public void tearDown() {
+    getTaskHandlers().clear();
+  }
+
+  private static Map<String, Object> getTaskHandlers() {
+    return Whitebox.getInternalState(ModelManager.class, "mTaskHandlers");
+  }
+
+  @Test
+  public void testBatchedIntegrityVerdictsMatchPerText() {
+    float[] dense = new float[ModelTestUtils.DENSE_FEATURE_SIZE];
+    float[][] denses = new float[TEXTS.length][];
+    Arrays.fill(denses, dense);
+
+    String[] batched =
+        ModelManager.predict(ModelManager.Task.MTML_INTEGRITY_DETECT, denses, TEXTS);
+    assertNotNull(batched);
+
+    String[] perText = new String[TEXTS.length];
+    for (int i = 0; i < TEXTS.length; i++) {
+      String[] res =
+          ModelManager.predict(
+              ModelManager.Task.MTML_INTEGRITY_DETECT,
+              new float[][] {dense},
+              new String[] {TEXTS[i]});
+      assertNotNull(res);
+      perText[i] = res[0];
+    }
+
+    assertArrayEquals(perText, batched);
+  }
+}
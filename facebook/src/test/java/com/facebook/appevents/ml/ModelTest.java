@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use, copy, modify,
+ * and distribute this software in source code or binary form for use in connection with the web
+ * services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of this software is
+ * subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be included in all copies
+ * or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.facebook.appevents.ml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.FacebookTestCase;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.RuntimeEnvironment;
+
+public class ModelTest extends FacebookTestCase {
+  private static final String TASK = ModelManager.Task.MTML_INTEGRITY_DETECT.toKey();
+  private static final String[] TEXTS = new String[] {"fb_content_type", "1 Hacker way", "USD"};
+
+  private Model model;
+
+  @Before
+  public void init() throws Exception {
+    File file = new File(RuntimeEnvironment.application.getCacheDir(), "mtml_model");
+    model = Model.build(ModelTestUtils.writeRandomModel(file, 7));
+    assertNotNull(model);
+  }
+
+  @Test
+  public void testArenaReuseAcrossBatchSizes() {
+    float[] first = predict(TEXTS);
+    // A smaller and then a larger batch must not leave stale data in the reused buffers.
+    predict(new String[] {"fb_currency"});
+    predict(new String[] {"a", "b", "c", "d", "e"});
+    float[] second = predict(TEXTS);
+
+    assertArrayEquals(first, second, 0f);
+  }
+
+  @Test
+  public void testConvWeightsArePackedWithoutMaterializingTheMapping() throws Exception {
+    File file = new File(RuntimeEnvironment.application.getCacheDir(), "mtml_model_load");
+    ModelTestUtils.writeRandomModel(file, 11);
+    Map<String, MTensor> weights = Whitebox.invokeMethod(Model.class, "parse", file);
+    assertNotNull(weights);
+    MTensor serialized = weights.get("convs.1.weight");
+
+    MTensor packed = Whitebox.invokeMethod(Model.class, "packConvWeight", serialized);
+    // Packing read the mapped view directly; the serialized weights were never copied.
+    assertNull(Whitebox.getInternalState(serialized, "data"));
+
+    MTensor expected = Operator.packConv1DWeight(Operator.transpose3D(serialized));
+    assertArrayEquals(expected.getData(), packed.getData(), 0f);
+
+    Model loaded = Model.build(file);
+    assertNotNull(loaded);
+    MTensor loadedConv = Whitebox.getInternalState(loaded, "convs_1_weight");
+    assertArrayEquals(expected.getData(), loadedConv.getData(), 0f);
+  }
+
+  private float[] predict(String[] texts) {
+    MTensor dense = new MTensor(new int[] {texts.length, ModelTestUtils.DENSE_FEATURE_SIZE});
+    MTensor res = model.predictOnMTML(dense, texts, TASK);
+    assertNotNull(res);
+    int size = res.getShape(0) * res.getShape(1);
+    // The result lives in the arena, so copy it before the next prediction.
+    return Arrays.copyOf(res.getData(), size);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use, copy, modify,
+ * and distribute this software in source code or binary form for use in connection with the web
+ * services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of this software is
+ * subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be included in all copies
+ * or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.facebook.appevents.ml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/** Writes small MTML models with random weights in the on-disk format read by Model.parse. */
+public class ModelTestUtils {
+  static final int EMBEDDING_SIZE = 8;
+  static final int CONV_CHANNELS = 4;
+  static final int KERNEL_SIZE = 3;
+  static final int DENSE_FEATURE_SIZE = 30;
+  static final int FC1_SIZE = 16;
+  static final int FC2_SIZE = 8;
+
+  public static File writeRandomModel(File file, long seed) throws Exception {
+    Map<String, int[]> shapes = new LinkedHashMap<>();
+    shapes.put("embed.weight", new int[] {256, EMBEDDING_SIZE});
+    shapes.put("convs.0.weight", new int[] {CONV_CHANNELS, EMBEDDING_SIZE, KERNEL_SIZE});
+    shapes.put("convs.0.bias", new int[] {CONV_CHANNELS});
+    shapes.put("convs.1.weight", new int[] {CONV_CHANNELS, CONV_CHANNELS, KERNEL_SIZE});
+    shapes.put("convs.1.bias", new int[] {CONV_CHANNELS});
+    shapes.put("convs.2.weight", new int[] {CONV_CHANNELS, CONV_CHANNELS, KERNEL_SIZE});
+    shapes.put("convs.2.bias", new int[] {CONV_CHANNELS});
+    shapes.put("fc1.weight", new int[] {FC1_SIZE, CONV_CHANNELS * 3 + DENSE_FEATURE_SIZE});
+    shapes.put("fc1.bias", new int[] {FC1_SIZE});
+    shapes.put("fc2.weight", new int[] {FC2_SIZE, FC1_SIZE});
+    shapes.put("fc2.bias", new int[] {FC2_SIZE});
+    shapes.put("integrity_detect.weight", new int[] {3, FC2_SIZE});
+    shapes.put("integrity_detect.bias", new int[] {3});
+    shapes.put("app_event_pred.weight", new int[] {5, FC2_SIZE});
+    shapes.put("app_event_pred.bias", new int[] {5});
+
+    JSONObject header = new JSONObject();
+    int floatCount = 0;
+    for (Map.Entry<String, int[]> entry : shapes.entrySet()) {
+      JSONArray shape = new JSONArray();
+      int count = 1;
+      for (int dim : entry.getValue()) {
+        shape.put(dim);
+        count *= dim;
+      }
+      header.put(entry.getKey(), shape);
+      floatCount += count;
+    }
+    byte[] headerBytes = header.toString().getBytes("UTF-8");
+
+    // Every weight is random, so the payload order does not need to match the sorted key order
+    // that Model.parse reads tensors in.
+    ByteBuffer buffer = ByteBuffer.allocate(4 + headerBytes.length + floatCount * 4);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(headerBytes.length);
+    buffer.put(headerBytes);
+    Random random = new Random(seed);
+    for (int i = 0; i < floatCount; i++) {
+      buffer.putFloat(random.nextFloat() * 2 - 1);
+    }
+
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(buffer.array());
+    } finally {
+      outputStream.close();
+    }
+    return file;
+  }
+
+  public static MTensor randomTensor(int[] shape, Random random) {
+    MTensor tensor = new MTensor(shape);
+    float[] data = tensor.getData();
+    for (int i = 0; i < data.length; i++) {
+      data[i] = random.nextFloat() * 2 - 1;
+    }
+    return tensor;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use, copy, modify,
+ * and distribute this software in source code or binary form for use in connection with the web
+ * services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of this software is
+ * subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be included in all copies
+ * or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING
+ * BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.facebook.appevents.ml;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** Checks the packed kernels in Operator against the reference kernels on randomized shapes. */
+public class OperatorKernelEquivalenceTest {
+  private static final int ITERATIONS = 25;
+  private static final float DELTA = 1e-5f;
+
+  private final Random random = new Random(20200601);
+
+  @Test
+  public void testConv1DPackedMatchesReference() {
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+      MTensor x = randomInput();
+      MTensor w = randomConvWeight(x.getShape(2));
+
+      MTensor expected = Operator.conv1D(x, w);
+      MTensor actual = newLike(expected);
+      Operator.conv1DPacked(x, Operator.packConv1DWeight(w), actual);
+
+      assertArrayEquals(expected.getData(), actual.getData(), DELTA);
+    }
+  }
+
+  @Test
+  public void testFusedConv1DBiasReluMatchesReference() {
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+      MTensor x = randomInput();
+      MTensor w = randomConvWeight(x.getShape(2));
+      MTensor b = ModelTestUtils.randomTensor(new int[] {w.getShape(2)}, random);
+
+      MTensor expected = Operator.conv1D(x, w);
+      Operator.addmv(expected, b);
+      Operator.relu(expected);
+      MTensor actual = newLike(expected);
+      Operator.conv1DBiasReluPacked(x, Operator.packConv1DWeight(w), b, actual);
+
+      assertArrayEquals(expected.getData(), actual.getData(), DELTA);
+    }
+  }
+
+  @Test
+  public void testDensePackedMatchesReference() {
+    for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+      int n_examples = 1 + random.nextInt(6);
+      int input_size = 1 + random.nextInt(70);
+      int output_size = 1 + random.nextInt(40);
+      MTensor x = ModelTestUtils.randomTensor(new int[] {n_examples, input_size}, random);
+      MTensor w = ModelTestUtils.randomTensor(new int[] {input_size, output_size}, random);
+      MTensor b = ModelTestUtils.randomTensor(new int[] {output_size}, random);
+
+      MTensor expected = Operator.dense(x, w, b);
+      MTensor actual = newLike(expected);
+      Operator.densePacked(x, Operator.packDenseWeight(w), b, actual);
+
+      assertArrayEquals(expected.getData(), actual.getData(), DELTA);
+    }
+  }
+
+  private MTensor randomInput() {
+    int n_examples = 1 + random.nextInt(4);
+    int seq_len = 5 + random.nextInt(40);
+    int input_size = 1 + random.nextInt(20);
+    return ModelTestUtils.randomTensor(new int[] {n_examples, seq_len, input_size}, random);
+  }
+
+  private MTensor randomConvWeight(int input_size) {
+    int kernel_size = 1 + random.nextInt(5);
+    int output_size = 1 + random.nextInt(40);
+    return ModelTestUtils.randomTensor(new int[] {kernel_size, input_size, output_size}, random);
+  }
+
+  private static MTensor newLike(MTensor tensor) {
+    int[] shape = new int[tensor.getShapeSize()];
+    for (int i = 0; i < shape.length; i++) {
+      shape[i] = tensor.getShape(i);
+    }
+    return new MTensor(shape);
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BitmapDecoderTest {
+  @Test
+  public void testSampleSizeKeepsImageAtLeastTargetSize() {
+    assertEquals(1, BitmapDecoder.calculateInSampleSize(100, 100, 100, 100));
+    assertEquals(1, BitmapDecoder.calculateInSampleSize(199, 199, 100, 100));
+    assertEquals(2, BitmapDecoder.calculateInSampleSize(200, 200, 100, 100));
+    assertEquals(8, BitmapDecoder.calculateInSampleSize(1080, 1080, 128, 128));
+  }
+
+  @Test
+  public void testSampleSizeIsLimitedBySmallerRatio() {
+    assertEquals(2, BitmapDecoder.calculateInSampleSize(1600, 400, 200, 200));
+  }
+
+  @Test
+  public void testUnspecifiedDimensionDoesNotLimit() {
+    assertEquals(
+        4,
+        BitmapDecoder.calculateInSampleSize(
+            800, 50, 200, ImageRequest.UNSPECIFIED_DIMENSION));
+  }
+
+  @Test
+  public void testUnknownBoundsAreNotSampled() {
+    assertEquals(1, BitmapDecoder.calculateInSampleSize(-1, -1, 50, 50));
+  }
+}
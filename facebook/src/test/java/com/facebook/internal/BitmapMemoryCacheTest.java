@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import com.facebook.FacebookTestCase;
+import org.junit.Test;
+
+public class BitmapMemoryCacheTest extends FacebookTestCase {
+  private static final String FIRST = "https://graph.facebook.com/1/picture";
+  private static final String SECOND = "https://graph.facebook.com/2/picture";
+  private static final String THIRD = "https://graph.facebook.com/3/picture";
+
+  @Test
+  public void testHitsAndMissesAreCounted() {
+    BitmapMemoryCache cache = new BitmapMemoryCache(1024 * 1024);
+    Bitmap bitmap = createBitmap();
+
+    assertNull(cache.get(FIRST, true));
+    cache.put(FIRST, bitmap, false);
+    BitmapMemoryCache.Entry entry = cache.get(new String(FIRST), true);
+
+    assertNotNull(entry);
+    assertSame(bitmap, entry.bitmap);
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.5, cache.getHitRate(), 0);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedByBytes() {
+    Bitmap bitmap = createBitmap();
+    BitmapMemoryCache cache = new BitmapMemoryCache(2 * bitmap.getByteCount());
+
+    cache.put(FIRST, bitmap, false);
+    cache.put(SECOND, createBitmap(), false);
+    cache.get(FIRST, true);
+    cache.put(THIRD, createBitmap(), false);
+
+    assertNotNull(cache.get(FIRST, true));
+    assertNull(cache.get(SECOND, true));
+    assertNotNull(cache.get(THIRD, true));
+    assertEquals(2 * bitmap.getByteCount(), cache.getSizeBytes());
+  }
+
+  @Test
+  public void testCachedRedirectRequiresPermission() {
+    BitmapMemoryCache cache = new BitmapMemoryCache(1024 * 1024);
+    cache.put(FIRST, createBitmap(), true);
+
+    assertNull(cache.get(FIRST, false));
+    assertNotNull(cache.get(FIRST, true));
+  }
+
+  @Test
+  public void testTrimMemory() {
+    Bitmap bitmap = createBitmap();
+    BitmapMemoryCache cache = new BitmapMemoryCache(1024 * 1024);
+    cache.put(FIRST, bitmap, false);
+    cache.put(SECOND, createBitmap(), false);
+
+    cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+    assertEquals(bitmap.getByteCount(), cache.getSizeBytes());
+    assertNotNull(cache.get(SECOND, true));
+
+    cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    assertEquals(0, cache.getSizeBytes());
+  }
+
+  private static Bitmap createBitmap() {
+    return Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+  }
+}
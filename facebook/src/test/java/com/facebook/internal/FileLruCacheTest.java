@@ -30,10 +30,13 @@ import com.facebook.FacebookTestCase;
 import com.facebook.TestUtils;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.Random;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -359,6 +362,124 @@ public final class FileLruCacheTest extends FacebookTestCase {
     return bytes;
   }
 
+  @Test
+  public void testIndexSurvivesRestart() throws Exception {
+    byte[] data = generateBytes(32);
+
+    FileLruCache cache = new FileLruCache("testIndexSurvivesRestart", limitCacheCount(3));
+    try {
+      TestUtils.clearFileLruCache(cache);
+      for (int i = 0; i < 3; i++) {
+        put(cache, i, data);
+        Thread.sleep(10);
+      }
+      // Waits for the pending trim, which also checkpoints the index.
+      cache.sizeInBytesForTest();
+
+      FileLruCache restarted = new FileLruCache("testIndexSurvivesRestart", limitCacheCount(2));
+      put(restarted, 3, data);
+      restarted.sizeInBytesForTest();
+
+      assertEquals(false, hasValue(restarted, 0));
+      assertEquals(false, hasValue(restarted, 1));
+      checkValue(restarted, 2, data);
+      checkValue(restarted, 3, data);
+    } finally {
+      TestUtils.clearAndDeleteLruCacheDirectory(cache);
+    }
+  }
+
+  @Test
+  public void testGetDoesNotTouchFile() throws Exception {
+    byte[] data = generateBytes(32);
+    String key = "a";
+
+    FileLruCache cache = new FileLruCache("testGetDoesNotTouchFile", limitCacheCount(2));
+    try {
+      TestUtils.clearFileLruCache(cache);
+      put(cache, key, data);
+      cache.sizeInBytesForTest();
+
+      File file = new File(cache.getLocation(), Utility.md5hash(key));
+      long modified = 1000 * 1000;
+      assertTrue(file.setLastModified(modified));
+      checkValue(cache, key, data);
+
+      assertEquals(modified, file.lastModified());
+    } finally {
+      TestUtils.clearAndDeleteLruCacheDirectory(cache);
+    }
+  }
+
+  @Test
+  public void testLegacyHeaderIsStillRead() throws Exception {
+    byte[] data = generateBytes(32);
+    String key = "legacy";
+
+    FileLruCache cache = new FileLruCache("testLegacyHeaderIsStillRead", limitCacheCount(2));
+    try {
+      TestUtils.clearFileLruCache(cache);
+
+      JSONObject header = new JSONObject();
+      header.put("key", key);
+      OutputStream stream =
+          new FileOutputStream(new File(cache.getLocation(), Utility.md5hash(key)));
+      FileLruCache.StreamHeader.writeLegacyHeader(stream, header);
+      stream.write(data);
+      stream.close();
+
+      checkValue(cache, key, data);
+      assertEquals(false, hasValue(cache, "other"));
+    } finally {
+      TestUtils.clearAndDeleteLruCacheDirectory(cache);
+    }
+  }
+
+  @Test
+  public void testTruncatedEntryIsMiss() throws Exception {
+    byte[] data = generateBytes(32);
+    String key = "a";
+
+    FileLruCache cache = new FileLruCache("testTruncatedEntryIsMiss", limitCacheCount(2));
+    try {
+      TestUtils.clearFileLruCache(cache);
+      put(cache, key, data);
+      cache.sizeInBytesForTest();
+
+      File file = new File(cache.getLocation(), Utility.md5hash(key));
+      RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+      randomAccessFile.setLength(file.length() - 1);
+      randomAccessFile.close();
+
+      assertEquals(false, hasValue(cache, key));
+    } finally {
+      TestUtils.clearAndDeleteLruCacheDirectory(cache);
+    }
+  }
+
+  @Test
+  public void testInterceptedStreamClosedEarlyIsNotStored() throws Exception {
+    byte[] data = generateBytes(4096);
+
+    FileLruCache cache =
+        new FileLruCache("testInterceptedStreamClosedEarlyIsNotStored", limitCacheCount(4));
+    try {
+      TestUtils.clearFileLruCache(cache);
+
+      InputStream partial = cache.interceptAndPut("partial", new ByteArrayInputStream(data));
+      assertEquals(1024, partial.read(new byte[1024]));
+      partial.close();
+
+      InputStream complete = cache.interceptAndPut("complete", new ByteArrayInputStream(data));
+      consumeAndClose(complete);
+
+      assertEquals(false, hasValue(cache, "partial"));
+      checkValue(cache, "complete", data);
+    } finally {
+      TestUtils.clearAndDeleteLruCacheDirectory(cache);
+    }
+  }
+
   FileLruCache.Limits limitCacheSize(int n) {
     FileLruCache.Limits limits = new FileLruCache.Limits();
     limits.setByteCount(n);
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.net.Uri;
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+public final class ImageDownloaderTest extends FacebookTestCase {
+  private static final byte[] IMAGE_BYTES = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+
+  private final AtomicInteger fetchCount = new AtomicInteger();
+  private final List<Runnable> pendingWork = new ArrayList<>();
+  private HttpServer server;
+  private WorkQueue originalDownloadQueue;
+  private WorkQueue originalCacheReadQueue;
+
+  @Before
+  public void before() throws IOException {
+    FacebookSdk.setApplicationId("123456789");
+    FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+    File tmp = new File("tmp");
+    tmp.mkdir();
+    FacebookSdk.setCacheDir(tmp);
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/",
+        new HttpHandler() {
+          @Override
+          public void handle(HttpExchange exchange) throws IOException {
+            fetchCount.incrementAndGet();
+            exchange.sendResponseHeaders(200, IMAGE_BYTES.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(IMAGE_BYTES);
+            body.close();
+          }
+        });
+    server.start();
+
+    // Work runs only when the test drains it, so both requests are queued before either runs.
+    Executor executor =
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            pendingWork.add(command);
+          }
+        };
+    originalDownloadQueue = Whitebox.getInternalState(ImageDownloader.class, "downloadQueue");
+    originalCacheReadQueue = Whitebox.getInternalState(ImageDownloader.class, "cacheReadQueue");
+    Whitebox.setInternalState(ImageDownloader.class, "downloadQueue", new WorkQueue(8, executor));
+    Whitebox.setInternalState(ImageDownloader.class, "cacheReadQueue", new WorkQueue(2, executor));
+  }
+
+  @After
+  public void after() {
+    Whitebox.setInternalState(ImageDownloader.class, "downloadQueue", originalDownloadQueue);
+    Whitebox.setInternalState(ImageDownloader.class, "cacheReadQueue", originalCacheReadQueue);
+    server.stop(0);
+  }
+
+  @Test
+  public void testConcurrentIdenticalRequestsShareOneFetchAndDecode() {
+    Uri uri = Uri.parse("http://127.0.0.1:" + server.getAddress().getPort() + "/picture.png");
+    List<ImageResponse> responses = new ArrayList<>();
+
+    ImageDownloader.downloadAsync(newRequest(uri, "first", responses));
+    ImageDownloader.downloadAsync(newRequest(uri, "second", responses));
+    runPendingWork();
+    Robolectric.flushForegroundThreadScheduler();
+
+    assertEquals(1, fetchCount.get());
+    assertEquals(2, responses.size());
+    for (ImageResponse response : responses) {
+      assertNull(response.getError());
+      assertNotNull(response.getBitmap());
+    }
+    // Both callers got the bitmap from the single decode.
+    assertSame(responses.get(0).getBitmap(), responses.get(1).getBitmap());
+  }
+
+  private static ImageRequest newRequest(
+      Uri uri, Object callerTag, final List<ImageResponse> responses) {
+    return new ImageRequest.Builder(RuntimeEnvironment.application, uri)
+        .setCallerTag(callerTag)
+        .setCallback(
+            new ImageRequest.Callback() {
+              @Override
+              public void onCompleted(ImageResponse response) {
+                responses.add(response);
+              }
+            })
+        .build();
+  }
+
+  private void runPendingWork() {
+    while (!pendingWork.isEmpty()) {
+      pendingWork.remove(0).run();
+    }
+  }
+}
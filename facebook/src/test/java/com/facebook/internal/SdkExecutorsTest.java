@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.FacebookTestCase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class SdkExecutorsTest extends FacebookTestCase {
+  @After
+  public void after() {
+    SdkExecutors.shutdown();
+  }
+
+  @Test
+  public void testSerialExecutorRunsTasksInOrder() throws Exception {
+    ScheduledExecutorService executor = SdkExecutors.newSerialExecutor("test");
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(1);
+    for (int i = 0; i < 100; i++) {
+      final int index = i;
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              order.add(index);
+            }
+          });
+    }
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(100, order.size());
+    for (int i = 0; i < order.size(); i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+  }
+
+  @Test
+  public void testCancelledScheduledTaskDoesNotRun() throws Exception {
+    ScheduledExecutorService executor = SdkExecutors.newSerialExecutor("test");
+    final AtomicBoolean ran = new AtomicBoolean();
+    ScheduledFuture<?> future =
+        executor.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                ran.set(true);
+              }
+            },
+            100,
+            TimeUnit.MILLISECONDS);
+    assertTrue(future.cancel(false));
+
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        },
+        200,
+        TimeUnit.MILLISECONDS);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(future.isCancelled());
+    assertFalse(ran.get());
+  }
+
+  @Test
+  public void testSerialExecutorSurvivesShutdown() throws Exception {
+    ScheduledExecutorService executor = SdkExecutors.newSerialExecutor("test");
+    SdkExecutors.shutdown();
+
+    final CountDownLatch done = new CountDownLatch(1);
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testBusySerialExecutorsTakeTurns() throws Exception {
+    final int taskCount = 100;
+    final AtomicInteger busyTasksRun = new AtomicInteger();
+    final CountDownLatch busyDone = new CountDownLatch(2 * taskCount);
+    Runnable busyTask =
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              Thread.sleep(1);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            busyTasksRun.incrementAndGet();
+            busyDone.countDown();
+          }
+        };
+    // Two busy executors are enough to occupy every thread of the shared serial pool.
+    ScheduledExecutorService first = SdkExecutors.newSerialExecutor("first");
+    ScheduledExecutorService second = SdkExecutors.newSerialExecutor("second");
+    for (int i = 0; i < taskCount; i++) {
+      first.execute(busyTask);
+      second.execute(busyTask);
+    }
+
+    final AtomicInteger busyTasksRunBefore = new AtomicInteger(-1);
+    final CountDownLatch done = new CountDownLatch(1);
+    SdkExecutors.newSerialExecutor("third")
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                busyTasksRunBefore.set(busyTasksRun.get());
+                done.countDown();
+              }
+            });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(busyTasksRunBefore.get() < taskCount);
+    assertTrue(busyDone.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testBlockingSerialExecutorRunsWhileSharedPoolIsBlocked() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blockedTask =
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        };
+    SdkExecutors.newSerialExecutor("first").execute(blockedTask);
+    SdkExecutors.newSerialExecutor("second").execute(blockedTask);
+
+    final CountDownLatch done = new CountDownLatch(1);
+    SdkExecutors.newBlockingSerialExecutor("blocking")
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                done.countDown();
+              }
+            });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  @Test
+  public void testSaturatedIoPoolRejectsAndCountsWork() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger finished = new AtomicInteger();
+    Runnable blockedTask =
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            finished.incrementAndGet();
+          }
+        };
+    Executor io = SdkExecutors.getIoExecutor();
+    int accepted = 0;
+    int rejected = 0;
+    for (int i = 0; i < 1000; i++) {
+      try {
+        io.execute(blockedTask);
+        accepted++;
+      } catch (RejectedExecutionException e) {
+        rejected++;
+      }
+    }
+    assertTrue(rejected > 0);
+    assertEquals(rejected, SdkExecutors.getRejectedCount());
+
+    final CountDownLatch serialRan = new CountDownLatch(1);
+    SdkExecutors.newSerialExecutor("test")
+        .execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                serialRan.countDown();
+              }
+            });
+    assertTrue(serialRan.await(5, TimeUnit.SECONDS));
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (finished.get() < accepted && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(accepted, finished.get());
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Locale;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Compares the cost of matching a cache entry header in the legacy JSON format with the binary
+ * format. Timings depend on the machine running the test, so the benchmark is opt-in: remove the
+ * {@code @Ignore} to run it.
+ */
+public class StreamHeaderBenchmarkTest extends FacebookTestCase {
+  private static final int WARMUP_ITERATIONS = 2000;
+  private static final int ITERATIONS = 20000;
+  private static final String KEY =
+      "https://graph.facebook.com/v8.0/1234567890/picture?type=large&width=320&height=320";
+  private static final String TAG = "etag-0123456789abcdef";
+
+  @Before
+  public void before() {
+    FacebookSdk.setApplicationId("123456789");
+    FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+  }
+
+  @Ignore("Benchmark; run by hand")
+  @Test
+  public void testHeaderParsingCost() throws Exception {
+    JSONObject legacyHeader = new JSONObject();
+    legacyHeader.put("key", KEY);
+    legacyHeader.put("tag", TAG);
+    ByteArrayOutputStream legacyOutput = new ByteArrayOutputStream();
+    FileLruCache.StreamHeader.writeLegacyHeader(legacyOutput, legacyHeader);
+    byte[] legacyBytes = legacyOutput.toByteArray();
+
+    byte[] keyBytes = KEY.getBytes(FileLruCache.StreamHeader.UTF_8);
+    byte[] tagBytes = TAG.getBytes(FileLruCache.StreamHeader.UTF_8);
+    ByteArrayOutputStream binaryOutput = new ByteArrayOutputStream();
+    FileLruCache.StreamHeader.writeHeader(binaryOutput, KEY.hashCode(), keyBytes, tagBytes);
+    byte[] binaryBytes = binaryOutput.toByteArray();
+
+    runLegacy(legacyBytes, WARMUP_ITERATIONS);
+    runBinary(binaryBytes, WARMUP_ITERATIONS);
+    long legacyNanos = runLegacy(legacyBytes, ITERATIONS);
+    long binaryNanos = runBinary(binaryBytes, ITERATIONS);
+
+    System.out.println(
+        String.format(
+            Locale.US,
+            "StreamHeader: legacy JSON %d ns/op, binary %d ns/op",
+            legacyNanos / ITERATIONS,
+            binaryNanos / ITERATIONS));
+    // Both loops check every header they parse; the binary format should also be the cheaper one
+    // by a wide margin, since it skips JSON parsing entirely.
+    assertTrue(binaryNanos > 0 && legacyNanos > 0);
+    assertTrue(binaryNanos < legacyNanos);
+  }
+
+  private static long runLegacy(byte[] bytes, int iterations) throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+      stream.read();
+      JSONObject header = FileLruCache.StreamHeader.readLegacyHeader(stream);
+      assertNotNull(header);
+      assertTrue(KEY.equals(header.optString("key")) && TAG.equals(header.optString("tag")));
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static long runBinary(byte[] bytes, int iterations) throws Exception {
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+      // Content length was never filled in, so it is not checked against the stream length.
+      assertTrue(FileLruCache.StreamHeader.readHeader(stream, KEY, TAG, bytes.length));
+    }
+    return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.net.Uri;
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.facebook.TestUtils;
+import java.io.File;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+public final class UrlRedirectCacheTest extends FacebookTestCase {
+  private static final Uri FIRST = Uri.parse("https://graph.facebook.com/4/picture");
+  private static final Uri SECOND = Uri.parse("https://scontent.xx.fbcdn.net/second.jpg");
+  private static final Uri THIRD = Uri.parse("https://scontent.xx.fbcdn.net/third.jpg");
+
+  @Before
+  public void before() throws Exception {
+    FacebookSdk.setApplicationId("123456789");
+    FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+    File tmp = new File("tmp");
+    tmp.mkdir();
+    FacebookSdk.setCacheDir(tmp);
+    UrlRedirectCache.clearCache();
+    TestUtils.clearFileLruCache(UrlRedirectCache.getCache());
+  }
+
+  @Test
+  public void testRedirectChainIsFollowed() {
+    UrlRedirectCache.cacheUriRedirect(FIRST, SECOND);
+    assertEquals(SECOND, UrlRedirectCache.getRedirectedUri(FIRST));
+
+    // The memoized FIRST -> SECOND is dropped once SECOND itself redirects.
+    UrlRedirectCache.cacheUriRedirect(SECOND, THIRD);
+    assertEquals(THIRD, UrlRedirectCache.getRedirectedUri(FIRST));
+    assertEquals(THIRD, UrlRedirectCache.getRedirectedUri(SECOND));
+    assertNull(UrlRedirectCache.getRedirectedUri(THIRD));
+  }
+
+  @Test
+  public void testMemoizedRedirectIsDroppedWhenItLeavesTheDisk() throws Exception {
+    UrlRedirectCache.cacheUriRedirect(FIRST, SECOND);
+    UrlRedirectCache.cacheUriRedirect(SECOND, THIRD);
+    assertEquals(THIRD, UrlRedirectCache.getRedirectedUri(FIRST));
+
+    // What a trim does when it evicts the entry.
+    FileLruCache cache = UrlRedirectCache.getCache();
+    File entry = new File(cache.getLocation(), Utility.md5hash(SECOND.toString()));
+    assertTrue(entry.delete());
+
+    // The chain is resolved from disk again and now stops at SECOND.
+    assertEquals(SECOND, UrlRedirectCache.getRedirectedUri(FIRST));
+    assertNull(UrlRedirectCache.getRedirectedUri(SECOND));
+  }
+
+  @Test
+  public void testMemoizedRedirectIsDroppedOnClear() throws Exception {
+    UrlRedirectCache.cacheUriRedirect(FIRST, SECOND);
+    assertEquals(SECOND, UrlRedirectCache.getRedirectedUri(FIRST));
+
+    UrlRedirectCache.clearCache();
+    TestUtils.clearFileLruCache(UrlRedirectCache.getCache());
+
+    assertNull(UrlRedirectCache.getRedirectedUri(FIRST));
+  }
+}
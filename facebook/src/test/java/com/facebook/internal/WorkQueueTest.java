@@ -193,6 +193,94 @@ public class WorkQueueTest extends FacebookTestCase {
     }
   }
 
+  @Test
+  public void testHigherPriorityRunsFirst() {
+    final ArrayList<String> order = new ArrayList<String>();
+    ScriptableExecutor executor = new ScriptableExecutor();
+    WorkQueue manager = new WorkQueue(1, executor);
+
+    manager.addActiveWorkItem(new RecordingRunnable(order, "first"), false);
+    manager.addActiveWorkItem(
+        new RecordingRunnable(order, "low"), WorkQueue.PRIORITY_LOW, false);
+    manager.addActiveWorkItem(
+        new RecordingRunnable(order, "normal"), WorkQueue.PRIORITY_NORMAL, false);
+    manager.addActiveWorkItem(
+        new RecordingRunnable(order, "high"), WorkQueue.PRIORITY_HIGH, false);
+
+    while (executor.getPendingCount() > 0) {
+      executeNext(manager, executor);
+    }
+
+    assertEquals("[first, high, normal, low]", order.toString());
+  }
+
+  @Test
+  public void testCancelledItemDoesNotRun() {
+    CountingRunnable run = new CountingRunnable();
+    ScriptableExecutor executor = new ScriptableExecutor();
+    WorkQueue manager = new WorkQueue(1, executor);
+
+    addActiveWorkItem(manager, run);
+    WorkQueue.WorkItem cancelled = addActiveWorkItem(manager, run);
+    assertEquals(1, manager.getPendingCount());
+    assertTrue(cancelled.cancel());
+    assertEquals(0, manager.getPendingCount());
+
+    executeNext(manager, executor);
+    assertEquals(0, executor.getPendingCount());
+    assertEquals(1, run.getRunCount());
+    assertEquals(1, manager.getStartedCount());
+  }
+
+  @Test
+  public void testQueueMetrics() {
+    CountingRunnable run = new CountingRunnable();
+    ScriptableExecutor executor = new ScriptableExecutor();
+    WorkQueue manager = new WorkQueue(2, executor);
+
+    for (int i = 0; i < 5; i++) {
+      manager.addActiveWorkItem(run);
+    }
+    assertEquals(2, manager.getRunningCount());
+    assertEquals(3, manager.getPendingCount());
+
+    while (executor.getPendingCount() > 0) {
+      executeNext(manager, executor);
+    }
+    assertEquals(0, manager.getRunningCount());
+    assertEquals(0, manager.getPendingCount());
+    assertEquals(5, manager.getStartedCount());
+    assertTrue(manager.getMaxWaitTimeMillis() <= manager.getTotalWaitTimeMillis());
+  }
+
+  @Test
+  public void testRepeatedMoveToFrontKeepsOneCurrentEntryPerItem() {
+    CountingRunnable run = new CountingRunnable();
+    ScriptableExecutor executor = new ScriptableExecutor();
+    WorkQueue manager = new WorkQueue(1, executor);
+
+    // Occupies the only slot, so the next two stay pending.
+    addActiveWorkItem(manager, run);
+    WorkQueue.WorkItem first = addActiveWorkItem(manager, run);
+    WorkQueue.WorkItem second = addActiveWorkItem(manager, run);
+
+    // validate() checks that each pending item has one current entry and that every superseded
+    // entry is counted as stale.
+    for (int i = 0; i < 1000; i++) {
+      prioritizeWork(manager, i % 2 == 0 ? first : second);
+    }
+    assertEquals(2, manager.getPendingCount());
+
+    cancelWork(manager, second);
+    assertEquals(1, manager.getPendingCount());
+
+    while (executor.getPendingCount() > 0) {
+      executeNext(manager, executor);
+    }
+    assertEquals(2, run.getRunCount());
+    assertEquals(0, manager.getPendingCount());
+  }
+
   private WorkQueue.WorkItem addActiveWorkItem(WorkQueue manager, Runnable runnable) {
     manager.validate();
     WorkQueue.WorkItem workItem = manager.addActiveWorkItem(runnable);
@@ -323,6 +411,21 @@ public class WorkQueueTest extends FacebookTestCase {
     }
   }
 
+  static class RecordingRunnable implements Runnable {
+    private final ArrayList<String> order;
+    private final String name;
+
+    RecordingRunnable(ArrayList<String> order, String name) {
+      this.order = order;
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+    }
+  }
+
   static class CountingRunnable implements Runnable {
     private int runCount = 0;
 
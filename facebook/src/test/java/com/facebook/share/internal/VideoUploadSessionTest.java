@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.FacebookTestCase;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Test;
+
+public class VideoUploadSessionTest extends FacebookTestCase {
+  private static final long VIDEO_SIZE = 1050;
+  private static final long CHUNK_SIZE = 100;
+
+  @Test
+  public void testSerialUploadFollowsServerOffsets() {
+    StubUploadEndpoint server = new StubUploadEndpoint(true);
+    VideoUploadSession session = new VideoUploadSession(VIDEO_SIZE, 1);
+
+    Driver driver = new Driver(session, server, false);
+    driver.run(server.start(session), Integer.MAX_VALUE);
+
+    assertTrue(server.hasEverything());
+    assertEquals(1, driver.maxInFlight);
+    assertEquals(11, server.transferCount);
+    assertEquals(1, driver.finishCount);
+  }
+
+  @Test
+  public void testParallelUploadKeepsChunksInFlight() {
+    StubUploadEndpoint server = new StubUploadEndpoint(true);
+    VideoUploadSession session = new VideoUploadSession(VIDEO_SIZE, 4);
+
+    // Answer the most recently sent chunk first, so responses arrive out of order.
+    Driver driver = new Driver(session, server, true);
+    driver.run(server.start(session), Integer.MAX_VALUE);
+
+    assertTrue(server.hasEverything());
+    assertEquals(4, driver.maxInFlight);
+    assertEquals(11, server.transferCount);
+    assertEquals(1, driver.finishCount);
+    assertTrue(session.isParallel());
+  }
+
+  @Test
+  public void testFallsBackToSerialWhenServerRefusesOutOfOrderChunks() {
+    StubUploadEndpoint server = new StubUploadEndpoint(false);
+    VideoUploadSession session = new VideoUploadSession(VIDEO_SIZE, 4);
+
+    Driver driver = new Driver(session, server, true);
+    driver.run(server.start(session), Integer.MAX_VALUE);
+
+    assertTrue(server.hasEverything());
+    assertTrue(server.rejectedCount > 0);
+    assertFalse(session.isParallel());
+    assertEquals(1, driver.finishCount);
+  }
+
+  @Test
+  public void testResumeFromConfirmedOffset() throws Exception {
+    StubUploadEndpoint server = new StubUploadEndpoint(true);
+    VideoUploadSession session = new VideoUploadSession(VIDEO_SIZE, 1);
+    new Driver(session, server, false).run(server.start(session), 3);
+    assertEquals(300, session.getConfirmedOffset());
+
+    // The process dies here; a new one reads the saved state back.
+    VideoUploadSession resumed = VideoUploadSession.fromJson(session.toJson(), VIDEO_SIZE, 2);
+    assertNotNull(resumed);
+    assertEquals(server.sessionId, resumed.getSessionId());
+    List<VideoUploadSession.Chunk> chunks = resumed.onResumed();
+    assertEquals(300, chunks.get(0).start);
+
+    Driver driver = new Driver(resumed, server, false);
+    driver.run(chunks, Integer.MAX_VALUE);
+    assertTrue(server.hasEverything());
+    assertEquals(11, server.transferCount);
+    assertEquals(1, driver.finishCount);
+  }
+
+  @Test
+  public void testSavedSessionForDifferentVideoIsIgnored() throws Exception {
+    StubUploadEndpoint server = new StubUploadEndpoint(true);
+    VideoUploadSession session = new VideoUploadSession(VIDEO_SIZE, 1);
+    server.start(session);
+
+    assertEquals(null, VideoUploadSession.fromJson(session.toJson(), VIDEO_SIZE + 1, 1));
+  }
+
+  /** Sends chunks to the stub and feeds its responses back into the session. */
+  private static class Driver {
+    private final VideoUploadSession session;
+    private final StubUploadEndpoint server;
+    private final boolean answerNewestFirst;
+    private final LinkedList<VideoUploadSession.Chunk> inFlight = new LinkedList<>();
+    int maxInFlight;
+    int finishCount;
+
+    Driver(VideoUploadSession session, StubUploadEndpoint server, boolean answerNewestFirst) {
+      this.session = session;
+      this.server = server;
+      this.answerNewestFirst = answerNewestFirst;
+    }
+
+    void run(List<VideoUploadSession.Chunk> initial, int maxResponses) {
+      send(initial);
+      for (int responses = 0; !inFlight.isEmpty() && responses < maxResponses; responses++) {
+        VideoUploadSession.Chunk chunk =
+            answerNewestFirst ? inFlight.removeLast() : inFlight.removeFirst();
+        long[] response = server.transfer(chunk);
+        if (response == null) {
+          List<VideoUploadSession.Chunk> next = session.onRejected(chunk);
+          assertNotNull("Upload failed at " + chunk, next);
+          send(next);
+        } else {
+          send(session.onTransferred(chunk, response[0], response[1]));
+        }
+      }
+    }
+
+    private void send(List<VideoUploadSession.Chunk> chunks) {
+      inFlight.addAll(chunks);
+      maxInFlight = Math.max(maxInFlight, inFlight.size());
+      if (session.claimFinish()) {
+        finishCount++;
+      }
+    }
+  }
+
+  /** An in-memory stand-in for the start and transfer phases of the resumable upload endpoint. */
+  private static class StubUploadEndpoint {
+    private final boolean acceptsOutOfOrder;
+    private final boolean[] received = new boolean[(int) VIDEO_SIZE];
+    final String sessionId = "upload-session";
+    int transferCount;
+    int rejectedCount;
+
+    StubUploadEndpoint(boolean acceptsOutOfOrder) {
+      this.acceptsOutOfOrder = acceptsOutOfOrder;
+    }
+
+    List<VideoUploadSession.Chunk> start(VideoUploadSession session) {
+      return session.onStarted(sessionId, "video", 0, CHUNK_SIZE);
+    }
+
+    /** Returns the next start and end offsets, or null if the chunk was refused. */
+    long[] transfer(VideoUploadSession.Chunk chunk) {
+      if (!acceptsOutOfOrder && chunk.start != getContiguousOffset()) {
+        rejectedCount++;
+        return null;
+      }
+      transferCount++;
+      for (long i = chunk.start; i < chunk.end; i++) {
+        received[(int) i] = true;
+      }
+      long next = getContiguousOffset();
+      return new long[] {next, Math.min(next + CHUNK_SIZE, VIDEO_SIZE)};
+    }
+
+    boolean hasEverything() {
+      return getContiguousOffset() == VIDEO_SIZE;
+    }
+
+    private long getContiguousOffset() {
+      int offset = 0;
+      while (offset < received.length && received[offset]) {
+        offset++;
+      }
+      return offset;
+    }
+  }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import com.facebook.AccessToken;
+import com.facebook.FacebookException;
+import com.facebook.FacebookPowerMockTestCase;
+import com.facebook.FacebookRequestError;
+import com.facebook.FacebookSdk;
+import com.facebook.GraphRequest;
+import com.facebook.GraphResponse;
+import com.facebook.internal.Utility;
+import com.facebook.internal.WorkQueue;
+import com.facebook.share.model.ShareVideo;
+import com.facebook.share.model.ShareVideoContent;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.reflect.Whitebox;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+@PrepareForTest({AccessToken.class, FacebookSdk.class, GraphRequest.class, Utility.class})
+public class VideoUploaderTest extends FacebookPowerMockTestCase {
+  private static final int VIDEO_SIZE = 1050;
+  private static final int CHUNK_SIZE = 100;
+  private static final int ERROR_SUBCODE_UNEXPECTED_START_OFFSET = 1363037;
+  private static final int ERROR_CODE_OAUTH = 190;
+  private static final int ERROR_CODE_INVALID_PARAMETER = 100;
+  private static final String SESSION_STORE_NAME =
+      "com.facebook.share.internal.VideoUploader.sessions";
+
+  private final byte[] contents = new byte[VIDEO_SIZE];
+  private final List<Runnable> pendingWork = new ArrayList<>();
+  private final List<GraphResponse> completions = new ArrayList<>();
+  private StubVideoEndpoint endpoint;
+  private WorkQueue originalUploadQueue;
+  private boolean runNewestWorkFirst;
+  private File file;
+
+  @Before
+  public void before() throws Exception {
+    PowerMockito.spy(FacebookSdk.class);
+    Whitebox.setInternalState(FacebookSdk.class, "sdkInitialized", true);
+    Whitebox.setInternalState(FacebookSdk.class, "applicationId", "1234");
+    Whitebox.setInternalState(FacebookSdk.class, "appClientToken", "5678");
+    when(FacebookSdk.getApplicationContext()).thenReturn(RuntimeEnvironment.application);
+    PowerMockito.mockStatic(AccessToken.class);
+    PowerMockito.spy(Utility.class);
+
+    // Every request made by the uploader is answered by the stub instead of the network.
+    endpoint = new StubVideoEndpoint();
+    PowerMockito.spy(GraphRequest.class);
+    PowerMockito.doAnswer(endpoint)
+        .when(GraphRequest.class, "executeAndWait", any(GraphRequest.class));
+
+    // Work runs only when the test drains it, on the test thread.
+    Executor executor =
+        new Executor() {
+          @Override
+          public void execute(Runnable command) {
+            pendingWork.add(command);
+          }
+        };
+    originalUploadQueue = Whitebox.getInternalState(VideoUploader.class, "uploadQueue");
+    Whitebox.setInternalState(VideoUploader.class, "initialized", true);
+    // The handler is bound to the main looper, which is replaced for every test.
+    Whitebox.setInternalState(VideoUploader.class, "handler", (Object) null);
+    Whitebox.setInternalState(VideoUploader.class, "maxChunksInFlight", 1);
+    Whitebox.setInternalState(VideoUploader.class, "pendingUploads", new HashSet<Object>());
+    Whitebox.setInternalState(VideoUploader.class, "uploadQueue", new WorkQueue(8, executor));
+    getSessionStore().edit().clear().commit();
+
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = (byte) i;
+    }
+    file = File.createTempFile("video", ".mp4");
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(contents);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  @After
+  public void after() {
+    Whitebox.setInternalState(VideoUploader.class, "uploadQueue", originalUploadQueue);
+    Whitebox.setInternalState(VideoUploader.class, "maxChunksInFlight", 1);
+    file.delete();
+  }
+
+  @Test
+  public void testFileVideoIsSentAsDescriptorRanges() throws Exception {
+    upload(Uri.fromFile(file));
+    runQueuedWork();
+
+    assertTrue(endpoint.hasEverything());
+    assertEquals(11, endpoint.rangeChunkCount);
+    assertEquals(0, endpoint.byteArrayChunkCount);
+    assertEquals(1, endpoint.finishCount);
+    assertSucceeded();
+  }
+
+  @Test
+  public void testRangePastTheEndOfTheVideoFailsTheUpload() throws Exception {
+    // The stub asks for a last chunk that runs past the end of the file.
+    endpoint.clampsEndOffset = false;
+    upload(Uri.fromFile(file));
+    runQueuedWork();
+
+    assertEquals(10, endpoint.transferCount);
+    assertEquals(0, endpoint.finishCount);
+    assertEquals(1, completions.size());
+    assertNull(completions.get(0));
+  }
+
+  @Test
+  public void testNonSeekableContentUriIsReadSequentially() throws Exception {
+    Uri uri = Uri.parse("content://com.facebook.test/videos/1");
+    ParcelFileDescriptor pipe = mock(ParcelFileDescriptor.class);
+    when(pipe.getStatSize()).thenReturn(-1L);
+    ContentResolver resolver = mock(ContentResolver.class);
+    when(resolver.openFileDescriptor(uri, "r")).thenReturn(pipe);
+    when(resolver.openInputStream(uri)).thenReturn(new ByteArrayInputStream(contents));
+    Context context = spy(RuntimeEnvironment.application);
+    doReturn(resolver).when(context).getContentResolver();
+    when(FacebookSdk.getApplicationContext()).thenReturn(context);
+    PowerMockito.doReturn((long) VIDEO_SIZE).when(Utility.class, "getContentSize", uri);
+    // A stream cannot be read at an offset, so this is ignored.
+    VideoUploader.setMaxChunksInFlight(4);
+
+    upload(uri);
+    runQueuedWork();
+
+    verify(pipe).close();
+    assertTrue(endpoint.hasEverything());
+    assertEquals(0, endpoint.rangeChunkCount);
+    assertEquals(11, endpoint.byteArrayChunkCount);
+    assertEquals(0, endpoint.outOfOrderCount);
+    assertEquals(1, endpoint.finishCount);
+    assertSucceeded();
+  }
+
+  @Test
+  public void testInterruptedUploadIsSavedAndResumed() throws Exception {
+    Uri videoUri = Uri.fromFile(file);
+    endpoint.failTransferAt = 300;
+    upload(videoUri);
+    runQueuedWork();
+
+    assertEquals(1, completions.size());
+    assertNotNull(completions.get(0).getError());
+    JSONObject saved = new JSONObject(getSessionStore().getString("|me|" + videoUri, null));
+    assertEquals("session-1", saved.getString("session_id"));
+    assertEquals(300, saved.getLong("confirmed_offset"));
+
+    completions.clear();
+    endpoint.failTransferAt = -1;
+    int sentBeforeResume = endpoint.transferStarts.size();
+    upload(videoUri);
+    runQueuedWork();
+
+    assertEquals(1, endpoint.startCount);
+    assertEquals(300, (int) endpoint.transferStarts.get(sentBeforeResume));
+    assertTrue(endpoint.hasEverything());
+    assertEquals(1, endpoint.finishCount);
+    assertSucceeded();
+    assertNull(getSessionStore().getString("|me|" + videoUri, null));
+  }
+
+  @Test
+  public void testRefusedResumedSessionRestartsUpload() throws Exception {
+    Uri videoUri = Uri.fromFile(file);
+    endpoint.failTransferAt = 300;
+    upload(videoUri);
+    runQueuedWork();
+
+    // The server has since dropped the session.
+    completions.clear();
+    endpoint.failTransferAt = -1;
+    endpoint.forgetSessions();
+    upload(videoUri);
+    runQueuedWork();
+
+    assertEquals(2, endpoint.startCount);
+    assertTrue(endpoint.hasEverything());
+    assertEquals(1, endpoint.finishCount);
+    assertSucceeded();
+    assertEquals("video-2", completions.get(0).getJSONObject().getString("video_id"));
+  }
+
+  @Test
+  public void testParallelUploadFinishesOnce() throws Exception {
+    VideoUploader.setMaxChunksInFlight(4);
+    runNewestWorkFirst = true;
+    upload(Uri.fromFile(file));
+    runQueuedWork();
+
+    assertTrue(endpoint.outOfOrderCount > 0);
+    assertTrue(endpoint.hasEverything());
+    assertEquals(1, endpoint.finishCount);
+    assertSucceeded();
+  }
+
+  @Test
+  public void testOutOfOrderRefusalFallsBackToSerial() throws Exception {
+    VideoUploader.setMaxChunksInFlight(4);
+    runNewestWorkFirst = true;
+    endpoint.acceptsOutOfOrder = false;
+    upload(Uri.fromFile(file));
+    runQueuedWork();
+
+    assertTrue(endpoint.rejectedCount > 0);
+    assertTrue(endpoint.hasEverything());
+    assertEquals(1, endpoint.finishCount);
+    assertSucceeded();
+  }
+
+  @Test
+  public void testFailureAbandonsChunksInFlight() throws Exception {
+    VideoUploader.setMaxChunksInFlight(4);
+    runNewestWorkFirst = true;
+    // The newest chunk is answered first, so the failure hits a chunk sent ahead of the
+    // confirmed offset. It must fail the upload rather than switch it to serial mode.
+    endpoint.failTransferAt = 300;
+    upload(Uri.fromFile(file));
+    runQueuedWork();
+
+    assertEquals(0, endpoint.rejectedCount);
+    // The three chunks queued behind the failed one are dropped without being sent.
+    assertEquals(1, endpoint.transferStarts.size());
+    assertEquals(0, endpoint.finishCount);
+    assertEquals(1, completions.size());
+    assertEquals(ERROR_CODE_OAUTH, completions.get(0).getError().getErrorCode());
+  }
+
+  private void upload(Uri videoUri) throws IOException {
+    ShareVideoContent content =
+        new ShareVideoContent.Builder()
+            .setVideo(new ShareVideo.Builder().setLocalUrl(videoUri).build())
+            .build();
+    VideoUploader.uploadAsyncWithProgressCallback(
+        content,
+        new GraphRequest.OnProgressCallback() {
+          @Override
+          public void onProgress(long current, long max) {}
+
+          @Override
+          public void onCompleted(GraphResponse response) {
+            completions.add(response);
+          }
+        });
+  }
+
+  private void runQueuedWork() {
+    while (!pendingWork.isEmpty()) {
+      pendingWork.remove(runNewestWorkFirst ? pendingWork.size() - 1 : 0).run();
+      Robolectric.flushForegroundThreadScheduler();
+    }
+  }
+
+  private static SharedPreferences getSessionStore() {
+    return RuntimeEnvironment.application.getSharedPreferences(
+        SESSION_STORE_NAME, Context.MODE_PRIVATE);
+  }
+
+  private static GraphResponse errorResponse(GraphRequest request, int code, int subcode)
+      throws Exception {
+    FacebookRequestError error =
+        Whitebox.invokeConstructor(
+            FacebookRequestError.class,
+            new Class<?>[] {
+              int.class,
+              int.class,
+              int.class,
+              String.class,
+              String.class,
+              String.class,
+              String.class,
+              boolean.class,
+              JSONObject.class,
+              JSONObject.class,
+              Object.class,
+              HttpURLConnection.class,
+              FacebookException.class
+            },
+            new Object[] {
+              400, code, subcode, "OAuthException", "Refused", null, null, false, null, null,
+              null, null, null
+            });
+    return new GraphResponse(request, null, error);
+  }
+
+  private void assertSucceeded() throws Exception {
+    assertEquals(1, completions.size());
+    GraphResponse response = completions.get(0);
+    assertNotNull(response);
+    assertNull(response.getError());
+    assertEquals(endpoint.videoId, response.getJSONObject().getString("video_id"));
+  }
+
+  /** An in-memory stand-in for the start, transfer and finish phases of the upload endpoint. */
+  private class StubVideoEndpoint implements Answer<GraphResponse> {
+    private final Set<String> sessionIds = new HashSet<>();
+    private final boolean[] received = new boolean[VIDEO_SIZE];
+    // The start offset of every transfer request, including refused ones.
+    final List<Integer> transferStarts = new ArrayList<>();
+    boolean clampsEndOffset = true;
+    boolean acceptsOutOfOrder = true;
+    // The next transfer starting here is refused with an expired token error.
+    int failTransferAt = -1;
+    int rejectedCount;
+    String videoId;
+    int startCount;
+    int transferCount;
+    int finishCount;
+    int rangeChunkCount;
+    int byteArrayChunkCount;
+    int outOfOrderCount;
+
+    @Override
+    public GraphResponse answer(InvocationOnMock invocation) throws Throwable {
+      GraphRequest request = (GraphRequest) invocation.getArguments()[0];
+      Bundle parameters = request.getParameters();
+      String phase = parameters.getString("upload_phase");
+      JSONObject result = new JSONObject();
+      if ("start".equals(phase)) {
+        startCount++;
+        String sessionId = "session-" + startCount;
+        sessionIds.add(sessionId);
+        videoId = "video-" + startCount;
+        result.put("upload_session_id", sessionId);
+        result.put("video_id", videoId);
+        result.put("start_offset", "0");
+        result.put("end_offset", String.valueOf(CHUNK_SIZE));
+      } else if ("transfer".equals(phase)) {
+        int start = Integer.parseInt(parameters.getString("start_offset"));
+        transferStarts.add(start);
+        if (!sessionIds.contains(parameters.getString("upload_session_id"))) {
+          return errorResponse(request, ERROR_CODE_INVALID_PARAMETER, -1);
+        }
+        if (start == failTransferAt) {
+          failTransferAt = -1;
+          return errorResponse(request, ERROR_CODE_OAUTH, -1);
+        }
+        if (start != getContiguousOffset()) {
+          if (!acceptsOutOfOrder) {
+            rejectedCount++;
+            return errorResponse(
+                request, ERROR_CODE_INVALID_PARAMETER, ERROR_SUBCODE_UNEXPECTED_START_OFFSET);
+          }
+          outOfOrderCount++;
+        }
+        transferCount++;
+        byte[] chunk = readChunk(parameters.get("video_file_chunk"), start);
+        for (int i = 0; i < chunk.length; i++) {
+          assertEquals(contents[start + i], chunk[i]);
+          received[start + i] = true;
+        }
+        long next = getContiguousOffset();
+        long end = next + CHUNK_SIZE;
+        result.put("start_offset", String.valueOf(next));
+        result.put(
+            "end_offset", String.valueOf(clampsEndOffset ? Math.min(end, VIDEO_SIZE) : end));
+      } else {
+        finishCount++;
+        result.put("success", true);
+      }
+      return new GraphResponse(request, null, result.toString(), result);
+    }
+
+    private byte[] readChunk(Object attachment, int start) throws IOException {
+      if (attachment instanceof byte[]) {
+        byteArrayChunkCount++;
+        return (byte[]) attachment;
+      }
+      GraphRequest.ParcelFileDescriptorRange range =
+          (GraphRequest.ParcelFileDescriptorRange) attachment;
+      rangeChunkCount++;
+      assertEquals(start, range.getOffset());
+      assertTrue(range.getLength() <= CHUNK_SIZE);
+      // The descriptor is shared by every chunk of the upload and must still be open.
+      assertEquals(VIDEO_SIZE, range.getDescriptor().getStatSize());
+      ByteBuffer chunk = ByteBuffer.allocate((int) range.getLength());
+      // Not closed: that would close the descriptor the uploader still reads from.
+      FileChannel channel =
+          new FileInputStream(range.getDescriptor().getFileDescriptor()).getChannel();
+      while (chunk.hasRemaining()) {
+        if (channel.read(chunk, range.getOffset() + chunk.position()) < 0) {
+          break;
+        }
+      }
+      return Arrays.copyOf(chunk.array(), chunk.position());
+    }
+
+    void forgetSessions() {
+      sessionIds.clear();
+    }
+
+    boolean hasEverything() {
+      return getContiguousOffset() == VIDEO_SIZE;
+    }
+
+    private int getContiguousOffset() {
+      int offset = 0;
+      while (offset < received.length && received[offset]) {
+        offset++;
+      }
+      return offset;
+    }
+  }
+}